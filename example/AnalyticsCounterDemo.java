@@ -93,11 +93,10 @@ public class AnalyticsCounterDemo {
         // Simulate multiple views of same page
         System.out.println("\n🔄 Simulating 5 more views of /home...");
         for (int i = 0; i < 5; i++) {
-            Map<String, Object> counter = cache.get("page_views", Map.of("page_path", "/home"));
-            int count = counter != null ? (Integer) counter.getOrDefault("count", 0) : 0;
-            cache.set("page_views", Map.of("page_path", "/home"),
-                    Map.of("count", count + 1,
-                           "last_viewed", System.currentTimeMillis()));
+            // no read-modify-write: only the +1 is logged and flushed
+            cache.increment("page_views", Map.of("page_path", "/home"), "count", 1);
+            cache.patch("page_views", Map.of("page_path", "/home"),
+                    Map.of("last_viewed", System.currentTimeMillis()));
         }
 
         Map<String, Object> finalCount = cache.get("page_views", Map.of("page_path", "/home"));
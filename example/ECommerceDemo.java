@@ -2,8 +2,10 @@ package example;
 
 import cachedb.CacheDB;
 import cachedb.SimpleDataSource;
+import cachedb.VersionedRow;
 
 import javax.sql.DataSource;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -21,6 +23,7 @@ import java.util.Map;
  * - Write-behind persistence (async database writes)
  * - Delete operations
  * - Composite primary keys
+ * - Optimistic stock updates (compare-and-set)
  * - Multiple tables
  * - Recovery from crashes
  */
@@ -126,6 +129,29 @@ public class ECommerceDemo {
         }
         System.out.println("  ✓ All lookups served from cache (no database queries!)");
 
+        // Optimistic stock decrement: retry (a bounded number of times) if
+        // another checkout got there first
+        System.out.println("\n🏷️  Selling 3 laptops (compare-and-set on stock)...");
+        int sold = 0;
+        for (int attempt = 0; sold < 3 && attempt < 10; attempt++) {
+            VersionedRow row = cache.getWithVersion("products", Map.of("product_id", 101));
+            if (row == null) {
+                System.out.println("  Product 101 is no longer cached");
+                break;
+            }
+            int stock = ((Number) row.columns.get("stock")).intValue();
+            if (stock == 0) break;
+
+            Map<String, Object> updated = new HashMap<>(row.columns);
+            updated.put("stock", stock - 1);
+            if (cache.compareAndSet("products", Map.of("product_id", 101), row.version, updated)) {
+                sold++;
+            }
+        }
+        Map<String, Object> laptopNow = cache.get("products", Map.of("product_id", 101));
+        System.out.println("  Sold " + sold + ", laptop stock now: "
+                + (laptopNow != null ? laptopNow.get("stock") : "unknown"));
+
         Thread.sleep(1000);
         System.out.println("\n✓ Product catalog operations complete\n");
     }
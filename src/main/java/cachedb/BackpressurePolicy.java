@@ -0,0 +1,16 @@
+package cachedb;
+
+/**
+ * What writers experience when the flush queue is full.
+ */
+public enum BackpressurePolicy {
+
+    /** Block {@code set}/{@code delete} until the queue has room again. */
+    BLOCK,
+
+    /** Slow writers down with a delay that grows as the queue fills up. */
+    DELAY,
+
+    /** Never slow writers; expired rows stay dirty in the store until the queue drains. */
+    KEEP_DIRTY
+}
@@ -0,0 +1,59 @@
+package cachedb;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers reused across WAL appends. A record serialized straight
+ * into one costs no allocation, and the channel writes it without first
+ * copying it into a temporary direct buffer as it does for heap buffers.
+ * Shared rather than per thread, so thousands of virtual threads don't each
+ * pin a buffer of their own.
+ */
+class BufferPool {
+
+    private static final int MIN_CAPACITY = 4096;
+
+    private final int maxPooled;
+    private final int maxBufferBytes;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /** Keeps up to {@code maxPooled} buffers; requests over {@code maxBufferBytes} aren't pooled. */
+    BufferPool(int maxPooled, int maxBufferBytes) {
+        this.maxPooled = maxPooled;
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    /** A cleared buffer with room for at least {@code bytes}. */
+    ByteBuffer acquire(int bytes) {
+        if (bytes > maxBufferBytes) {
+            // rare and large: not worth keeping direct memory around for
+            return ByteBuffer.allocate(bytes);
+        }
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            if (buffer.capacity() >= bytes) {
+                return buffer.clear();
+            }
+        }
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(bytes - 1) << 1);
+        return ByteBuffer.allocateDirect(Math.min(capacity, maxBufferBytes));
+    }
+
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) return;
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        free.offer(buffer);
+    }
+
+    int pooledCount() {
+        return pooled.get();
+    }
+}
@@ -4,33 +4,109 @@ import javax.sql.DataSource;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
-public final class CacheDB {
+public final class CacheDB implements AutoCloseable {
 
     private static final Path WAL_PATH =
             Path.of("logs", "wal.log");
 
+    private static final Path SNAPSHOT_DIR =
+            Path.of("logs", "snapshot");
+
     private final CacheStore store;
     private final ExpirationManager expirationManager;
+    private final FlushManager flushManager;
     private final WALWriter wal;
+    private final List<Thread> workers;
+    private final ThreadFactory flushThreads;
+    private final int shutdownFlushWorkers;
+    private final long shutdownTimeoutMillis;
+    private final SnapshotManager snapshots;
+    private final RowLoader rowLoader;
+    private final Durability durability;
+    private ScheduledExecutorService snapshotScheduler;
+    private final StampedLock writeBarrier;
+    private WALCompactor walCompactor;
+    private RefreshAheadManager refresher;
+    private QueryCache queryCache;
+    private KeyFilters keyFilters;
     private Dashboard dashboard;
 
+    private volatile boolean closed;
+
+    // orders writes per row: the WAL, the cache and (write-through) MySQL
+    // see the same sequence, and compareAndSet's check holds until it writes
+    private final ReentrantLock[] rowLocks = new ReentrantLock[64];
+
     private CacheDB(CacheStore store,
                     ExpirationManager expirationManager,
-                    Dashboard dashboard) throws IOException {
+                    FlushManager flushManager,
+                    WALWriter wal,
+                    List<Thread> workers,
+                    ThreadFactory flushThreads,
+                    int shutdownFlushWorkers,
+                    long shutdownTimeoutMillis,
+                    SnapshotManager snapshots,
+                    RowLoader rowLoader,
+                    Durability durability) throws IOException {
 
         this.store = store;
         this.expirationManager = expirationManager;
-        this.dashboard = dashboard;
-
-        Files.createDirectories(WAL_PATH.getParent());
-        this.wal = new WALWriter(WAL_PATH);
+        this.flushManager = flushManager;
+        this.wal = wal;
+        this.workers = workers;
+        this.flushThreads = flushThreads;
+        this.shutdownFlushWorkers = shutdownFlushWorkers;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.snapshots = snapshots;
+        this.rowLoader = rowLoader;
+        this.durability = durability;
+        this.writeBarrier = snapshots != null ? snapshots.barrier() : new StampedLock();
+        flushManager.setWriteBarrier(writeBarrier);
+        for (int i = 0; i < rowLocks.length; i++) {
+            rowLocks[i] = new ReentrantLock();
+        }
 
         recover();
     }
 
+    private void scheduleSnapshots(long intervalSeconds) {
+        if (snapshots == null || intervalSeconds <= 0) return;
+
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-thread");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshots.snapshot();
+            } catch (Exception e) {
+                System.err.println("Warning: snapshot failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void startWalCompaction(long intervalMillis) {
+        if (intervalMillis <= 0) return;
+        walCompactor = new WALCompactor(wal, store, flushManager, writeBarrier, snapshots);
+        walCompactor.start(intervalMillis);
+    }
+
     private void setDashboard(Dashboard dashboard) {
         this.dashboard = dashboard;
         if (dashboard != null) {
@@ -52,22 +128,64 @@ public final class CacheDB {
     }
 
 
+    /**
+     * Writes a snapshot of every resident row now. Requires snapshots to be
+     * enabled on the builder.
+     */
+    public void snapshot() throws IOException {
+        if (snapshots == null) {
+            throw new IllegalStateException("Snapshots are not enabled");
+        }
+        snapshots.snapshot();
+    }
+
     private void recover() throws IOException {
+        // rows from the last snapshot first, then only the WAL written after it
+        WALMark base = snapshots != null ? snapshots.load(wal.mark()) : null;
+
         if (!Files.exists(WAL_PATH)) return;
 
-        WALReader reader = new WALReader(WAL_PATH);
+        long start = base != null ? base.offset : 0;
+
+        try (WALReader reader = new WALReader(WAL_PATH, start, wal.segmentBytes())) {
+            replay(reader);
+        }
+    }
 
+    private void replay(WALReader reader) {
         for (LogRecord r : reader) {
+            if (r.type() == LogType.EPOCH) continue;
+
             String key = new String(r.key());
             // key format: table|{pk}
             String[] parts = key.split("\\|", 2);
             String table = parts[0];
             Map<String, Object> pk = SimpleCodec.parseMap(parts[1]);
+            try {
+                store.checkKey(table, pk);
+            } catch (IllegalArgumentException e) {
+                // logged before keys were checked on write; the row can't be indexed
+                System.err.println("Warning: skipping record for " + key + ": " + e.getMessage());
+                continue;
+            }
 
             if (r.type() == LogType.PUT) {
                 String value = new String(r.value());
                 Map<String, Object> cols = SimpleCodec.parseMap(value);
                 store.upsert(table, pk, cols);
+            } else if (r.type() == LogType.PATCH) {
+                store.patch(table, pk, SimpleCodec.parseMap(new String(r.value())));
+            } else if (r.type() == LogType.INCREMENT) {
+                Map<String, Object> deltas = SimpleCodec.parseMap(new String(r.value()));
+                for (Map.Entry<String, Object> d : deltas.entrySet()) {
+                    try {
+                        store.increment(table, pk, d.getKey(), Long.parseLong(d.getValue().toString()));
+                    } catch (IllegalArgumentException e) {
+                        // the column turned non-numeric after the check; the
+                        // increment failed back then and changed nothing
+                        System.err.println("Warning: skipping increment of " + key + ": " + e.getMessage());
+                    }
+                }
             } else if (r.type() == LogType.DELETE) {
                 store.delete(table, pk);
             }
@@ -81,24 +199,237 @@ public final class CacheDB {
         Objects.requireNonNull(table);
         Objects.requireNonNull(primaryKey);
         Objects.requireNonNull(columns);
+        store.checkKey(table, primaryKey);
+        ensureOpen();
+
+        if (writeMode(table) == WriteMode.WRITE_THROUGH) {
+            writeThrough(new RowMutation(table, primaryKey, columns, 0, false));
+            invalidateQueries(table);
+            if (dashboard != null) {
+                dashboard.recordWrite();
+            }
+            return;
+        }
+
+        flushManager.throttle();
 
         byte[] walKey =
                 (table + "|" + primaryKey.toString()).getBytes();
         byte[] walValue =
                 columns.toString().getBytes();
 
+        ReentrantLock lock = rowLock(table, primaryKey);
+        long stamp = enterWrite(lock);
         try {
-            wal.append(LogRecord.put(walKey, walValue));
+            wal.append(LogRecord.put(walKey, walValue), durability(table));
+            store.upsert(table, primaryKey, columns);
         } catch (IOException e) {
             throw new RuntimeException("WAL write failed", e);
+        } finally {
+            exitWrite(lock, stamp);
         }
-
-        store.upsert(table, primaryKey, columns);
         
         // Track write operation
+        invalidateQueries(table);
+        if (dashboard != null) {
+            dashboard.recordWrite();
+        }
+    }
+
+    /**
+     * Updates only the given columns of a row, leaving the others as they
+     * are. Only these columns are logged and later written to MySQL.
+     */
+    public void patch(String table,
+                      Map<String, Object> primaryKey,
+                      Map<String, Object> columns) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKey);
+        Objects.requireNonNull(columns);
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Patch needs at least one column");
+        }
+        store.checkKey(table, primaryKey);
+        ensureOpen();
+
+        if (writeMode(table) == WriteMode.WRITE_THROUGH) {
+            writeThrough(new RowMutation(table, primaryKey, columns, 0, false, true));
+            invalidateQueries(table);
+            if (dashboard != null) {
+                dashboard.recordWrite();
+            }
+            return;
+        }
+
+        flushManager.throttle();
+
+        byte[] walKey =
+                (table + "|" + primaryKey.toString()).getBytes();
+        byte[] walValue =
+                columns.toString().getBytes();
+
+        ReentrantLock lock = rowLock(table, primaryKey);
+        long stamp = enterWrite(lock);
+        try {
+            wal.append(LogRecord.patch(walKey, walValue), durability(table));
+            store.patch(table, primaryKey, columns);
+        } catch (IOException e) {
+            throw new RuntimeException("WAL write failed", e);
+        } finally {
+            exitWrite(lock, stamp);
+        }
+
+        invalidateQueries(table);
+
+        if (dashboard != null) {
+            dashboard.recordWrite();
+        }
+    }
+
+    /**
+     * Atomically adds {@code delta} to a numeric column. Only the delta is
+     * logged, and MySQL receives {@code col = col + delta}, so increments
+     * made elsewhere are not overwritten. Returns the new value, or null if
+     * the row isn't cached and its current value is unknown.
+     */
+    public Long increment(String table,
+                          Map<String, Object> primaryKey,
+                          String column,
+                          long delta) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKey);
+        Objects.requireNonNull(column);
+        store.checkKey(table, primaryKey);
+        ensureOpen();
+
+        if (writeMode(table) == WriteMode.WRITE_THROUGH) {
+            Long value = writeThrough(new RowMutation(table, primaryKey, Map.of(),
+                    Map.of(column, delta), 0, false, true));
+            invalidateQueries(table);
+            if (dashboard != null) {
+                dashboard.recordWrite();
+            }
+            return value;
+        }
+
+        flushManager.throttle();
+
+        byte[] walKey =
+                (table + "|" + primaryKey.toString()).getBytes();
+        byte[] walValue =
+                Map.of(column, delta).toString().getBytes();
+
+        Long value;
+        ReentrantLock lock = rowLock(table, primaryKey);
+        long stamp = enterWrite(lock);
+        try {
+            // a non-numeric column throws before anything is logged
+            store.checkCounter(table, primaryKey, column);
+            wal.append(LogRecord.increment(walKey, walValue), durability(table));
+            value = store.increment(table, primaryKey, column, delta);
+        } catch (IOException e) {
+            throw new RuntimeException("WAL write failed", e);
+        } finally {
+            exitWrite(lock, stamp);
+        }
+
+        invalidateQueries(table);
+
         if (dashboard != null) {
             dashboard.recordWrite();
         }
+        return value;
+    }
+
+    /**
+     * Like {@link #get}, but also returns the row's version for a later
+     * {@link #compareAndSet}.
+     */
+    public VersionedRow getWithVersion(String table,
+                                       Map<String, Object> primaryKey) {
+        VersionedRow result = store.getWithVersion(table, primaryKey);
+
+        if (dashboard != null) {
+            if (result != null) {
+                dashboard.recordRead();
+            } else {
+                dashboard.recordMiss();
+            }
+        }
+
+        if (result == null && store.config(table).readThrough
+                && !store.contains(table, primaryKey)
+                && !store.isKnownAbsent(table, primaryKey)
+                && mightExist(table, primaryKey)
+                && readThrough(table, primaryKey) != null) {
+            result = store.getWithVersion(table, primaryKey);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the row like {@link #set}, but only if its version is still
+     * {@code expectedVersion} (as returned by {@link #getWithVersion}; 0 means
+     * "not cached"). The check and the write happen atomically and nothing is
+     * logged when the check fails. Versions are only comparable while the row
+     * stays cached.
+     */
+    public boolean compareAndSet(String table,
+                                 Map<String, Object> primaryKey,
+                                 long expectedVersion,
+                                 Map<String, Object> columns) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKey);
+        Objects.requireNonNull(columns);
+        store.checkKey(table, primaryKey);
+        ensureOpen();
+
+        boolean swapped;
+        ReentrantLock lock = rowLock(table, primaryKey);
+        if (writeMode(table) == WriteMode.WRITE_THROUGH) {
+            lock.lock();
+            try {
+                swapped = store.version(table, primaryKey) == expectedVersion;
+                if (swapped) {
+                    writeThrough(new RowMutation(table, primaryKey, columns, 0, false));
+                }
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            flushManager.throttle();
+
+            byte[] walKey =
+                    (table + "|" + primaryKey.toString()).getBytes();
+            byte[] walValue =
+                    columns.toString().getBytes();
+
+            // other writers of the row wait on the lock; a reload or expiry
+            // in between would have skipped the row had the write come first
+            long stamp = enterWrite(lock);
+            try {
+                swapped = store.version(table, primaryKey) == expectedVersion;
+                if (swapped) {
+                    wal.append(LogRecord.put(walKey, walValue), durability(table));
+                    store.upsert(table, primaryKey, columns);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("WAL write failed", e);
+            } finally {
+                exitWrite(lock, stamp);
+            }
+        }
+
+        if (swapped) {
+            invalidateQueries(table);
+            if (dashboard != null) {
+                dashboard.recordWrite();
+            }
+        }
+        return swapped;
     }
 
     public Map<String, Object> get(String table,
@@ -113,33 +444,332 @@ public final class CacheDB {
                 dashboard.recordMiss();
             }
         }
+
+        if (result == null && store.config(table).readThrough
+                && !store.contains(table, primaryKey)
+                && !store.isKnownAbsent(table, primaryKey)
+                && mightExist(table, primaryKey)) {
+            result = readThrough(table, primaryKey);
+        }
         
         return result;
     }
 
+    /**
+     * Cached rows of {@code table} whose {@code column} equals {@code value},
+     * each including its primary-key columns. Served from a secondary index
+     * declared with {@link TableConfig.Builder#index}; rows that aren't
+     * cached are not found (MySQL is never queried).
+     */
+    public List<Map<String, Object>> findBy(String table, String column, Object value) {
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(column);
+        Objects.requireNonNull(value);
+        return store.findBy(table, column, value);
+    }
+
+    /**
+     * Cached rows with {@code from <= column < to}, in column order; a null
+     * bound is open. Needs an {@link IndexType#SORTED} index on the column.
+     */
+    public List<Map<String, Object>> findRange(String table, String column, Object from, Object to) {
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(column);
+        return store.findRange(table, column, from, to);
+    }
+
+    /**
+     * Cached rows whose primary key starts with {@code pkPrefix} (the leading
+     * columns of the table's {@link TableConfig.Builder#orderedKey}), in key
+     * order, e.g. every item of one order. Lazy: rows are read as the
+     * iterator advances. Rows that aren't cached are not returned.
+     */
+    public Iterator<Map<String, Object>> scan(String table, Map<String, Object> pkPrefix) {
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(pkPrefix);
+        return store.scan(table, pkPrefix);
+    }
+
+    private Map<String, Object> readThrough(String table, Map<String, Object> primaryKey) {
+        Map<String, Object> row;
+        try {
+            row = rowLoader.load(table, primaryKey);
+        } catch (SQLException e) {
+            throw new RuntimeException("Read-through failed", e);
+        }
+        if (row == null) {
+            store.markAbsent(table, primaryKey);
+            if (keyFilters != null) {
+                keyFilters.falsePositive(table);
+            }
+            return null;
+        }
+
+        store.putClean(table, primaryKey, row);
+        // a concurrent write may have won; serve what the cache holds
+        return store.get(table, primaryKey);
+    }
+
+    /**
+     * Runs a parameterized SELECT against MySQL, or serves its result from
+     * the query cache. A cached result is dropped whenever a table it reads
+     * is written here or has a row flushed, so it reflects what MySQL held
+     * at that point: writes still waiting to be flushed aren't in it.
+     * Requires {@link Builder#queryCache} on the builder.
+     */
+    public List<Map<String, Object>> query(String sql, Object... params) {
+        Objects.requireNonNull(sql);
+        if (queryCache == null) {
+            throw new IllegalStateException("Query cache is not enabled");
+        }
+        try {
+            return queryCache.query(sql, Arrays.asList(params));
+        } catch (SQLException e) {
+            throw new RuntimeException("Query failed", e);
+        }
+    }
+
+    private Durability durability(String table) {
+        Durability d = store.config(table).durability;
+        return d != null ? d : durability;
+    }
+
+    // false only when the table's Bloom filter rules the key out of MySQL
+    private boolean mightExist(String table, Map<String, Object> primaryKey) {
+        return keyFilters == null || keyFilters.mightExist(table, primaryKey);
+    }
+
+    // a row just reached MySQL, from a flush or a write-through
+    private void onFlushed(RowMutation m) {
+        if (queryCache != null) {
+            queryCache.invalidate(m.table);
+        }
+        if (keyFilters != null && !m.isDelete) {
+            keyFilters.add(m.table, m.primaryKey);
+        }
+    }
+
+    private void invalidateQueries(String table) {
+        if (queryCache != null) {
+            queryCache.invalidate(table);
+        }
+    }
+
+    private WriteMode writeMode(String table) {
+        WriteMode mode = store.config(table).writeMode;
+        if (mode == WriteMode.READ_ONLY) {
+            throw new UnsupportedOperationException("Table " + table + " is read-only");
+        }
+        return mode;
+    }
+
+    // MySQL first, then the cache; nothing is cached if the write fails
+    private Long writeThrough(RowMutation m) {
+        ReentrantLock lock = rowLock(m.table, m.primaryKey);
+        lock.lock();
+        try {
+            flushManager.writeThrough(m);
+            if (!m.deltas.isEmpty()) {
+                Map.Entry<String, Long> d = m.deltas.entrySet().iterator().next();
+                return store.incrementWritten(m.table, m.primaryKey, d.getKey(), d.getValue());
+            } else if (m.isDelete) {
+                store.remove(m.table, m.primaryKey);
+            } else if (m.isPatch) {
+                store.patchWritten(m.table, m.primaryKey, m.columns);
+            } else {
+                store.putWritten(m.table, m.primaryKey, m.columns);
+            }
+            return null;
+        } catch (Exception e) {
+            throw new RuntimeException("Write-through failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock rowLock(String table, Map<String, Object> primaryKey) {
+        String key = table + "|" + CacheStore.hash(primaryKey);
+        return rowLocks[Math.floorMod(key.hashCode(), rowLocks.length)];
+    }
+
     public void delete(String table,
                       Map<String, Object> primaryKey) {
 
         Objects.requireNonNull(table);
         Objects.requireNonNull(primaryKey);
+        store.checkKey(table, primaryKey);
+        ensureOpen();
+
+        if (writeMode(table) == WriteMode.WRITE_THROUGH) {
+            writeThrough(new RowMutation(table, primaryKey, Map.of(), 0, true));
+            invalidateQueries(table);
+            if (dashboard != null) {
+                dashboard.recordDelete();
+            }
+            return;
+        }
+
+        flushManager.throttle();
 
         byte[] walKey =
                 (table + "|" + primaryKey.toString()).getBytes();
 
+        ReentrantLock lock = rowLock(table, primaryKey);
+        long stamp = enterWrite(lock);
         try {
-            wal.append(LogRecord.delete(walKey));
+            wal.append(LogRecord.delete(walKey), durability(table));
+            store.delete(table, primaryKey);
         } catch (IOException e) {
             throw new RuntimeException("WAL write failed", e);
+        } finally {
+            exitWrite(lock, stamp);
         }
-
-        store.delete(table, primaryKey);
         
         // Track delete operation
+        invalidateQueries(table);
         if (dashboard != null) {
             dashboard.recordDelete();
         }
     }
 
+    /**
+     * Flushes every dirty row to the database and shuts down.
+     *
+     * Dirty rows are flushed in parallel (regardless of TTL) until everything
+     * is written or the shutdown timeout passes. After a full drain the WAL
+     * is checkpointed, leaving the next start nothing to replay; if rows are
+     * still unflushed, or a flush was given up on, the WAL is left intact.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        // waits for writes already appending; any later one sees closed
+        long stamp = writeBarrier.writeLock();
+        try {
+            closed = true;
+        } finally {
+            writeBarrier.unlockWrite(stamp);
+        }
+
+        if (dashboard != null) {
+            dashboard.stop();
+        }
+        expirationManager.stop();
+        if (refresher != null) {
+            refresher.stop();
+        }
+        if (keyFilters != null) {
+            keyFilters.stop();
+        }
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+        }
+        if (walCompactor != null) {
+            walCompactor.stop();
+        }
+
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+
+        // a row dropped during the drain must not be checkpointed away
+        flushManager.stopCheckpoints();
+
+        List<Thread> drainers = new ArrayList<>();
+        for (int i = 0; i < shutdownFlushWorkers; i++) {
+            Thread t = flushThreads.newThread(flushManager);
+            t.start();
+            drainers.add(t);
+        }
+
+        boolean drained = drain(deadline);
+
+        flushManager.stop();
+        join(workers, deadline);
+        join(drainers, deadline);
+
+        // a dropped mutation never reached MySQL; the WAL is all that's left of it
+        long dropped = flushManager.droppedCount();
+        try {
+            wal.sync();
+            if (drained && dropped == 0) {
+                wal.truncate();
+                System.out.println("CacheDB closed cleanly");
+            } else if (drained) {
+                System.err.println("CacheDB closed with " + dropped
+                        + " dropped mutation(s); WAL kept for recovery");
+            } else {
+                System.err.println("CacheDB closed with unflushed rows; WAL kept for recovery");
+            }
+            if (snapshots != null) {
+                snapshots.snapshot();
+            }
+            wal.close();
+        } catch (IOException e) {
+            System.err.println("Warning: final checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    private boolean drain(long deadline) {
+        while (System.currentTimeMillis() < deadline) {
+            int waiting = expirationManager.flushAll();
+            if (waiting == 0 && flushManager.isIdle() && !store.hasUnflushed()) {
+                return true;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void join(List<Thread> threads, long deadline) {
+        for (Thread t : threads) {
+            try {
+                t.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // takes the row's lock, then keeps a snapshot or WAL compaction from
+    // marking the WAL between the write's append and its store update, and
+    // close() from truncating it
+    private long enterWrite(ReentrantLock rowLock) {
+        rowLock.lock();
+        long stamp = writeBarrier.readLock();
+        if (closed) {
+            writeBarrier.unlockRead(stamp);
+            rowLock.unlock();
+            throw new IllegalStateException("CacheDB is closed");
+        }
+        return stamp;
+    }
+
+    private void exitWrite(ReentrantLock rowLock, long stamp) {
+        writeBarrier.unlockRead(stamp);
+        rowLock.unlock();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("CacheDB is closed");
+        }
+    }
+
+    /** Bytes of WAL records since the last checkpoint. */
+    long walBytes() {
+        return wal.mark().offset;
+    }
+
+    /** Rows written to the database by the flush workers so far. */
+    public long flushedCount() {
+        return flushManager.flushedCount();
+    }
+
     /* ------------ BUILDER ------------ */
 
     public static Builder builder() {
@@ -152,6 +782,28 @@ public final class CacheDB {
         private long ttlMillis = 2000;
         private boolean dashboardEnabled = true;
         private int dashboardPort = 8080;
+        private int flushQueueCapacity = 100_000;
+        private BackpressurePolicy backpressure = BackpressurePolicy.DELAY;
+        private long retryBaseMillis = 100;
+        private long retryMaxMillis = 30_000;
+        private long breakerOpenMillis = 1000;
+        private int flushWorkers = 1;
+        private boolean virtualThreads = Boolean.getBoolean("cachedb.virtualThreads");
+        private int shutdownFlushWorkers = 8;
+        private long shutdownTimeoutMillis = 30_000;
+        private boolean snapshotsEnabled = false;
+        private long snapshotIntervalSeconds = 0;
+        private final List<PreloadSpec> preloads = new ArrayList<>();
+        private final Map<String, TableConfig> tables = new HashMap<>();
+        private int preloadParallelism = 4;
+        private int preloadFetchSize = 10_000;
+        private int queryCacheEntries = 0;
+        private long queryCacheTtlMillis = 0;
+        private Durability durability = Durability.GROUP;
+        private long syncIntervalMillis = 1000;
+        private long walSegmentBytes = 0;
+        private int walCompressAbove = 0;
+        private long walCompactionMillis = 0;
 
         public Builder dataSource(DataSource ds) {
             this.dataSource = ds;
@@ -173,27 +825,266 @@ public final class CacheDB {
             return this;
         }
 
+        public Builder flushQueueCapacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Flush queue capacity must be > 0");
+            }
+            this.flushQueueCapacity = capacity;
+            return this;
+        }
+
+        public Builder backpressure(BackpressurePolicy policy) {
+            this.backpressure = Objects.requireNonNull(policy);
+            return this;
+        }
+
+        /** Backoff for failed flushes: doubles from {@code base} up to {@code max}, with jitter. */
+        public Builder retryBackoff(long baseMillis, long maxMillis) {
+            if (baseMillis <= 0 || maxMillis < baseMillis) {
+                throw new IllegalArgumentException("Require 0 < base <= max");
+            }
+            this.retryBaseMillis = baseMillis;
+            this.retryMaxMillis = maxMillis;
+            return this;
+        }
+
+        /** How long flushing pauses after the database is found unreachable, between probes. */
+        public Builder probeIntervalMillis(long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Probe interval must be > 0");
+            }
+            this.breakerOpenMillis = millis;
+            return this;
+        }
+
+        /**
+         * Number of concurrent flush workers, each writing through its own
+         * connection. Rows are never written by two workers at once.
+         */
+        public Builder flushWorkers(int workers) {
+            if (workers <= 0) {
+                throw new IllegalArgumentException("Flush workers must be > 0");
+            }
+            this.flushWorkers = workers;
+            return this;
+        }
+
+        /**
+         * Run flush workers and dashboard handlers on virtual threads
+         * (Java 21+, see the {@code jdk21} Maven profile). Defaults to the
+         * {@code cachedb.virtualThreads} system property.
+         */
+        public Builder virtualThreads(boolean enabled) {
+            this.virtualThreads = enabled;
+            return this;
+        }
+
+        /**
+         * Bounds how long {@link CacheDB#close()} waits for dirty rows to
+         * reach the database, and how many extra workers it uses to get there.
+         */
+        public Builder shutdown(long timeoutSeconds, int flushWorkers) {
+            if (timeoutSeconds < 0 || flushWorkers < 0) {
+                throw new IllegalArgumentException("Shutdown timeout and workers must be >= 0");
+            }
+            this.shutdownTimeoutMillis = timeoutSeconds * 1000;
+            this.shutdownFlushWorkers = flushWorkers;
+            return this;
+        }
+
+        /**
+         * Snapshot the resident rows every {@code intervalSeconds} (and on
+         * close), so a restart loads the snapshot and replays only the WAL
+         * written after it. An interval of 0 snapshots only on close and on
+         * {@link CacheDB#snapshot()}.
+         */
+        public Builder snapshots(long intervalSeconds) {
+            if (intervalSeconds < 0) {
+                throw new IllegalArgumentException("Snapshot interval must be >= 0");
+            }
+            this.snapshotsEnabled = true;
+            this.snapshotIntervalSeconds = intervalSeconds;
+            return this;
+        }
+
+        /** Settings for one table; tables without one use the global defaults. */
+        public Builder table(String name, TableConfig config) {
+            tables.put(Objects.requireNonNull(name), Objects.requireNonNull(config));
+            return this;
+        }
+
+        /** Load these tables from MySQL before {@link #build()} returns. */
+        public Builder preload(String... tables) {
+            for (String table : tables) {
+                preloads.add(PreloadSpec.table(table));
+            }
+            return this;
+        }
+
+        /** Load a filtered or top-N subset of a table before {@link #build()} returns. */
+        public Builder preload(PreloadSpec spec) {
+            preloads.add(Objects.requireNonNull(spec));
+            return this;
+        }
+
+        /** Connections used per preloaded table, and rows fetched per round trip. */
+        public Builder preloadOptions(int parallelism, int fetchSize) {
+            if (parallelism <= 0 || fetchSize <= 0) {
+                throw new IllegalArgumentException("Preload parallelism and fetch size must be > 0");
+            }
+            this.preloadParallelism = parallelism;
+            this.preloadFetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Cache the results of {@link CacheDB#query} (up to {@code maxEntries}
+         * results, each for at most {@code ttlSeconds}).
+         */
+        public Builder queryCache(int maxEntries, long ttlSeconds) {
+            if (maxEntries <= 0 || ttlSeconds <= 0) {
+                throw new IllegalArgumentException("Query cache size and TTL must be > 0");
+            }
+            this.queryCacheEntries = maxEntries;
+            this.queryCacheTtlMillis = ttlSeconds * 1000;
+            return this;
+        }
+
+        /**
+         * When write-behind writes return relative to their WAL record reaching
+         * disk, for tables that don't set their own. Defaults to
+         * {@link Durability#GROUP}.
+         */
+        public Builder durability(Durability durability) {
+            this.durability = Objects.requireNonNull(durability);
+            return this;
+        }
+
+        /** How often the WAL is forced for {@link Durability#INTERVAL} writes. */
+        public Builder syncIntervalMillis(long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Sync interval must be > 0");
+            }
+            this.syncIntervalMillis = millis;
+            return this;
+        }
+
+        /**
+         * Keep the WAL in zero-filled segments of {@code segmentBytes} each
+         * ({@code wal.log}, {@code wal.log.1}, ...) that are reused after a
+         * checkpoint instead of truncated, so appends never grow a file and
+         * each sync writes data only. Off by default.
+         */
+        public Builder preallocateWal(long segmentBytes) {
+            if (segmentBytes < 4096) {
+                throw new IllegalArgumentException("WAL segment size must be >= 4096 bytes");
+            }
+            this.walSegmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * Deflate (fast level) WAL record values of at least
+         * {@code thresholdBytes}, e.g. rows with large text columns. Smaller
+         * values, and values that don't shrink, are logged as they are.
+         */
+        public Builder walCompression(int thresholdBytes) {
+            if (thresholdBytes <= 0) {
+                throw new IllegalArgumentException("Compression threshold must be > 0");
+            }
+            this.walCompressAbove = thresholdBytes;
+            return this;
+        }
+
+        /**
+         * Every {@code intervalMillis}, rewrite the full WAL segments with
+         * only the records of rows not yet flushed (and of those, only from
+         * each row's last full write on), so the log and crash replay stay
+         * proportional to the dirty rows. Needs {@link #preallocateWal}.
+         */
+        public Builder walCompaction(long intervalMillis) {
+            if (intervalMillis <= 0) {
+                throw new IllegalArgumentException("WAL compaction interval must be > 0");
+            }
+            this.walCompactionMillis = intervalMillis;
+            return this;
+        }
+
         public CacheDB build() throws IOException {
             Objects.requireNonNull(dataSource);
+            if (walCompactionMillis > 0 && walSegmentBytes == 0) {
+                throw new IllegalStateException("WAL compaction needs preallocateWal()");
+            }
 
             SchemaRegistry schemaRegistry =
                     new SchemaRegistry(dataSource);
 
-            CacheStore store = new CacheStore(ttlMillis);
+            CacheStore store = new CacheStore(ttlMillis, tables);
+
+            Files.createDirectories(WAL_PATH.getParent());
+            WALWriter wal = new WALWriter(WAL_PATH, walSegmentBytes);
+            wal.compressAbove(walCompressAbove);
+            if (durability == Durability.INTERVAL
+                    || tables.values().stream().anyMatch(t -> t.durability == Durability.INTERVAL)) {
+                wal.syncEvery(syncIntervalMillis);
+            }
 
             FlushManager flushManager =
-                    new FlushManager(dataSource, schemaRegistry);
+                    new FlushManager(dataSource, schemaRegistry, store, wal,
+                            flushQueueCapacity, backpressure,
+                            retryBaseMillis, retryMaxMillis, breakerOpenMillis);
 
             ExpirationManager expirationManager =
                     new ExpirationManager(store, flushManager);
 
-            new Thread(flushManager, "flush-thread").start();
-            new Thread(expirationManager, "expiration-thread").start();
+            List<Thread> workers = new ArrayList<>();
+            ThreadFactory flushThreads =
+                    WorkerThreads.factory("flush-worker", virtualThreads);
+            for (int i = 0; i < flushWorkers; i++) {
+                workers.add(flushThreads.newThread(flushManager));
+            }
+            workers.add(new Thread(expirationManager, "expiration-thread"));
+            workers.forEach(Thread::start);
+
+            RowLoader rowLoader = new RowLoader(dataSource, schemaRegistry);
 
-            CacheDB cacheDB = new CacheDB(store, expirationManager, null);
+            SnapshotManager snapshots = snapshotsEnabled
+                    ? new SnapshotManager(SNAPSHOT_DIR, store, wal,
+                            Runtime.getRuntime().availableProcessors())
+                    : null;
+
+            CacheDB cacheDB = new CacheDB(store, expirationManager, flushManager,
+                    wal, workers, flushThreads,
+                    shutdownFlushWorkers, shutdownTimeoutMillis, snapshots, rowLoader, durability);
+            cacheDB.scheduleSnapshots(snapshotIntervalSeconds);
+            cacheDB.startWalCompaction(walCompactionMillis);
+
+            if (tables.values().stream().anyMatch(t -> t.refreshAheadFraction > 0)) {
+                cacheDB.refresher = new RefreshAheadManager(store, rowLoader,
+                        WorkerThreads.executor("refresh-ahead", virtualThreads, 4));
+                store.setRefresher(cacheDB.refresher);
+            }
+
+            if (queryCacheEntries > 0) {
+                cacheDB.queryCache = new QueryCache(dataSource, queryCacheEntries, queryCacheTtlMillis);
+            }
+
+            if (tables.values().stream().anyMatch(t -> t.bloomFpp > 0)) {
+                cacheDB.keyFilters = new KeyFilters(dataSource, schemaRegistry, tables,
+                        WorkerThreads.executor("bloom-filter", virtualThreads, 1),
+                        preloadFetchSize);
+                cacheDB.keyFilters.buildAll();
+            }
+            flushManager.setFlushListener(cacheDB::onFlushed);
+
+            if (!preloads.isEmpty()) {
+                new Preloader(dataSource, schemaRegistry, store,
+                        preloadParallelism, preloadFetchSize).load(preloads);
+            }
             
             if (dashboardEnabled) {
-                Dashboard dashboard = new Dashboard(cacheDB, store, dashboardPort);
+                Dashboard dashboard = new Dashboard(cacheDB, store, flushManager,
+                        dashboardPort, virtualThreads);
                 cacheDB.setDashboard(dashboard);
             }
 
@@ -1,15 +1,39 @@
 package cachedb;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public class CacheEntry {
 
+    private static final AtomicLongFieldUpdater<CacheEntry> EXPIRES_AT =
+            AtomicLongFieldUpdater.newUpdater(CacheEntry.class, "expiresAt");
+
     public final Map<String, Object> primaryKey;
-    public Map<String, Object> columns;
+    // volatile, with partial and expiresAt, for CacheStore.get's lock-free
+    // read; columns is only ever replaced, never changed in place
+    public volatile Map<String, Object> columns;
 
-    public long expiresAt;
+    public volatile long expiresAt;
     public long version;
     public boolean dirty;
+    // columns changed by patch() since the row was last handed to a flush;
+    // null when the whole row has to be written
+    public Set<String> dirtyColumns;
+    // only patched columns are known (the row was never read or fully
+    // written here), so it can't be served as a whole row
+    public volatile boolean partial;
+    // increments not yet handed to a flush, for columns whose MySQL value
+    // isn't known here; flushed as col = col + delta
+    public Map<String, Long> pendingDeltas;
+
+    // for eviction (FIFO / LRU) and write-behind delay; racy updates are fine
+    public final long createdAt;
+    public long lastAccess;
+    public long writtenAt;
+    // seq of the FlushTask carrying this row to MySQL, 0 when none is in
+    // flight; the row stays readable (even past expiresAt) until released
+    public volatile long pendingFlush;
 
     public CacheEntry(Map<String, Object> pk,
                       Map<String, Object> columns,
@@ -19,5 +43,19 @@ public class CacheEntry {
         this.expiresAt = expiresAt;
         this.version = 1;
         this.dirty = true;
+        this.createdAt = System.currentTimeMillis();
+        this.lastAccess = createdAt;
+        this.writtenAt = createdAt;
+    }
+
+    /** Moves expiresAt out to {@code until} unless it is already later; needs no lock. */
+    public void extendTo(long until) {
+        for (long current = expiresAt; current < until; current = expiresAt) {
+            if (EXPIRES_AT.compareAndSet(this, current, until)) return;
+        }
+    }
+
+    public boolean isFlushPending() {
+        return pendingFlush != 0;
     }
 }
@@ -2,37 +2,295 @@ package cachedb;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 public class CacheStore {
 
+    private static final int NEGATIVE_CACHE_SLOTS = 1 << 16;
+
     private final long ttlMillis;
+    private final Map<String, TableConfig> configs;
+    private final TableConfig defaultConfig = TableConfig.defaults();
 
     // table → keyHash → entry
     private final Map<String, Map<String, CacheEntry>> store =
             new ConcurrentHashMap<>();
 
+    // one eviction pass per table at a time
+    private final Map<String, AtomicBoolean> evicting = new ConcurrentHashMap<>();
+    // table → its size when the last eviction scan found too few clean rows
+    private final Map<String, Integer> evictionStalled = new ConcurrentHashMap<>();
+    private final LongAdder evicted = new LongAdder();
+    // rows with dirty set or a flush pending; the expiry sweep only moves a
+    // row from one to the other or drops clean rows, so it needn't count
+    private final AtomicLong unflushedRows = new AtomicLong();
+
+    // table → its secondary indexes; tables without any aren't listed
+    private final Map<String, List<SecondaryIndex>> indexes = new HashMap<>();
+    // table → its rows ordered by primary key, for tables that declare one
+    private final Map<String, PrimaryKeyIndex> keyIndexes = new HashMap<>();
+
+    // keys read-through found missing, for tables with a negative TTL
+    private final NegativeCache negatives;
+
+    private RefreshAheadManager refresher;
+
     public CacheStore(long ttlMillis) {
+        this(ttlMillis, Map.of());
+    }
+
+    public CacheStore(long ttlMillis, Map<String, TableConfig> configs) {
         this.ttlMillis = ttlMillis;
+        this.configs = Map.copyOf(configs);
+
+        this.configs.forEach((table, config) -> {
+            List<SecondaryIndex> list = new ArrayList<>();
+            config.indexes.forEach((column, type) -> list.add(new SecondaryIndex(column, type)));
+            if (!list.isEmpty()) indexes.put(table, List.copyOf(list));
+            if (!config.keyColumns.isEmpty()) {
+                // every row's key must hold all of them, each once
+                if (Set.copyOf(config.keyColumns).size() != config.keyColumns.size()) {
+                    throw new IllegalArgumentException(
+                            "Ordered key of " + table + " repeats a column: " + config.keyColumns);
+                }
+                keyIndexes.put(table, new PrimaryKeyIndex(config.keyColumns));
+            }
+        });
+        this.negatives = this.configs.values().stream().anyMatch(c -> c.negativeTtlMillis > 0)
+                ? new NegativeCache(NEGATIVE_CACHE_SLOTS) : null;
+    }
+
+    public TableConfig config(String table) {
+        return configs.getOrDefault(table, defaultConfig);
+    }
+
+    void setRefresher(RefreshAheadManager refresher) {
+        this.refresher = refresher;
+    }
+
+    long ttlMillis(String table) {
+        long ttl = config(table).ttlMillis;
+        return ttl > 0 ? ttl : ttlMillis;
+    }
+
+    public long evictedCount() {
+        return evicted.sum();
     }
 
     public void upsert(String table,
                        Map<String, Object> pk,
                        Map<String, Object> columns) {
 
-        String keyHash = hash(pk);
         long now = System.currentTimeMillis();
+        long ttl = ttlMillis(table);
 
-        store.computeIfAbsent(table, t -> new ConcurrentHashMap<>())
-                .compute(keyHash, (k, existing) -> {
-                    if (existing == null) {
-                        return new CacheEntry(pk, columns, now + ttlMillis);
-                    }
-                    existing.columns = columns;
-                    existing.version++;
-                    existing.dirty = true;
-                    existing.expiresAt = now + ttlMillis;
-                    return existing;
-                });
+        Map<String, CacheEntry> tableMap = tableMap(table);
+        compute(table, tableMap, hash(pk), (k, existing) ->
+                replace(existing, pk, columns, now, ttl));
+        evictIfFull(table, tableMap);
+    }
+
+    private static CacheEntry replace(CacheEntry existing,
+                                      Map<String, Object> pk,
+                                      Map<String, Object> columns,
+                                      long now,
+                                      long ttl) {
+        if (existing == null) {
+            return new CacheEntry(pk, columns, now + ttl);
+        }
+        existing.columns = columns;
+        existing.version++;
+        existing.dirty = true;
+        existing.dirtyColumns = null;
+        existing.partial = false;
+        if (existing.pendingDeltas != null) {
+            existing.pendingDeltas.keySet().removeAll(columns.keySet());
+        }
+        existing.expiresAt = now + ttl;
+        existing.lastAccess = now;
+        existing.writtenAt = now;
+        return existing;
+    }
+
+    // version a reader would see: 0 when get() returns nothing, -1 when the
+    // row is only partly known and can't be compared at all
+    private static long currentVersion(CacheEntry entry, long now) {
+        if (entry == null) return 0;
+        if (entry.partial) return -1;
+        if (entry.columns == null || !live(entry, now)) return 0;
+        return entry.version;
+    }
+
+    // an expired row whose newest image hasn't reached MySQL yet is still
+    // the only up-to-date copy, so keep serving it
+    private static boolean live(CacheEntry entry, long now) {
+        return now <= entry.expiresAt || entry.dirty || entry.isFlushPending();
+    }
+
+    /**
+     * Merges {@code columns} into the cached row and remembers which
+     * columns changed, so only those are flushed. If the row isn't cached
+     * the patch is kept on its own (partial) until it is flushed or the
+     * rest of the row is loaded.
+     */
+    public void patch(String table,
+                      Map<String, Object> pk,
+                      Map<String, Object> columns) {
+        merge(table, pk, columns, true);
+    }
+
+    /** Like {@link #patch} for columns already written to MySQL (write-through). */
+    public void patchWritten(String table,
+                             Map<String, Object> pk,
+                             Map<String, Object> columns) {
+        merge(table, pk, columns, false);
+    }
+
+    private void merge(String table,
+                       Map<String, Object> pk,
+                       Map<String, Object> columns,
+                       boolean dirty) {
+
+        long now = System.currentTimeMillis();
+        long ttl = ttlMillis(table);
+
+        Map<String, CacheEntry> tableMap = tableMap(table);
+        compute(table, tableMap, hash(pk), (k, existing) -> {
+            if (existing == null || existing.columns == null) {
+                CacheEntry entry = existing != null ? existing
+                        : new CacheEntry(pk, null, now + ttl);
+                if (existing != null) entry.version++;
+                // before columns: get() must never see the patch as a whole row
+                entry.partial = true;
+                entry.columns = new HashMap<>(columns);
+                entry.dirty = dirty;
+                entry.dirtyColumns = dirty ? new HashSet<>(columns.keySet()) : null;
+                entry.expiresAt = now + ttl;
+                entry.writtenAt = now;
+                return entry;
+            }
+
+            // copy: the old map may be referenced by a queued flush or a reader
+            Map<String, Object> merged = new HashMap<>(existing.columns);
+            merged.putAll(columns);
+            existing.columns = merged;
+            existing.version++;
+            if (dirty) {
+                if (!existing.dirty) {
+                    existing.dirtyColumns = new HashSet<>(columns.keySet());
+                } else if (existing.dirtyColumns != null) {
+                    existing.dirtyColumns.addAll(columns.keySet());
+                }
+                if (existing.pendingDeltas != null) {
+                    existing.pendingDeltas.keySet().removeAll(columns.keySet());
+                }
+                existing.dirty = true;
+                existing.writtenAt = now;
+            }
+            existing.expiresAt = now + ttl;
+            existing.lastAccess = now;
+            return existing;
+        });
+        evictIfFull(table, tableMap);
+    }
+
+    /**
+     * Caches a row that has just been written to MySQL (write-through):
+     * replaces any cached image and starts clean.
+     */
+    public void putWritten(String table,
+                           Map<String, Object> pk,
+                           Map<String, Object> columns) {
+
+        long now = System.currentTimeMillis();
+        long ttl = ttlMillis(table);
+
+        Map<String, CacheEntry> tableMap = tableMap(table);
+        compute(table, tableMap, hash(pk), (k, existing) -> {
+            CacheEntry entry = existing != null ? existing : new CacheEntry(pk, columns, now + ttl);
+            if (existing != null) {
+                entry.columns = columns;
+                entry.version++;
+                entry.expiresAt = now + ttl;
+                entry.lastAccess = now;
+            }
+            entry.dirty = false;
+            entry.dirtyColumns = null;
+            entry.partial = false;
+            return entry;
+        });
+        evictIfFull(table, tableMap);
+    }
+
+    /** Drops a row outright, e.g. after a write-through delete. */
+    public void remove(String table, Map<String, Object> pk) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap != null) {
+            computeIfPresent(table, tableMap, hash(pk), (k, entry) -> null);
+        }
+    }
+
+    /**
+     * Puts back a row loaded from a snapshot. The TTL starts over; rows that
+     * were dirty (or mid-flush) when the snapshot was taken stay dirty.
+     */
+    public void restore(String table, CacheEntry entry) {
+        entry.expiresAt = System.currentTimeMillis() + ttlMillis(table);
+
+        Map<String, CacheEntry> tableMap = tableMap(table);
+        compute(table, tableMap, hash(entry.primaryKey), (k, existing) -> entry);
+        evictIfFull(table, tableMap);
+    }
+
+    /** Drops every row, e.g. those of a snapshot that only partly loaded. */
+    public void clear() {
+        store.forEach((table, tableMap) -> {
+            for (String keyHash : tableMap.keySet()) {
+                computeIfPresent(table, tableMap, keyHash, (k, e) -> null);
+            }
+        });
+    }
+
+    /**
+     * Caches a row read from MySQL. It is already persisted, so it starts
+     * clean; a row already in the cache is newer and is left alone, except
+     * that a partial (patched-only) row is completed with the loaded columns.
+     */
+    public void putClean(String table,
+                         Map<String, Object> pk,
+                         Map<String, Object> columns) {
+
+        long expiresAt = System.currentTimeMillis() + ttlMillis(table);
+        boolean[] added = {false};
+
+        Map<String, CacheEntry> tableMap = tableMap(table);
+        compute(table, tableMap, hash(pk), (k, existing) -> {
+            if (existing == null) {
+                CacheEntry entry = new CacheEntry(pk, columns, expiresAt);
+                entry.dirty = false;
+                added[0] = true;
+                return entry;
+            }
+            if (existing.partial && existing.columns != null) {
+                Map<String, Object> merged = new HashMap<>(columns);
+                // MySQL's value doesn't include increments not yet flushed
+                if (existing.pendingDeltas != null) {
+                    existing.pendingDeltas.forEach((col, d) -> merged.computeIfPresent(col,
+                            (c, v) -> v instanceof Number n ? n.longValue() + d : v));
+                }
+                merged.putAll(existing.columns);
+                existing.columns = merged;
+                existing.partial = false;
+            }
+            return existing;
+        });
+        if (added[0]) {
+            evictIfFull(table, tableMap);
+        }
     }
 
     public Map<String, Object> get(String table, Map<String, Object> pk) {
@@ -42,32 +300,568 @@ public class CacheStore {
         CacheEntry entry = tableMap.get(hash(pk));
         if (entry == null) return null;
 
-        if (System.currentTimeMillis() > entry.expiresAt) {
-            return null;
+        // columns first: read after it, partial and expiresAt are at least
+        // as new, and a reload the touch starts can't change what we return
+        long now = System.currentTimeMillis();
+        Map<String, Object> columns = entry.columns;
+        if (columns != null && !entry.partial && now <= entry.expiresAt) {
+            touch(table, entry, now);
+            return columns;
+        }
+
+        // past its TTL the row is only live while dirty or being flushed,
+        // which is exact only under the bin lock
+        List<Map<String, Object>> row = new ArrayList<>(1);
+        tableMap.computeIfPresent(hash(pk), (k, e) -> {
+            if (!e.partial && live(e, now)) {
+                touch(table, e, now);
+                row.add(e.columns);
+            }
+            return e;
+        });
+        return row.isEmpty() ? null : row.get(0);
+    }
+
+    /**
+     * Like {@link #get}, but also returns the row's version, read in the
+     * same atomic step as its columns.
+     */
+    public VersionedRow getWithVersion(String table, Map<String, Object> pk) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return null;
+
+        long now = System.currentTimeMillis();
+        VersionedRow[] row = {null};
+        tableMap.computeIfPresent(hash(pk), (k, entry) -> {
+            if (currentVersion(entry, now) > 0) {
+                touch(table, entry, now);
+                row[0] = new VersionedRow(entry.columns, entry.version);
+            }
+            return entry;
+        });
+        return row[0];
+    }
+
+    /** Version {@link CacheDB#compareAndSet} compares against; see {@link #currentVersion}. */
+    long version(String table, Map<String, Object> pk) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return 0;
+        return currentVersion(tableMap.get(hash(pk)), System.currentTimeMillis());
+    }
+
+    // safe without the bin lock: a racing write only ever sets a later expiry
+    private void touch(String table, CacheEntry entry, long now) {
+        entry.lastAccess = now;
+
+        TableConfig config = config(table);
+        if (config.expireAfterAccess) {
+            entry.extendTo(now + ttlMillis(table));
+        } else if (config.refreshAheadFraction > 0 && refresher != null
+                && !entry.dirty && !entry.isFlushPending()
+                && entry.expiresAt - now < ttlMillis(table) * config.refreshAheadFraction) {
+            refresher.refresh(table, entry);
+        }
+    }
+
+
+    /**
+     * Applies a background reload: the row gets MySQL's image and a fresh
+     * TTL, unless it was written locally since the reload was started.
+     * A null image means the row is gone from MySQL.
+     */
+    public void refreshed(String table,
+                          Map<String, Object> pk,
+                          long version,
+                          Map<String, Object> columns) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return;
+
+        long now = System.currentTimeMillis();
+        computeIfPresent(table, tableMap, hash(pk), (k, entry) -> {
+            if (entry.version != version || entry.dirty || entry.isFlushPending()) {
+                return entry;
+            }
+            if (columns == null) return null;
+            // an unchanged row keeps its version, so a pending CacheDB.compareAndSet still applies
+            if (entry.partial || !columns.equals(entry.columns)) {
+                entry.columns = columns;
+                entry.partial = false;
+                entry.version++;
+            }
+            entry.expiresAt = now + ttlMillis(table);
+            return entry;
+        });
+    }
+
+    /**
+     * Adds {@code delta} to a numeric column. The cached value is updated
+     * when it is known; the delta itself is what gets flushed (as
+     * {@code col = col + delta}) unless the row's value for the column was
+     * written here in full and not yet flushed. Returns the new value, or
+     * null when the row isn't cached and only the delta is known.
+     */
+    public Long increment(String table,
+                          Map<String, Object> pk,
+                          String column,
+                          long delta) {
+        return add(table, pk, column, delta, true);
+    }
+
+    /**
+     * Throws IllegalArgumentException if the table has an ordered key and
+     * {@code pk} doesn't consist of exactly its columns.
+     */
+    public void checkKey(String table, Map<String, Object> pk) {
+        PrimaryKeyIndex keys = keyIndexes.get(table);
+        if (keys != null) keys.check(pk);
+    }
+
+    /**
+     * Throws IllegalArgumentException if the cached value of {@code column}
+     * can't be incremented. Unknown values pass; they are checked by MySQL.
+     */
+    public void checkCounter(String table, Map<String, Object> pk, String column) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return;
+
+        CacheEntry entry = tableMap.get(hash(pk));
+        Map<String, Object> columns = entry != null ? entry.columns : null;
+        Object current = columns != null ? columns.get(column) : null;
+        if (current != null) toLong(current);
+    }
+
+    /** Like {@link #increment} for a delta already applied in MySQL (write-through). */
+    public Long incrementWritten(String table,
+                                 Map<String, Object> pk,
+                                 String column,
+                                 long delta) {
+        return add(table, pk, column, delta, false);
+    }
+
+    private Long add(String table,
+                     Map<String, Object> pk,
+                     String column,
+                     long delta,
+                     boolean dirty) {
+
+        long now = System.currentTimeMillis();
+        long ttl = ttlMillis(table);
+        Long[] result = {null};
+
+        compute(table, tableMap(table), hash(pk), (k, existing) -> {
+            if (existing != null && existing.columns == null) {
+                // deleted here: the row starts again from zero
+                existing.columns = new HashMap<>(Map.of(column, delta));
+                existing.version++;
+                existing.partial = false;
+                existing.dirty = dirty || existing.dirty;
+                existing.dirtyColumns = null;
+                existing.pendingDeltas = null;
+                existing.expiresAt = now + ttl;
+                existing.writtenAt = now;
+                result[0] = delta;
+                return existing;
+            }
+            if (existing == null) {
+                if (!dirty) {
+                    return null; // nothing cached to keep in step
+                }
+                CacheEntry entry = new CacheEntry(pk, new HashMap<>(), now + ttl);
+                entry.partial = true;
+                entry.dirty = true;
+                entry.dirtyColumns = new HashSet<>();
+                entry.pendingDeltas = new HashMap<>(Map.of(column, delta));
+                entry.writtenAt = now;
+                return entry;
+            }
+
+            Object current = existing.columns.get(column);
+            // throws before anything is changed if the column isn't numeric
+            long base = current == null ? 0 : toLong(current);
+            boolean known = current != null || !existing.partial;
+
+            Map<String, Object> updated = new HashMap<>(existing.columns);
+            if (known) {
+                updated.put(column, base + delta);
+                result[0] = base + delta;
+            }
+            existing.columns = updated;
+            existing.version++;
+            existing.expiresAt = now + ttl;
+            existing.lastAccess = now;
+
+            if (dirty) {
+                // a value set here and not yet flushed is authoritative;
+                // anything else may have moved in MySQL, so send the delta
+                boolean authoritative = existing.dirty && current != null
+                        && (existing.dirtyColumns == null
+                            || existing.dirtyColumns.contains(column))
+                        && (existing.pendingDeltas == null
+                            || !existing.pendingDeltas.containsKey(column));
+                if (!existing.dirty) {
+                    existing.dirty = true;
+                    existing.dirtyColumns = new HashSet<>();
+                }
+                if (!authoritative) {
+                    if (existing.pendingDeltas == null) {
+                        existing.pendingDeltas = new HashMap<>();
+                    }
+                    existing.pendingDeltas.merge(column, delta, Long::sum);
+                }
+                existing.writtenAt = now;
+            }
+            return existing;
+        });
+        return result[0];
+    }
+
+    /** True if the cache has an answer for this row, including "deleted". */
+    public boolean contains(String table, Map<String, Object> pk) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return false;
+
+        CacheEntry entry = tableMap.get(hash(pk));
+        return entry != null && !entry.partial
+                && live(entry, System.currentTimeMillis());
+    }
+
+    /**
+     * Called by FlushManager once it is done with a flush task (committed, or
+     * dropped after its last attempt). Unpins the row and drops it if it expired
+     * and nothing newer was written in the meantime.
+     */
+    public void release(String table, Map<String, Object> pk, long version, long flushSeq) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return;
+
+        long now = System.currentTimeMillis();
+        computeIfPresent(table, tableMap, hash(pk), (k, entry) -> {
+            if (entry.pendingFlush != flushSeq) return entry; // not ours
+            entry.pendingFlush = 0;
+            if (entry.version == version && !entry.dirty && entry.expiresAt <= now) {
+                return null;
+            }
+            return entry;
+        });
+        // the row may be evictable now
+        if (!evictionStalled.isEmpty()) {
+            evictionStalled.remove(table);
         }
-        return entry.columns;
     }
 
     public boolean delete(String table, Map<String, Object> pk) {
         Map<String, CacheEntry> tableMap = store.get(table);
         if (tableMap == null) return false;
 
+        // Mark as deleted but keep entry for flushing
+        long now = System.currentTimeMillis();
+        CacheEntry deleted = computeIfPresent(table, tableMap, hash(pk), (k, entry) -> {
+            entry.columns = null;
+            entry.dirty = true;
+            entry.dirtyColumns = null;
+            entry.partial = false;
+            entry.pendingDeltas = null;
+            entry.version++;
+            entry.writtenAt = now;
+            return entry;
+        });
+        return deleted != null;
+    }
+
+    /** True while any row still has changes that haven't reached MySQL. */
+    public boolean hasUnflushed() {
+        return unflushedRows.get() > 0;
+    }
+
+    /** Rows that are dirty or pinned by a flush, counted as they change. */
+    public long unflushedCount() {
+        return unflushedRows.get();
+    }
+
+    private static boolean unflushed(CacheEntry entry) {
+        return entry.dirty || entry.isFlushPending();
+    }
+
+    /** True while this row has changes that haven't reached MySQL. */
+    public boolean hasUnflushed(String table, Map<String, Object> pk) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return false;
+
+        // only clean rows are ever dropped from the cache
+        CacheEntry entry = tableMap.get(hash(pk));
+        return entry != null && unflushed(entry);
+    }
+
+    /* ---- Negative cache ---- */
+
+    /** Remembers that MySQL has no row for this key, if the table asks for it. */
+    public void markAbsent(String table, Map<String, Object> pk) {
+        long ttl = config(table).negativeTtlMillis;
+        if (negatives == null || ttl <= 0) return;
+
         String keyHash = hash(pk);
-        CacheEntry entry = tableMap.get(keyHash);
-        if (entry == null) return false;
+        Map<String, CacheEntry> tableMap = store.get(table);
+        // written while it was being looked up: it exists now
+        if (tableMap != null && tableMap.containsKey(keyHash)) return;
+        negatives.markAbsent(table + "|" + keyHash, ttl);
+    }
 
-        // Mark as deleted but keep entry for flushing
-        entry.columns = null;
-        entry.dirty = true;
-        entry.version++;
-        return true;
+    /** True if the key was recently found missing in MySQL and not written since. */
+    public boolean isKnownAbsent(String table, Map<String, Object> pk) {
+        return negatives != null && config(table).negativeTtlMillis > 0
+                && negatives.isAbsent(table + "|" + hash(pk));
+    }
+
+    public long negativeHitCount() {
+        return negatives != null ? negatives.hitCount() : 0;
+    }
+
+    /* ---- Secondary indexes ---- */
+
+    /**
+     * Cached rows whose {@code column} equals {@code value}, each with its
+     * primary-key columns included. Needs an index on the column.
+     */
+    public List<Map<String, Object>> findBy(String table, String column, Object value) {
+        SecondaryIndex index = index(table, column);
+        return collect(table, index.lookup(value), columns -> index.matches(columns, value));
+    }
+
+    /**
+     * Cached rows with {@code from <= column < to} in index order; a null
+     * bound is open. Needs a {@link IndexType#SORTED} index on the column.
+     */
+    public List<Map<String, Object>> findRange(String table, String column, Object from, Object to) {
+        SecondaryIndex index = index(table, column);
+        if (index.type != IndexType.SORTED) {
+            throw new IllegalArgumentException("Index on " + table + "." + column + " is not sorted");
+        }
+        return collect(table, index.range(from, to), columns -> index.inRange(columns, from, to));
+    }
+
+    private SecondaryIndex index(String table, String column) {
+        for (SecondaryIndex index : indexes.getOrDefault(table, List.of())) {
+            if (index.column.equals(column)) return index;
+        }
+        throw new IllegalArgumentException("No index on " + table + "." + column);
+    }
+
+    // the index may briefly hold a key whose row has just changed, so every
+    // hit is checked against the row as get() would see it
+    private List<Map<String, Object>> collect(String table,
+                                              List<String> keyHashes,
+                                              Predicate<Map<String, Object>> stillMatches) {
+        Map<String, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return List.of();
+
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> rows = new ArrayList<>(keyHashes.size());
+        for (String keyHash : keyHashes) {
+            Map<String, Object> row = visibleRow(table, tableMap.get(keyHash), stillMatches, now);
+            if (row != null) rows.add(row);
+        }
+        return rows;
+    }
+
+    // primary key plus columns, or null if get() wouldn't serve the row
+    private Map<String, Object> visibleRow(String table,
+                                           CacheEntry entry,
+                                           Predicate<Map<String, Object>> stillMatches,
+                                           long now) {
+        if (entry == null || entry.partial || !live(entry, now)) return null;
+
+        Map<String, Object> columns = entry.columns;
+        if (columns == null || !stillMatches.test(columns)) return null;
+
+        touch(table, entry, now);
+        Map<String, Object> row = new HashMap<>(entry.primaryKey);
+        row.putAll(columns);
+        return row;
+    }
+
+    /**
+     * Cached rows whose primary key starts with {@code prefix}, in key
+     * order, each with its primary-key columns included. The iterator is
+     * lazy and weakly consistent. Needs an ordered key on the table.
+     */
+    public Iterator<Map<String, Object>> scan(String table, Map<String, Object> prefix) {
+        PrimaryKeyIndex keys = keyIndexes.get(table);
+        if (keys == null) {
+            throw new IllegalArgumentException("No ordered key on " + table);
+        }
+        Iterator<String> keyHashes = keys.prefix(prefix);
+        Map<String, CacheEntry> tableMap = tableMap(table);
+        long now = System.currentTimeMillis();
+
+        return new Iterator<>() {
+            private Map<String, Object> next = advance();
+
+            private Map<String, Object> advance() {
+                while (keyHashes.hasNext()) {
+                    Map<String, Object> row = visibleRow(
+                            table, tableMap.get(keyHashes.next()), c -> true, now);
+                    if (row != null) return row;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (next == null) throw new NoSuchElementException();
+                Map<String, Object> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    /** For rows dropped outside this class (expiry sweep), inside its compute. */
+    void unindex(String table, String keyHash, CacheEntry entry) {
+        List<SecondaryIndex> list = indexes.get(table);
+        if (list != null) {
+            for (SecondaryIndex index : list) {
+                index.update(keyHash, entry.columns, null);
+            }
+        }
+        PrimaryKeyIndex keys = keyIndexes.get(table);
+        if (keys != null) {
+            keys.remove(entry.primaryKey, keyHash);
+        }
+    }
+
+    // every change to a row goes through here so its indexes and the
+    // unflushed count move with it
+    private CacheEntry compute(String table,
+                               Map<String, CacheEntry> tableMap,
+                               String keyHash,
+                               BiFunction<String, CacheEntry, CacheEntry> fn) {
+        List<SecondaryIndex> list = indexes.get(table);
+        PrimaryKeyIndex keys = keyIndexes.get(table);
+        boolean negative = negatives != null && config(table).negativeTtlMillis > 0;
+
+        return tableMap.compute(keyHash, (k, existing) -> {
+            // fn may change existing in place
+            boolean wasUnflushed = existing != null && unflushed(existing);
+            Map<String, Object> before = existing != null ? existing.columns : null;
+            CacheEntry after = fn.apply(k, existing);
+            if (wasUnflushed != (after != null && unflushed(after))) {
+                unflushedRows.addAndGet(wasUnflushed ? -1 : 1);
+            }
+            if (negative && after != null) {
+                negatives.forget(table + "|" + k);
+            }
+            if (list != null) {
+                for (SecondaryIndex index : list) {
+                    index.update(k, before, after != null ? after.columns : null);
+                }
+            }
+            if (keys != null) {
+                if (existing == null && after != null) {
+                    keys.add(after.primaryKey, k);
+                } else if (existing != null && after == null) {
+                    keys.remove(existing.primaryKey, k);
+                }
+            }
+            return after;
+        });
+    }
+
+    private CacheEntry computeIfPresent(String table,
+                                        Map<String, CacheEntry> tableMap,
+                                        String keyHash,
+                                        BiFunction<String, CacheEntry, CacheEntry> fn) {
+        return compute(table, tableMap, keyHash,
+                (k, existing) -> existing != null ? fn.apply(k, existing) : null);
     }
 
     public Map<String, Map<String, CacheEntry>> raw() {
         return store;
     }
 
-    private String hash(Map<String, Object> pk) {
+    private Map<String, CacheEntry> tableMap(String table) {
+        return store.computeIfAbsent(table, t -> new ConcurrentHashMap<>());
+    }
+
+    /*
+     * Past maxSize, evicts the oldest clean rows (by last access or by
+     * creation) until the table is 5% under the cap, so the scan is paid
+     * once per many inserts. Dirty and flush-pending rows are skipped.
+     *
+     * When a scan can't find enough clean rows (e.g. MySQL is down and
+     * everything is dirty or pinned), the next one waits until a flush
+     * releases a row or the table has grown by another 5%.
+     */
+    private void evictIfFull(String table, Map<String, CacheEntry> tableMap) {
+        TableConfig config = config(table);
+        if (config.maxSize <= 0 || tableMap.size() <= config.maxSize) return;
+
+        int slack = Math.max(1, config.maxSize / 20);
+        Integer stalledAt = evictionStalled.get(table);
+        if (stalledAt != null && tableMap.size() < stalledAt + slack) return;
+
+        AtomicBoolean busy = evicting.computeIfAbsent(table, t -> new AtomicBoolean());
+        if (!busy.compareAndSet(false, true)) return;
+
+        try {
+            int target = config.maxSize - slack;
+            int excess = tableMap.size() - target;
+            if (excess <= 0) return;
+
+            boolean lru = config.eviction == EvictionPolicy.LRU;
+
+            // max-heap on age rank, holding the `excess` oldest candidates
+            PriorityQueue<Map.Entry<String, Long>> oldest = new PriorityQueue<>(
+                    excess + 1, Map.Entry.<String, Long>comparingByValue().reversed());
+            for (Map.Entry<String, CacheEntry> e : tableMap.entrySet()) {
+                CacheEntry entry = e.getValue();
+                if (entry.dirty || entry.isFlushPending()) continue;
+
+                long rank = lru ? entry.lastAccess : entry.createdAt;
+                if (oldest.size() < excess) {
+                    oldest.add(Map.entry(e.getKey(), rank));
+                } else if (rank < oldest.peek().getValue()) {
+                    oldest.poll();
+                    oldest.add(Map.entry(e.getKey(), rank));
+                }
+            }
+
+            int removedCount = 0;
+            for (Map.Entry<String, Long> victim : oldest) {
+                boolean[] removed = {false};
+                computeIfPresent(table, tableMap, victim.getKey(), (k, entry) -> {
+                    if (entry.dirty || entry.isFlushPending()) return entry;
+                    removed[0] = true;
+                    return null;
+                });
+                if (removed[0]) removedCount++;
+            }
+            evicted.add(removedCount);
+
+            if (removedCount < excess) {
+                evictionStalled.put(table, tableMap.size());
+            } else if (stalledAt != null) {
+                evictionStalled.remove(table);
+            }
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    static long toLong(Object value) {
+        if (value instanceof Number n) return n.longValue();
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a counter value: " + value);
+        }
+    }
+
+    static String hash(Map<String, Object> pk) {
         return pk.entrySet()
                 .stream()
                 .sorted(Map.Entry.comparingByKey())
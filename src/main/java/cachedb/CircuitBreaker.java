@@ -0,0 +1,87 @@
+package cachedb;
+
+/**
+ * Stops flush attempts while the database is unreachable.
+ *
+ * CLOSED: every flush is attempted.
+ * OPEN: nothing is attempted until the open interval has passed.
+ * HALF_OPEN: exactly one probe is let through; its outcome closes or
+ * re-opens the breaker.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probeInFlight;
+    private long trips;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /** True while nothing may be sent to the database. */
+    public synchronized boolean isBlocking() {
+        return switch (state) {
+            case CLOSED -> false;
+            case OPEN -> System.currentTimeMillis() < openUntil;
+            case HALF_OPEN -> probeInFlight;
+        };
+    }
+
+    /** Claims permission for one attempt; in HALF_OPEN only the probe gets it. */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (probeInFlight) yield false;
+                probeInFlight = true;
+                yield true;
+            }
+        };
+    }
+
+    /** Returns true when this success closed a previously open breaker. */
+    public synchronized boolean recordSuccess() {
+        boolean recovered = state != State.CLOSED;
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        return recovered;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state == State.CLOSED) trips++;
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openMillis;
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized long millisUntilProbe() {
+        return state == State.OPEN
+                ? Math.max(0, openUntil - System.currentTimeMillis())
+                : 0;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized long trips() {
+        return trips;
+    }
+}
@@ -10,6 +10,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -21,16 +22,25 @@ public class Dashboard {
 
     private final CacheDB cache;
     private final CacheStore store;
+    private final FlushManager flushManager;
     private final int port;
+    private final boolean virtualThreads;
     private HttpServer server;
+    private ExecutorService httpExecutor;
     private ScheduledExecutorService scheduler;
     private final DashboardStats stats;
     private final long startTime;
 
-    public Dashboard(CacheDB cache, CacheStore store, int port) {
+    public Dashboard(CacheDB cache,
+                     CacheStore store,
+                     FlushManager flushManager,
+                     int port,
+                     boolean virtualThreads) {
         this.cache = cache;
         this.store = store;
+        this.flushManager = flushManager;
         this.port = port;
+        this.virtualThreads = virtualThreads;
         this.stats = new DashboardStats();
         this.startTime = System.currentTimeMillis();
     }
@@ -42,8 +52,10 @@ public class Dashboard {
         server.createContext("/api/stats", new StatsHandler());
         server.createContext("/api/operations", new OperationsHandler());
         server.createContext("/api/wal", new WALHandler());
+        server.createContext("/api/flush", new FlushHandler());
 
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        httpExecutor = WorkerThreads.executor("dashboard-http", virtualThreads, 10);
+        server.setExecutor(httpExecutor);
         server.start();
 
         // Start background stats collection
@@ -60,6 +72,9 @@ public class Dashboard {
         if (server != null) {
             server.stop(0);
         }
+        if (httpExecutor != null) {
+            httpExecutor.shutdown();
+        }
     }
 
     public void recordRead() {
@@ -89,7 +104,7 @@ public class Dashboard {
 
     private String getStatsJSON() {
         return String.format(
-            "{\"uptime\":%d,\"totalOperations\":%d,\"readOperations\":%d,\"writeOperations\":%d,\"deleteOperations\":%d,\"cacheHits\":%d,\"cacheMisses\":%d,\"hitRate\":%.2f,\"updateTime\":%d}",
+            "{\"uptime\":%d,\"totalOperations\":%d,\"readOperations\":%d,\"writeOperations\":%d,\"deleteOperations\":%d,\"cacheHits\":%d,\"cacheMisses\":%d,\"hitRate\":%.2f,\"negativeHits\":%d,\"updateTime\":%d}",
             stats.uptime,
             stats.totalOperations,
             stats.readOperations,
@@ -98,6 +113,7 @@ public class Dashboard {
             stats.cacheHits,
             stats.cacheMisses,
             stats.getHitRate(),
+            store.negativeHitCount(),
             stats.updateTime
         );
     }
@@ -119,7 +135,8 @@ public class Dashboard {
         try {
             if (Files.exists(walPath)) {
                 exists = true;
-                walSize = Files.size(walPath);
+                // the file's own size is fixed when segments are preallocated
+                walSize = cache.walBytes();
             }
         } catch (Exception e) {
             // Ignore
@@ -132,6 +149,25 @@ public class Dashboard {
         );
     }
 
+    private String getFlushJSON() {
+        return String.format(
+            "{\"policy\":\"%s\",\"depth\":%d,\"capacity\":%d,\"peakDepth\":%d,\"rejected\":%d,\"throttledWrites\":%d,\"avgThrottleMs\":%.3f,\"avgQueueMs\":%.3f,\"maxQueueMs\":%.3f,\"parked\":%d,\"dropped\":%d,\"breaker\":\"%s\",\"breakerTrips\":%d}",
+            flushManager.policy(),
+            flushManager.queueDepth(),
+            flushManager.queueCapacity(),
+            flushManager.peakQueueDepth(),
+            flushManager.rejectedCount(),
+            flushManager.throttledWriteCount(),
+            flushManager.avgThrottleMillis(),
+            flushManager.avgQueueMillis(),
+            flushManager.maxQueueMillis(),
+            flushManager.parkedCount(),
+            flushManager.droppedCount(),
+            flushManager.breakerState(),
+            flushManager.breakerTrips()
+        );
+    }
+
     private String formatBytes(long bytes) {
         if (bytes < 1024) return bytes + " B";
         if (bytes < 1024 * 1024) return String.format("%.2f KB", bytes / 1024.0);
@@ -213,6 +249,18 @@ public class Dashboard {
         }
     }
 
+    class FlushHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String json = getFlushJSON();
+                sendResponse(exchange, 200, json, "application/json");
+            } else {
+                sendResponse(exchange, 405, "Method not allowed", "text/plain");
+            }
+        }
+    }
+
     private String getDashboardHTML() {
         return """
 <!DOCTYPE html>
@@ -483,6 +531,38 @@ public class Dashboard {
             </div>
         </div>
         
+        <div class="section">
+            <h2>Flush Queue</h2>
+            <div class="metric-row">
+                <span class="metric-label">Depth / Capacity</span>
+                <span class="metric-value" id="flushDepth">0 / 0</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Peak Depth</span>
+                <span class="metric-value" id="flushPeak">0</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Time in Queue (avg / max)</span>
+                <span class="metric-value" id="flushQueueTime">0 ms / 0 ms</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Rejected (kept dirty)</span>
+                <span class="metric-value" id="flushRejected">0</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Throttled Writes</span>
+                <span class="metric-value" id="flushThrottled">0</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Parked for Retry / Dropped</span>
+                <span class="metric-value" id="flushParked">0 / 0</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Database Circuit</span>
+                <span class="metric-value" id="flushBreaker">CLOSED</span>
+            </div>
+        </div>
+        
         <div class="footer">
             <p>CacheDB Dashboard - Auto-refreshing every second</p>
         </div>
@@ -532,6 +612,24 @@ public class Dashboard {
                     document.getElementById('walStatus').textContent = data.exists ? 'Active' : 'Not available';
                 })
                 .catch(e => console.error('WAL error:', e));
+            
+            fetch('/api/flush')
+                .then(r => r.json())
+                .then(data => {
+                    document.getElementById('flushDepth').textContent =
+                        data.depth.toLocaleString() + ' / ' + data.capacity.toLocaleString();
+                    document.getElementById('flushPeak').textContent = data.peakDepth.toLocaleString();
+                    document.getElementById('flushQueueTime').textContent =
+                        data.avgQueueMs.toFixed(1) + ' ms / ' + data.maxQueueMs.toFixed(1) + ' ms';
+                    document.getElementById('flushRejected').textContent = data.rejected.toLocaleString();
+                    document.getElementById('flushThrottled').textContent =
+                        data.throttledWrites.toLocaleString() + ' (' + data.policy + ', avg ' + data.avgThrottleMs.toFixed(2) + ' ms)';
+                    document.getElementById('flushParked').textContent =
+                        data.parked.toLocaleString() + ' / ' + data.dropped.toLocaleString();
+                    document.getElementById('flushBreaker').textContent =
+                        data.breaker + ' (' + data.breakerTrips + ' trips)';
+                })
+                .catch(e => console.error('Flush error:', e));
         }
         
         updateDashboard();
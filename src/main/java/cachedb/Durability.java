@@ -0,0 +1,20 @@
+package cachedb;
+
+/**
+ * When a write-behind write is acknowledged relative to its WAL record
+ * reaching disk.
+ */
+public enum Durability {
+
+    /** Each write forces the log, file metadata included, before returning. */
+    SYNC,
+
+    /** Concurrent writes share one data-only force before returning (the default). */
+    GROUP,
+
+    /** Writes return once logged; the log is forced in the background every interval. */
+    INTERVAL,
+
+    /** Writes return once logged; the OS decides when it reaches disk (forced on checkpoint and close). */
+    NONE
+}
@@ -0,0 +1,13 @@
+package cachedb;
+
+/**
+ * Which clean rows go first when a table reaches its maximum size.
+ */
+public enum EvictionPolicy {
+
+    /** Least recently read or written. */
+    LRU,
+
+    /** Oldest in the cache. */
+    FIFO
+}
@@ -1,5 +1,6 @@
 package cachedb;
 
+import java.util.HashMap;
 import java.util.Map;
 
 public class ExpirationManager implements Runnable {
@@ -7,44 +8,116 @@ public class ExpirationManager implements Runnable {
     private final CacheStore store;
     private final FlushManager flushManager;
 
+    private volatile boolean running = true;
+
     public ExpirationManager(CacheStore store,
                              FlushManager flushManager) {
         this.store = store;
         this.flushManager = flushManager;
     }
 
+    public void stop() {
+        running = false;
+    }
+
     @Override
     public void run() {
-        while (true) {
-            long now = System.currentTimeMillis();
-
-            store.raw().forEach((table, map) -> {
-                map.entrySet().removeIf(e -> {
-                    CacheEntry entry = e.getValue();
-                    if (entry.expiresAt <= now) {
-                        if (entry.dirty) {
-                            boolean isDelete = entry.columns == null;
-                            flushManager.enqueue(
-                                    new FlushTask(
-                                            new RowMutation(
-                                                    table,
-                                                    entry.primaryKey,
-                                                    entry.columns != null ? entry.columns : Map.of(),
-                                                    entry.version,
-                                                    isDelete
-                                            )
-                                    )
-                            );
-                        }
-                        return true;
-                    }
-                    return false;
-                });
-            });
+        while (running) {
+            sweep(System.currentTimeMillis(), false);
 
             try {
                 Thread.sleep(100);
             } catch (InterruptedException ignored) {}
         }
     }
+
+    /**
+     * Hands every dirty row to the flush queue regardless of its TTL, as far
+     * as the queue has room. Returns how many dirty rows are still waiting.
+     */
+    public int flushAll() {
+        return sweep(System.currentTimeMillis(), true);
+    }
+
+    private int sweep(long now, boolean force) {
+        int[] waiting = {0};
+        store.raw().forEach((table, map) -> {
+            for (String keyHash : map.keySet()) {
+                // compute keeps the check-and-remove atomic with concurrent upserts
+                map.computeIfPresent(keyHash, (k, entry) -> {
+                    CacheEntry result = expire(table, entry, now, force);
+                    if (result == null) store.unindex(table, k, entry);
+                    if (result != null && result.dirty) waiting[0]++;
+                    return result;
+                });
+            }
+        });
+        return waiting[0];
+    }
+
+    private CacheEntry expire(String table, CacheEntry entry, long now, boolean force) {
+        boolean expired = entry.expiresAt <= now;
+        if (!force && !expired && !flushDue(table, entry, now)) return entry;
+
+        // pinned until FlushManager reports back on the in-flight flush
+        if (entry.isFlushPending()) return entry;
+
+        if (!entry.dirty) return force || !expired ? entry : null;
+
+        boolean isDelete = entry.columns == null;
+        boolean isPatch = !isDelete && entry.dirtyColumns != null;
+        Map<String, Long> deltas = entry.pendingDeltas != null
+                ? new HashMap<>(entry.pendingDeltas) : Map.of();
+        FlushTask task = new FlushTask(
+                new RowMutation(
+                        table,
+                        entry.primaryKey,
+                        isDelete ? Map.of()
+                                : isPatch ? changedColumns(entry)
+                                : withoutDeltas(entry.columns, deltas),
+                        deltas,
+                        entry.version,
+                        isDelete,
+                        isPatch
+                )
+        );
+
+        // queue full → keep the row dirty, retry next sweep
+        if (flushManager.enqueue(task)) {
+            entry.dirty = false;
+            entry.dirtyColumns = null;
+            entry.pendingDeltas = null;
+            entry.pendingFlush = task.seq;
+        }
+        return entry;
+    }
+
+    // write-behind delay: dirty rows go out this long after the last write,
+    // whether or not they have expired (with sliding expiry reads would
+    // otherwise postpone the flush indefinitely)
+    private boolean flushDue(String table, CacheEntry entry, long now) {
+        TableConfig config = store.config(table);
+        long delay = config.flushDelayMillis;
+        if (delay < 0 && config.expireAfterAccess) {
+            delay = store.ttlMillis(table);
+        }
+        return delay >= 0 && entry.dirty && now - entry.writtenAt >= delay;
+    }
+
+    // counter columns are sent as deltas, not as the locally known total
+    private static Map<String, Object> withoutDeltas(Map<String, Object> columns,
+                                                     Map<String, Long> deltas) {
+        if (deltas.isEmpty()) return columns;
+        Map<String, Object> absolute = new HashMap<>(columns);
+        absolute.keySet().removeAll(deltas.keySet());
+        return absolute;
+    }
+
+    private static Map<String, Object> changedColumns(CacheEntry entry) {
+        Map<String, Object> changed = new HashMap<>();
+        for (String col : entry.dirtyColumns) {
+            changed.put(col, entry.columns.get(col));
+        }
+        return changed;
+    }
 }
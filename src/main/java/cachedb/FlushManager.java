@@ -3,36 +3,505 @@ package cachedb;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 
 public class FlushManager implements Runnable {
 
-    private final BlockingQueue<FlushTask> queue = new LinkedBlockingQueue<>();
+    // writers are slowed once the queue is more than half full (DELAY)
+    private static final double DELAY_THRESHOLD = 0.5;
+    private static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // non-connectivity failures (constraint violations, bad data) give up eventually
+    private static final int MAX_ATTEMPTS = 8;
+
+    private final BlockingQueue<FlushTask> queue;
+    private final int capacity;
+    private final BackpressurePolicy policy;
     private final DataSource dataSource;
     private final SchemaRegistry schemaRegistry;
+    private final CacheStore store;
+    private final WALWriter wal;
+
+    private final Object capacityMonitor = new Object();
+
+    private volatile boolean running = true;
+    // cleared by close(), which decides on the final checkpoint itself
+    private volatile boolean checkpoints = true;
+
+    // row key → seq of the task being written; with several workers this
+    // keeps two images of one row from racing each other to MySQL
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+    // retries taken off the retry queue whose worker hasn't finished with them;
+    // they are neither parked nor (yet) in flight
+    private final AtomicInteger retriesInHand = new AtomicInteger();
+
+    private final RetryQueue retries;
+    private final CircuitBreaker breaker;
+    private final long breakerOpenMillis;
 
-    public FlushManager(DataSource ds, SchemaRegistry schemaRegistry) {
+    /* ---- metrics ---- */
+    private final AtomicLong peakDepth = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder throttledWrites = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder queuedNanos = new LongAdder();
+    private final AtomicLong maxQueuedNanos = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+
+    // told about each row just written to MySQL, e.g. to drop cached queries
+    private volatile Consumer<RowMutation> flushListener;
+    // CacheDB's write barrier: held exclusively, no write is between its WAL
+    // append and its store update
+    private volatile StampedLock writeBarrier = new StampedLock();
+
+    public FlushManager(DataSource ds,
+                        SchemaRegistry schemaRegistry,
+                        CacheStore store,
+                        WALWriter wal,
+                        int capacity,
+                        BackpressurePolicy policy,
+                        long retryBaseMillis,
+                        long retryMaxMillis,
+                        long breakerOpenMillis) {
         this.dataSource = ds;
         this.schemaRegistry = schemaRegistry;
+        this.store = store;
+        this.wal = wal;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.retries = new RetryQueue(retryBaseMillis, retryMaxMillis);
+        this.breaker = new CircuitBreaker(3, breakerOpenMillis);
+        this.breakerOpenMillis = breakerOpenMillis;
+    }
+
+    void setFlushListener(Consumer<RowMutation> listener) {
+        this.flushListener = listener;
+    }
+
+    void setWriteBarrier(StampedLock barrier) {
+        this.writeBarrier = barrier;
+    }
+
+    /**
+     * Offers a task without blocking. Returns false when the queue is full,
+     * in which case the caller keeps the row dirty and retries later.
+     */
+    public boolean enqueue(FlushTask task) {
+        if (!queue.offer(task)) {
+            rejected.increment();
+            return false;
+        }
+        peakDepth.accumulateAndGet(queue.size(), Math::max);
+        return true;
+    }
+
+    /**
+     * Applies the configured backpressure policy to a writer before it
+     * adds more dirty data to the store.
+     */
+    public void throttle() {
+        switch (policy) {
+            case BLOCK -> {
+                if (queue.remainingCapacity() > 0) return;
+                long start = System.nanoTime();
+                synchronized (capacityMonitor) {
+                    while (queue.remainingCapacity() == 0) {
+                        try {
+                            capacityMonitor.wait(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+                recordThrottle(System.nanoTime() - start);
+            }
+            case DELAY -> {
+                double fill = queue.size() / (double) capacity;
+                if (fill <= DELAY_THRESHOLD) return;
+                double pressure = (fill - DELAY_THRESHOLD) / (1 - DELAY_THRESHOLD);
+                long delay = (long) (MAX_DELAY_NANOS * Math.min(1.0, pressure));
+                LockSupport.parkNanos(delay);
+                recordThrottle(delay);
+            }
+            case KEEP_DIRTY -> {
+                // writers are never slowed down
+            }
+        }
+    }
+
+    private void recordThrottle(long nanos) {
+        throttledWrites.increment();
+        throttledNanos.add(nanos);
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public int queueCapacity() {
+        return capacity;
+    }
+
+    public BackpressurePolicy policy() {
+        return policy;
+    }
+
+    public long peakQueueDepth() {
+        return peakDepth.get();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public long throttledWriteCount() {
+        return throttledWrites.sum();
+    }
+
+    public double avgThrottleMillis() {
+        long n = throttledWrites.sum();
+        return n == 0 ? 0.0 : throttledNanos.sum() / (n * 1_000_000.0);
+    }
+
+    public double avgQueueMillis() {
+        long n = dequeued.sum();
+        return n == 0 ? 0.0 : queuedNanos.sum() / (n * 1_000_000.0);
+    }
+
+    public double maxQueueMillis() {
+        return maxQueuedNanos.get() / 1_000_000.0;
+    }
+
+    public long flushedCount() {
+        return flushed.sum();
+    }
+
+    public int parkedCount() {
+        return retries.size();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public CircuitBreaker.State breakerState() {
+        return breaker.state();
+    }
+
+    public long breakerTrips() {
+        return breaker.trips();
+    }
+
+    /** Workers exit after their current task; queued and parked work stays put. */
+    public void stop() {
+        running = false;
+    }
+
+    /** Workers no longer checkpoint the WAL when they run out of work. */
+    void stopCheckpoints() {
+        checkpoints = false;
+    }
+
+    /**
+     * True while a mutation of this row (see {@link RowMutation#key()}) is
+     * parked for retry or being written. Together with a clean cache entry,
+     * false means everything logged for the row so far is in MySQL. While a
+     * worker holds a retry it just took, this is true for every row.
+     */
+    public boolean hasPending(String key) {
+        return retriesInHand.get() > 0 || inFlight.containsKey(key) || retries.contains(key);
     }
 
-    public void enqueue(FlushTask task) {
-        queue.offer(task);
+    /** Nothing queued, parked for retry or being written right now. */
+    public boolean isIdle() {
+        return queue.isEmpty() && retries.isEmpty() && inFlight.isEmpty();
     }
 
     @Override
     public void run() {
-        while (true) {
+        while (running) {
             try {
-                FlushTask task = queue.take();
-                flush(task);
+                if (breaker.isBlocking()) {
+                    // database unreachable: nothing is attempted until the next
+                    // probe; queued rows move to the retry queue, which keeps
+                    // one image per row instead of one task per expiry
+                    long wait = Math.max(1, Math.min(100, breaker.millisUntilProbe()));
+                    FlushTask task = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (task != null) {
+                        onDequeue(task);
+                        park(task);
+                    }
+                    continue;
+                }
+
+                // due retries go first so a recovered database drains the backlog in order
+                retriesInHand.incrementAndGet();
+                FlushTask task = retries.pollDue();
+                boolean retried = task != null;
+                if (!retried) {
+                    retriesInHand.decrementAndGet();
+                    task = nextQueued();
+                    if (task == null) continue;
+                }
+
+                try {
+                    if (!breaker.tryAcquire()) {
+                        park(task);
+                        continue;
+                    }
+                    attempt(task);
+                } finally {
+                    if (retried) retriesInHand.decrementAndGet();
+                }
+                // the attempt above couldn't checkpoint while holding the retry
+                if (retried) checkpointIfDrained();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
     }
 
+    private FlushTask nextQueued() throws InterruptedException {
+        long wait = Math.min(100, retries.millisUntilNextDue());
+        FlushTask task = queue.poll(wait, TimeUnit.MILLISECONDS);
+        if (task != null) onDequeue(task);
+        return task;
+    }
+
+    private void attempt(FlushTask task) {
+        int batchSize = store.config(task.mutation.table).flushBatchSize;
+        if (batchSize > 1) {
+            attemptBatch(task, batchSize);
+        } else {
+            attemptOne(task);
+        }
+    }
+
+    private void attemptOne(FlushTask task) {
+        task = claim(task);
+        if (task == null) return;
+
+        try {
+            flush(task);
+        } catch (Exception e) {
+            onFailure(task, e);
+            inFlight.remove(task.mutation.key(), task.seq);
+            return;
+        }
+
+        onSuccess(task);
+        checkpointIfDrained();
+    }
+
+    /*
+     * Fills a batch with whatever is queued for the same table right now and
+     * writes it in one transaction. Tasks for other tables picked up on the
+     * way are flushed one by one afterwards.
+     */
+    private void attemptBatch(FlushTask first, int batchSize) {
+        String table = first.mutation.table;
+        List<FlushTask> batch = new ArrayList<>();
+        List<FlushTask> others = new ArrayList<>();
+
+        FlushTask claimed = claim(first);
+        if (claimed != null) batch.add(claimed);
+        while (batch.size() + others.size() < batchSize) {
+            FlushTask next = queue.poll();
+            if (next == null) break;
+            onDequeue(next);
+            if (!next.mutation.table.equals(table)) {
+                others.add(next);
+            } else if ((claimed = claim(next)) != null) {
+                batch.add(claimed);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            try {
+                flushBatch(table, batch);
+                batch.forEach(this::onSuccess);
+            } catch (Exception e) {
+                // one failed transaction counts once against the breaker
+                boolean connectivity = isConnectivityFailure(e);
+                for (int i = 0; i < batch.size(); i++) {
+                    FlushTask task = batch.get(i);
+                    if (i > 0 && connectivity) {
+                        task.attempts++;
+                        park(task);
+                    } else {
+                        onFailure(task, e);
+                    }
+                    inFlight.remove(task.mutation.key(), task.seq);
+                }
+            }
+        }
+
+        for (FlushTask task : others) {
+            if (breaker.tryAcquire()) {
+                attemptOne(task);
+            } else {
+                park(task);
+            }
+        }
+        checkpointIfDrained();
+    }
+
+    /*
+     * Reserves the row for this worker and folds in any older parked
+     * mutation of it, so partial updates are never lost or reordered.
+     * Returns null (and parks the task) when another worker has the row.
+     */
+    private FlushTask claim(FlushTask task) {
+        String key = task.mutation.key();
+        if (inFlight.putIfAbsent(key, task.seq) != null) {
+            park(task);
+            return null;
+        }
+        FlushTask older = retries.takeOlder(key, task.seq);
+        return older != null ? FlushTask.merge(older, task) : task;
+    }
+
+    private void onSuccess(FlushTask task) {
+        RowMutation m = task.mutation;
+        String key = m.key();
+
+        flushed.increment();
+        // cancel older parked images before another worker may pick the row up
+        retries.supersede(key, task.seq);
+        inFlight.remove(key, task.seq);
+        store.release(m.table, m.primaryKey, m.version, task.seq);
+        Consumer<RowMutation> listener = flushListener;
+        if (listener != null) listener.accept(m);
+        if (breaker.recordSuccess()) {
+            System.out.println("[FLUSH RESUMED] database reachable, draining "
+                    + retries.size() + " parked mutation(s)");
+            retries.releaseAll();
+        }
+    }
+
+    // a queued, parked or in-flight mutation still needs its WAL records,
+    // and so does a retry a worker has taken but not yet claimed, and a
+    // dirty row that isn't due for a flush yet
+    private boolean drained() {
+        return isIdle() && retriesInHand.get() == 0 && !store.hasUnflushed();
+    }
+
+    private void checkpointIfDrained() {
+        if (checkpoints && drained()) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes one mutation synchronously on the caller's thread, for
+     * write-through tables. Waits for any in-flight flush of the same row.
+     */
+    public void writeThrough(RowMutation m) throws Exception {
+        String key = m.key();
+        FlushTask task = new FlushTask(m);
+        while (inFlight.putIfAbsent(key, task.seq) != null) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        try {
+            flush(task);
+            flushed.increment();
+            retries.supersede(key, task.seq);
+            Consumer<RowMutation> listener = flushListener;
+            if (listener != null) listener.accept(m);
+        } finally {
+            inFlight.remove(key, task.seq);
+        }
+    }
+
+    private void onFailure(FlushTask task, Exception e) {
+        RowMutation m = task.mutation;
+        task.attempts++;
+
+        if (isConnectivityFailure(e)) {
+            CircuitBreaker.State before = breaker.state();
+            breaker.recordFailure();
+            if (before == CircuitBreaker.State.CLOSED && breaker.state() == CircuitBreaker.State.OPEN) {
+                System.err.println("[FLUSH PAUSED] database unreachable (" + rootMessage(e)
+                        + "), probing every " + breakerOpenMillis + " ms");
+            }
+            park(task);
+            return;
+        }
+
+        if (task.attempts >= MAX_ATTEMPTS) {
+            dropped.increment();
+            store.release(m.table, m.primaryKey, m.version, task.seq);
+            System.err.println("[FLUSH DROPPED] " + m.table + " " + m.primaryKey
+                    + " after " + task.attempts + " attempts: " + rootMessage(e));
+            return;
+        }
+
+        System.err.println("[FLUSH FAILED] " + m.table + " " + m.primaryKey
+                + " attempt " + task.attempts + ": " + rootMessage(e));
+        park(task);
+    }
+
+    /*
+     * The cache entry stays pinned while its mutation waits in the retry
+     * queue: MySQL doesn't have it yet, so the row must not expire or be
+     * evicted and then be read back stale. It is released once the mutation
+     * is written (onSuccess) or given up on (onFailure).
+     */
+    private void park(FlushTask task) {
+        retries.park(task);
+    }
+
+    /*
+     * Only errors that say the database can't be reached (SQLState class 08,
+     * or a pool that can't hand out a connection in time) trip the breaker;
+     * anything else, e.g. a constraint violation or a bug in the flush
+     * itself, is this row's own failure and goes through its attempts.
+     */
+    static boolean isConnectivityFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientException
+                    || t instanceof SQLRecoverableException
+                    || t instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+            if (t instanceof SQLException sql) {
+                String state = sql.getSQLState();
+                if (state != null && state.startsWith("08")) return true;
+            }
+        }
+        return false;
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable t = e;
+        while (t.getCause() != null) t = t.getCause();
+        return t.getClass().getSimpleName() + ": " + t.getMessage();
+    }
+
     private void flush(FlushTask task) throws Exception {
         RowMutation m = task.mutation;
         TableSchema schema = schemaRegistry.get(m.table);
@@ -41,62 +510,183 @@ public class FlushManager implements Runnable {
             if (m.isDelete) {
                 String sql = SqlBuilder.buildDelete(m, schema);
                 try (PreparedStatement ps = c.prepareStatement(sql)) {
-                    int idx = 1;
-                    for (String pk : schema.primaryKeys) {
-                        Object value = m.primaryKey.get(pk);
-                        if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
-                            value = m.primaryKey.values().iterator().next();
-                        }
-                        ps.setObject(idx++, value);
-                    }
+                    bindDelete(ps, m, schema);
 
-                    try {
+                    ps.executeUpdate();
+                    System.out.println("[FLUSHED DELETE] " + m.table + " " + m.primaryKey);
+                }
+            } else if (m.isPatch) {
+                String sql = SqlBuilder.buildUpdate(m, schema);
+                int updated;
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    bindUpdate(ps, m, schema);
+                    updated = ps.executeUpdate();
+                }
+                if (updated == 0) {
+                    // row isn't in MySQL yet: insert what we know
+                    try (PreparedStatement ps = c.prepareStatement(SqlBuilder.buildUpsert(m, schema))) {
+                        bindUpsert(ps, m, schema);
                         ps.executeUpdate();
-                        checkpoint();
-                    } catch (Exception e) {
-                        // DB down → WAL preserved
                     }
-
-                    System.out.println("[FLUSHED DELETE] " + m.table + " " + m.primaryKey);
                 }
+                System.out.println("[FLUSHED PATCH] " + m.table + " " + m.primaryKey + " " + m.columns.keySet());
             } else {
                 String sql = SqlBuilder.buildUpsert(m, schema);
                 try (PreparedStatement ps = c.prepareStatement(sql)) {
-                    int idx = 1;
-                    for (String pk : schema.primaryKeys) {
-                        Object value = m.primaryKey.get(pk);
-                        if (value == null) {
-                            value = m.columns.get(pk);
-                        }
-                        if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
-                            value = m.primaryKey.values().iterator().next();
-                        }
-                        ps.setObject(idx++, value);
+                    bindUpsert(ps, m, schema);
+
+                    ps.executeUpdate();
+                    System.out.println("[FLUSHED] " + m.table + " " + m.primaryKey);
+                }
+            }
+        }
+    }
+
+    // one transaction; rows sharing a statement shape share a JDBC batch
+    private void flushBatch(String table, List<FlushTask> batch) throws Exception {
+        TableSchema schema = schemaRegistry.get(table);
+
+        try (Connection c = dataSource.getConnection()) {
+            c.setAutoCommit(false);
+            Map<String, PreparedStatement> statements = new HashMap<>();
+            Map<String, List<RowMutation>> rows = new HashMap<>();
+            try {
+                for (FlushTask task : batch) {
+                    RowMutation m = task.mutation;
+                    String sql = m.isDelete ? SqlBuilder.buildDelete(m, schema)
+                            : m.isPatch ? SqlBuilder.buildUpdate(m, schema)
+                            : SqlBuilder.buildUpsert(m, schema);
+
+                    PreparedStatement ps = statements.get(sql);
+                    if (ps == null) {
+                        ps = c.prepareStatement(sql);
+                        statements.put(sql, ps);
                     }
-                    for (String col : m.columns.keySet()) {
-                        if (!schema.primaryKeys.contains(col)) {
-                            ps.setObject(idx++, m.columns.get(col));
-                        }
+                    if (m.isDelete) {
+                        bindDelete(ps, m, schema);
+                    } else if (m.isPatch) {
+                        bindUpdate(ps, m, schema);
+                    } else {
+                        bindUpsert(ps, m, schema);
                     }
+                    ps.addBatch();
+                    rows.computeIfAbsent(sql, k -> new ArrayList<>()).add(m);
+                }
 
-                    try {
+                List<RowMutation> missing = new ArrayList<>();
+                for (Map.Entry<String, PreparedStatement> st : statements.entrySet()) {
+                    int[] counts = st.getValue().executeBatch();
+                    List<RowMutation> sent = rows.get(st.getKey());
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0 && sent.get(i).isPatch) {
+                            missing.add(sent.get(i));
+                        }
+                    }
+                }
+                // patched rows that aren't in MySQL yet: insert what we know
+                for (RowMutation m : missing) {
+                    try (PreparedStatement ps = c.prepareStatement(SqlBuilder.buildUpsert(m, schema))) {
+                        bindUpsert(ps, m, schema);
                         ps.executeUpdate();
-                        checkpoint();
-                    } catch (Exception e) {
-                        // DB down → WAL preserved
                     }
-
-                    System.out.println("[FLUSHED] " + m.table + " " + m.primaryKey);
                 }
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            } finally {
+                for (PreparedStatement ps : statements.values()) {
+                    ps.close();
+                }
+            }
+        }
+        System.out.println("[FLUSHED BATCH] " + table + " " + batch.size() + " rows");
+    }
+
+    private static void bindDelete(PreparedStatement ps, RowMutation m, TableSchema schema)
+            throws SQLException {
+        int idx = 1;
+        for (String pk : schema.primaryKeys) {
+            Object value = m.primaryKey.get(pk);
+            if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
+                value = m.primaryKey.values().iterator().next();
+            }
+            ps.setObject(idx++, value);
+        }
+    }
+
+    private static void bindUpdate(PreparedStatement ps, RowMutation m, TableSchema schema)
+            throws SQLException {
+        int idx = 1;
+        for (String col : m.columns.keySet()) {
+            if (!schema.primaryKeys.contains(col)) {
+                ps.setObject(idx++, m.columns.get(col));
+            }
+        }
+        for (Long delta : m.deltas.values()) {
+            ps.setLong(idx++, delta);
+        }
+        for (String pk : schema.primaryKeys) {
+            Object value = m.primaryKey.get(pk);
+            if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
+                value = m.primaryKey.values().iterator().next();
             }
+            ps.setObject(idx++, value);
         }
     }
 
+    private static void bindUpsert(PreparedStatement ps, RowMutation m, TableSchema schema)
+            throws SQLException {
+        int idx = 1;
+        for (String pk : schema.primaryKeys) {
+            Object value = m.primaryKey.get(pk);
+            if (value == null) {
+                value = m.columns.get(pk);
+            }
+            if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
+                value = m.primaryKey.values().iterator().next();
+            }
+            ps.setObject(idx++, value);
+        }
+        for (String col : m.columns.keySet()) {
+            if (!schema.primaryKeys.contains(col)) {
+                ps.setObject(idx++, m.columns.get(col));
+            }
+        }
+        for (Long delta : m.deltas.values()) {
+            ps.setLong(idx++, delta);
+        }
+    }
+
+    private void onDequeue(FlushTask task) {
+        long waited = System.nanoTime() - task.enqueuedAt;
+        dequeued.increment();
+        queuedNanos.add(waited);
+        maxQueuedNanos.accumulateAndGet(waited, Math::max);
+
+        if (policy == BackpressurePolicy.BLOCK) {
+            synchronized (capacityMonitor) {
+                capacityMonitor.notifyAll();
+            }
+        }
+    }
+
+    /*
+     * The mark is taken with writers held off, so every record before it is
+     * reflected in the store and found flushed; a record appended after it
+     * makes the truncate a no-op instead of wiping it.
+     */
     private void checkpoint() {
+        WALMark mark;
+        long stamp = writeBarrier.writeLock();
+        try {
+            if (!drained()) return;
+            mark = wal.mark();
+        } finally {
+            writeBarrier.unlockWrite(stamp);
+        }
         try {
-            WALWriter wal = WALWriter.getInstance();
-            wal.sync();
-            wal.truncate();
+            wal.truncate(mark);
         } catch (Exception e) {
             // swallow — DB is already durable
         }
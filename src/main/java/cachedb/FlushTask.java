@@ -1,10 +1,33 @@
 package cachedb;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class FlushTask {
 
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
     public final RowMutation mutation;
+    public final long enqueuedAt;
+    // creation order; a higher seq carries a newer image of the same row
+    public final long seq;
+    public int attempts;
 
     public FlushTask(RowMutation mutation) {
         this.mutation = mutation;
+        this.enqueuedAt = System.nanoTime();
+        this.seq = SEQUENCE.incrementAndGet();
+    }
+
+    private FlushTask(RowMutation mutation, long enqueuedAt, long seq, int attempts) {
+        this.mutation = mutation;
+        this.enqueuedAt = enqueuedAt;
+        this.seq = seq;
+        this.attempts = attempts;
+    }
+
+    /** One task with the combined effect of {@code older} followed by {@code newer}. */
+    public static FlushTask merge(FlushTask older, FlushTask newer) {
+        return new FlushTask(newer.mutation.after(older.mutation),
+                newer.enqueuedAt, newer.seq, newer.attempts);
     }
 }
@@ -0,0 +1,13 @@
+package cachedb;
+
+/**
+ * How a secondary index on a cached column is organised.
+ */
+public enum IndexType {
+
+    /** Equality lookups only ({@link CacheDB#findBy}). */
+    HASH,
+
+    /** Ordered by value; also serves range lookups ({@link CacheDB#findRange}). */
+    SORTED
+}
@@ -0,0 +1,248 @@
+package cachedb;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-table Bloom filters of the primary keys that exist in MySQL, so a
+ * read-through miss for a key that certainly isn't there skips the SELECT.
+ *
+ * Each filter is sized from the table's row count and filled by streaming
+ * its keys, then kept current as rows are flushed or read through. Deleted
+ * keys stay in the filter (they only cost a false positive). When the
+ * estimated or observed false-positive rate drifts past twice the target,
+ * the filter is rebuilt in the background; keys flushed meanwhile go into
+ * both the old and the new filter.
+ *
+ * Only rows written through CacheDB are added between rebuilds, so rows
+ * inserted into MySQL by other writers can't be read through until the
+ * next rebuild.
+ *
+ * Keys are matched the way MySQL compares them: numbers by value (so 7,
+ * "7" and a DECIMAL 7.00 are one key), booleans as 1/0 (TINYINT(1), BIT),
+ * text trimmed and lower-cased (default collations ignore case and trailing
+ * spaces). Tables keyed by any other type (FLOAT/DOUBLE, dates and times,
+ * binary) aren't filtered: the values the driver returns and the ones
+ * callers pass don't reliably share one form.
+ */
+public class KeyFilters {
+
+    private static final double HEADROOM = 1.25;
+    private static final long MIN_KEYS = 1024;
+    private static final long DRIFT_SAMPLE = 1000;
+    // key column types whose values normalize to one form on both sides
+    private static final Set<Integer> KEY_TYPES = Set.of(
+            Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT,
+            Types.DECIMAL, Types.NUMERIC, Types.BIT, Types.BOOLEAN,
+            Types.CHAR, Types.VARCHAR, Types.LONGVARCHAR, Types.NCHAR, Types.NVARCHAR);
+
+    private static class Table {
+        final double targetFpp;
+        volatile BloomFilter current;
+        volatile BloomFilter building;
+        final AtomicBoolean rebuilding = new AtomicBoolean();
+        // absent keys seen since the last build: caught by the filter vs. not
+        final LongAdder definiteMisses = new LongAdder();
+        final LongAdder falsePositives = new LongAdder();
+
+        Table(double targetFpp) {
+            this.targetFpp = targetFpp;
+        }
+    }
+
+    private final DataSource ds;
+    private final SchemaRegistry schemaRegistry;
+    private final ExecutorService rebuilds;
+    private final int fetchSize;
+    private final Map<String, Table> tables = new HashMap<>();
+    private final LongAdder skipped = new LongAdder();
+
+    public KeyFilters(DataSource ds,
+                      SchemaRegistry schemaRegistry,
+                      Map<String, TableConfig> configs,
+                      ExecutorService rebuilds,
+                      int fetchSize) {
+        this.ds = ds;
+        this.schemaRegistry = schemaRegistry;
+        this.rebuilds = rebuilds;
+        this.fetchSize = fetchSize;
+        configs.forEach((table, config) -> {
+            if (config.bloomFpp > 0) tables.put(table, new Table(config.bloomFpp));
+        });
+    }
+
+    /** Builds every filter now; a table that fails stays unfiltered. */
+    public void buildAll() {
+        for (Map.Entry<String, Table> e : tables.entrySet()) {
+            rebuild(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * False when the key certainly has no row in MySQL. True when it may,
+     * or when the table has no filter (yet).
+     */
+    public boolean mightExist(String table, Map<String, Object> pk) {
+        Table t = tables.get(table);
+        BloomFilter filter = t != null ? t.current : null;
+        if (filter == null) return true;
+
+        if (filter.mightContain(key(pk))) return true;
+        t.definiteMisses.increment();
+        skipped.increment();
+        return false;
+    }
+
+    /** The filter said the key might exist, but MySQL had no row. */
+    public void falsePositive(String table) {
+        Table t = tables.get(table);
+        if (t == null || t.current == null) return;
+
+        t.falsePositives.increment();
+        long fp = t.falsePositives.sum();
+        long seen = fp + t.definiteMisses.sum();
+        if (seen >= DRIFT_SAMPLE && (double) fp / seen > 2 * t.targetFpp) {
+            scheduleRebuild(table, t, "observed fpp " + String.format("%.3f", (double) fp / seen));
+        }
+    }
+
+    /** The key now exists in MySQL (flushed, written through or read). */
+    public void add(String table, Map<String, Object> pk) {
+        Table t = tables.get(table);
+        if (t == null) return;
+
+        String key = key(pk);
+        BloomFilter building = t.building;
+        if (building != null) building.put(key);
+
+        BloomFilter filter = t.current;
+        if (filter == null) return;
+        filter.put(key);
+        if (filter.expectedFpp() > 2 * t.targetFpp) {
+            scheduleRebuild(table, t, "table outgrew its filter");
+        }
+    }
+
+    public long skippedCount() {
+        return skipped.sum();
+    }
+
+    public void stop() {
+        rebuilds.shutdownNow();
+        try {
+            rebuilds.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scheduleRebuild(String table, Table t, String reason) {
+        if (!t.rebuilding.compareAndSet(false, true)) return;
+        System.out.println("[BLOOM] rebuilding " + table + ": " + reason);
+        try {
+            rebuilds.submit(() -> rebuild(table, t));
+        } catch (RuntimeException e) {
+            t.rebuilding.set(false); // shutting down
+        }
+    }
+
+    private void rebuild(String table, Table t) {
+        t.rebuilding.set(true);
+        long start = System.currentTimeMillis();
+        try {
+            List<String> keyColumns = keyColumns(table);
+            long rows = countRows(table);
+            BloomFilter filter = BloomFilter.create(
+                    Math.max(MIN_KEYS, (long) (rows * HEADROOM)), t.targetFpp);
+            // publish before scanning so flushes during the scan land in it too
+            t.building = filter;
+            long keys = scanKeys(table, keyColumns, filter);
+
+            t.current = filter;
+            t.definiteMisses.reset();
+            t.falsePositives.reset();
+            System.out.println("[BLOOM] " + table + ": " + keys + " keys, "
+                    + filter.sizeBytes() / 1024 + " KB, built in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Warning: Bloom filter for " + table
+                    + " not built: " + e.getMessage());
+        } finally {
+            t.building = null;
+            t.rebuilding.set(false);
+        }
+    }
+
+    // one text per key for values MySQL treats as equal, however they're typed
+    static String key(Map<String, Object> pk) {
+        Map<String, Object> normalized = new TreeMap<>();
+        pk.forEach((column, value) -> normalized.put(column.toLowerCase(Locale.ROOT), keyValue(value)));
+        return normalized.toString();
+    }
+
+    private static Object keyValue(Object value) {
+        if (value instanceof Boolean b) value = b ? 1 : 0;
+        Object normalized = SecondaryIndex.normalize(value);
+        return normalized instanceof String text ? text.toLowerCase(Locale.ROOT) : normalized;
+    }
+
+    private List<String> keyColumns(String table) throws SQLException {
+        TableSchema schema = schemaRegistry.get(table);
+        if (schema.primaryKeys.isEmpty()) {
+            throw new SQLException("Table " + table + " has no primary key");
+        }
+        for (String column : schema.primaryKeys) {
+            Integer type = schema.columns.get(column);
+            if (type != null && !KEY_TYPES.contains(type)) {
+                throw new SQLException("Key column " + column + " has a type (java.sql.Types "
+                        + type + ") whose values can't be matched reliably");
+            }
+        }
+        return schema.primaryKeys;
+    }
+
+    private long countRows(String table) throws SQLException {
+        try (Connection c = ds.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private long scanKeys(String table, List<String> keyColumns, BloomFilter filter) throws SQLException {
+        String sql = "SELECT " + String.join(", ", keyColumns) + " FROM " + table;
+
+        long keys = 0;
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                Map<String, Object> pk = new HashMap<>();
+                while (rs.next()) {
+                    for (int i = 0; i < keyColumns.size(); i++) {
+                        pk.put(keyColumns.get(i), rs.getObject(i + 1));
+                    }
+                    filter.put(key(pk));
+                    keys++;
+                }
+            }
+        }
+        return keys;
+    }
+}
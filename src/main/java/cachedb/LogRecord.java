@@ -1,5 +1,7 @@
 package cachedb;
 
+import java.nio.ByteBuffer;
+
 public final class LogRecord {
 
     public static final int MAGIC = 0xCAFEBABE;
@@ -22,6 +24,31 @@ public final class LogRecord {
         return new LogRecord(LogType.DELETE, key, null);
     }
 
+    public static LogRecord patch(byte[] key, byte[] columns) {
+        return new LogRecord(LogType.PATCH, key, columns);
+    }
+
+    public static LogRecord increment(byte[] key, byte[] deltas) {
+        return new LogRecord(LogType.INCREMENT, key, deltas);
+    }
+
+    public static LogRecord epoch(long epoch) {
+        return new LogRecord(LogType.EPOCH, ByteBuffer.allocate(Long.BYTES).putLong(epoch).array(), null);
+    }
+
+    /**
+     * Magic of the records that follow an epoch record in preallocated WAL
+     * segments, so records left over from an earlier epoch don't match.
+     */
+    static int saltedMagic(long epoch) {
+        int salt = (int) (epoch ^ (epoch >>> 32)) | 1;
+        return MAGIC ^ salt;
+    }
+
+    static LogRecord of(LogType type, byte[] key, byte[] value) {
+        return new LogRecord(type, key, value);
+    }
+
     public LogType type() {
         return type;
     }
@@ -33,4 +60,9 @@ public final class LogRecord {
     public byte[] value() {
         return value;
     }
+
+    /** The epoch carried by an {@link LogType#EPOCH} record. */
+    public long epochValue() {
+        return ByteBuffer.wrap(key).getLong();
+    }
 }
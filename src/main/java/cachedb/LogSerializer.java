@@ -2,24 +2,63 @@ package cachedb;
 
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public final class LogSerializer {
 
+    // set on the type byte when the value is deflated
+    static final byte COMPRESSED = (byte) 0x80;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER =
+            ThreadLocal.withInitial(Inflater::new);
+
     private LogSerializer() {}
 
     /*
      * Format:
      * [MAGIC:int]
      * [TOTAL_LENGTH:int]
-     * [TYPE:byte]
+     * [TYPE:byte]           (| 0x80 if VALUE is compressed)
      * [KEY_LEN:int]
      * [KEY:bytes]
      * [VALUE_LEN:int] (-1 for DELETE)
-     * [VALUE:bytes]
+     * [VALUE:bytes]         compressed: [RAW_LEN:int][deflated bytes]
      */
     public static ByteBuffer serialize(LogRecord r) {
+        return serialize(r, 0);
+    }
+
+    /**
+     * Deflates values of at least {@code compressAbove} bytes (0 = never),
+     * unless that doesn't make them smaller.
+     */
+    public static ByteBuffer serialize(LogRecord r, int compressAbove) {
+        return serialize(r, compressAbove, ByteBuffer::allocate);
+    }
+
+    /**
+     * Serializes into a buffer from {@code allocator}, given the exact
+     * length needed, e.g. a pooled direct buffer the caller later releases.
+     */
+    static ByteBuffer serialize(LogRecord r, int compressAbove, IntFunction<ByteBuffer> allocator) {
+        byte type = r.type().code();
+        byte[] value = r.value();
+        if (compressAbove > 0 && value != null && value.length >= compressAbove) {
+            byte[] deflated = deflate(value);
+            if (deflated != null) {
+                type |= COMPRESSED;
+                value = deflated;
+            }
+        }
+
         int keyLen = r.key().length;
-        int valueLen = (r.value() == null) ? -1 : r.value().length;
+        int valueLen = (value == null) ? -1 : value.length;
 
         int totalLen =
                 Integer.BYTES + // MAGIC
@@ -28,18 +67,18 @@ public final class LogSerializer {
                         Integer.BYTES + keyLen +
                         Integer.BYTES + (valueLen > 0 ? valueLen : 0);
 
-        ByteBuffer buf = ByteBuffer.allocate(totalLen);
+        ByteBuffer buf = allocator.apply(totalLen);
 
         buf.putInt(LogRecord.MAGIC);
         buf.putInt(totalLen);
-        buf.put(r.type().code());
+        buf.put(type);
 
         buf.putInt(keyLen);
         buf.put(r.key());
 
         buf.putInt(valueLen);
         if (valueLen > 0) {
-            buf.put(r.value());
+            buf.put(value);
         }
 
         buf.flip();
@@ -48,7 +87,8 @@ public final class LogSerializer {
 
     public static LogRecord deserialize(ByteBuffer buf) {
         byte typeCode = buf.get();
-        LogType type = LogType.fromCode(typeCode);
+        boolean compressed = (typeCode & COMPRESSED) != 0;
+        LogType type = LogType.fromCode((byte) (typeCode & ~COMPRESSED));
 
         int keyLen = buf.getInt();
         byte[] key = new byte[keyLen];
@@ -61,9 +101,56 @@ public final class LogSerializer {
             value = new byte[valueLen];
             buf.get(value);
         }
+        if (compressed) {
+            value = inflate(value);
+        }
 
-        return (type == LogType.PUT)
-                ? LogRecord.put(key, value)
-                : LogRecord.delete(key);
+        return LogRecord.of(type, key, value);
+    }
+
+    // [RAW_LEN][deflated], or null if that's no smaller than the raw bytes
+    private static byte[] deflate(byte[] raw) {
+        if (raw.length <= Integer.BYTES) return null;
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        byte[] out = new byte[raw.length];
+        ByteBuffer.wrap(out).putInt(raw.length);
+        int len = Integer.BYTES;
+        while (!deflater.finished()) {
+            if (len == out.length) return null;
+            len += deflater.deflate(out, len, out.length - len);
+        }
+        return len < out.length ? Arrays.copyOf(out, len) : null;
+    }
+
+    private static byte[] inflate(byte[] stored) {
+        int rawLen = ByteBuffer.wrap(stored).getInt();
+        // deflate can't do better than about 1:1032
+        if (rawLen < 0 || rawLen > stored.length * 1032L + 64) {
+            throw new IllegalArgumentException("Corrupt compressed WAL value");
+        }
+        byte[] raw = new byte[rawLen];
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(stored, Integer.BYTES, stored.length - Integer.BYTES);
+        try {
+            int len = 0;
+            while (len < raw.length) {
+                int n = inflater.inflate(raw, len, raw.length - len);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                len += n;
+            }
+            if (len != raw.length) {
+                throw new IllegalArgumentException("Compressed WAL value is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed WAL value", e);
+        }
+        return raw;
     }
 }
@@ -3,7 +3,13 @@ package cachedb;
 
 public enum LogType {
     PUT((byte) 1),
-    DELETE((byte) 2);
+    DELETE((byte) 2),
+    // first record of every WAL generation; identifies it for snapshots
+    EPOCH((byte) 3),
+    // only the changed columns of a row
+    PATCH((byte) 4),
+    // column deltas applied on top of whatever value the row holds
+    INCREMENT((byte) 5);
 
     private final byte code;
 
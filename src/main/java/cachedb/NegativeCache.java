@@ -0,0 +1,114 @@
+package cachedb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keys recently found absent in MySQL, so repeated lookups of ids that don't
+ * exist stop reaching the database. Fixed size and allocation-free: each slot
+ * is one long packing a 24-bit key fingerprint with a 40-bit expiry (millis
+ * since this cache was created), in 4-slot buckets. A full bucket overwrites
+ * the entry closest to expiry. Two keys can share a fingerprint; the chance
+ * is about 1 in 4 million per lookup, and lasts at most one TTL.
+ */
+class NegativeCache {
+
+    private static final int WAYS = 4;
+    private static final int EXPIRY_BITS = 40;
+    private static final long EXPIRY_MASK = (1L << EXPIRY_BITS) - 1;
+
+    private final AtomicLongArray slots;
+    private final int bucketMask;
+    private final long base = System.currentTimeMillis();
+    private final LongAdder hits = new LongAdder();
+
+    /** {@code capacity} is rounded up to a power of two. */
+    NegativeCache(int capacity) {
+        int buckets = Integer.highestOneBit(Math.max(1, capacity / WAYS - 1) << 1);
+        this.slots = new AtomicLongArray(buckets * WAYS);
+        this.bucketMask = buckets - 1;
+    }
+
+    void markAbsent(String key, long ttlMillis) {
+        long h = mix(key);
+        int start = bucket(h);
+        long fp = fingerprint(h);
+        long now = System.currentTimeMillis() - base;
+        long packed = (fp << EXPIRY_BITS) | ((now + ttlMillis) & EXPIRY_MASK);
+
+        int victim = start;
+        long victimExpiry = Long.MAX_VALUE;
+        for (int i = start; i < start + WAYS; i++) {
+            long slot = slots.get(i);
+            if (slot == 0 || (slot >>> EXPIRY_BITS) == fp) {
+                victim = i;
+                break;
+            }
+            long expiry = slot & EXPIRY_MASK;
+            if (expiry < victimExpiry) {
+                victim = i;
+                victimExpiry = expiry;
+            }
+        }
+        // racing writers may overwrite each other; a lost mark is just a miss
+        slots.set(victim, packed);
+    }
+
+    boolean isAbsent(String key) {
+        long h = mix(key);
+        int start = bucket(h);
+        long fp = fingerprint(h);
+        long now = System.currentTimeMillis() - base;
+
+        for (int i = start; i < start + WAYS; i++) {
+            long slot = slots.get(i);
+            if (slot != 0 && (slot >>> EXPIRY_BITS) == fp) {
+                if ((slot & EXPIRY_MASK) > now) {
+                    hits.increment();
+                    return true;
+                }
+                slots.compareAndSet(i, slot, 0);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    void forget(String key) {
+        long h = mix(key);
+        int start = bucket(h);
+        long fp = fingerprint(h);
+
+        for (int i = start; i < start + WAYS; i++) {
+            long slot = slots.get(i);
+            if (slot != 0 && (slot >>> EXPIRY_BITS) == fp) {
+                slots.compareAndSet(i, slot, 0);
+            }
+        }
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    private int bucket(long h) {
+        return ((int) h & bucketMask) * WAYS;
+    }
+
+    // never 0, so an empty slot can't match
+    private static long fingerprint(long h) {
+        long fp = (h >>> 40) & 0xFFFFFF;
+        return fp == 0 ? 1 : fp;
+    }
+
+    // String.hashCode spread to 64 bits (murmur3 finalizer)
+    private static long mix(String key) {
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
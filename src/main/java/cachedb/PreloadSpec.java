@@ -0,0 +1,42 @@
+package cachedb;
+
+import java.util.Objects;
+
+/**
+ * Which rows of a table to load into the cache on startup.
+ *
+ *   PreloadSpec.table("users")
+ *   PreloadSpec.table("orders").where("status = 'OPEN'")
+ *   PreloadSpec.table("sessions").mostRecent("updated_at", 50_000)
+ */
+public final class PreloadSpec {
+
+    public final String table;
+    public final String where;
+    public final String recencyColumn;
+    public final int limit;
+
+    private PreloadSpec(String table, String where, String recencyColumn, int limit) {
+        this.table = table;
+        this.where = where;
+        this.recencyColumn = recencyColumn;
+        this.limit = limit;
+    }
+
+    public static PreloadSpec table(String table) {
+        return new PreloadSpec(Objects.requireNonNull(table), null, null, 0);
+    }
+
+    /** Only rows matching a SQL predicate (inserted as-is into the WHERE clause). */
+    public PreloadSpec where(String predicate) {
+        return new PreloadSpec(table, Objects.requireNonNull(predicate), recencyColumn, limit);
+    }
+
+    /** Only the {@code n} newest rows by {@code column}. */
+    public PreloadSpec mostRecent(String column, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Row count must be > 0");
+        }
+        return new PreloadSpec(table, where, Objects.requireNonNull(column), n);
+    }
+}
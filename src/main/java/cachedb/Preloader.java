@@ -0,0 +1,198 @@
+package cachedb;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Primes the cache from MySQL before the first request is served.
+ *
+ * Tables with a single integer primary key are split into contiguous key
+ * ranges, each streamed over its own connection; anything else (composite
+ * keys, top-N by recency) is streamed over one. Rows go in as clean
+ * entries and never replace a row recovered from the WAL or a snapshot.
+ *
+ * MySQL Connector/J only streams with {@code useCursorFetch=true} on the
+ * JDBC URL; without it the fetch size is ignored and each range is
+ * buffered in memory.
+ */
+public class Preloader {
+
+    private static final long PROGRESS_EVERY = 100_000;
+
+    private final DataSource ds;
+    private final SchemaRegistry schemaRegistry;
+    private final CacheStore store;
+    private final int parallelism;
+    private final int fetchSize;
+
+    private final AtomicLong loaded = new AtomicLong();
+
+    public Preloader(DataSource ds,
+                     SchemaRegistry schemaRegistry,
+                     CacheStore store,
+                     int parallelism,
+                     int fetchSize) {
+        this.ds = ds;
+        this.schemaRegistry = schemaRegistry;
+        this.store = store;
+        this.parallelism = parallelism;
+        this.fetchSize = fetchSize;
+    }
+
+    /** Loads every spec; a table that fails is reported and skipped. Returns rows loaded. */
+    public long load(List<PreloadSpec> specs) {
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "preload-worker");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            for (PreloadSpec spec : specs) {
+                long before = loaded.get();
+                long tableStart = System.currentTimeMillis();
+                try {
+                    loadTable(spec, pool);
+                    System.out.println("[PRELOAD] " + spec.table + ": "
+                            + (loaded.get() - before) + " rows in "
+                            + (System.currentTimeMillis() - tableStart) + " ms");
+                } catch (Exception e) {
+                    System.err.println("Warning: preload of " + spec.table
+                            + " failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.println("[PRELOAD] done: " + loaded.get() + " rows in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return loaded.get();
+    }
+
+    private void loadTable(PreloadSpec spec, ExecutorService pool) throws Exception {
+        TableSchema schema = schemaRegistry.get(spec.table);
+        if (schema.primaryKeys.isEmpty()) {
+            throw new SQLException("Table " + spec.table + " has no primary key");
+        }
+
+        String rangeColumn = rangeColumn(spec, schema);
+        if (rangeColumn == null) {
+            stream(spec, schema, selectAll(spec), List.of());
+            return;
+        }
+
+        long[] bounds = minMax(spec, rangeColumn);
+        if (bounds == null) return; // empty
+
+        long min = bounds[0];
+        long max = bounds[1];
+        long span = max - min + 1;
+        int partitions = (int) Math.max(1, Math.min(parallelism, span));
+        long step = (span + partitions - 1) / partitions;
+
+        List<Future<?>> parts = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            long lo = min + i * step;
+            if (lo > max) break;
+            long hi = Math.min(max, lo + step - 1);
+
+            String sql = "SELECT * FROM " + spec.table
+                    + " WHERE " + rangeColumn + " BETWEEN ? AND ?"
+                    + (spec.where != null ? " AND (" + spec.where + ")" : "");
+            parts.add(pool.submit(() -> {
+                stream(spec, schema, sql, List.of(lo, hi));
+                return null;
+            }));
+        }
+        for (Future<?> part : parts) {
+            part.get();
+        }
+    }
+
+    // only a lone integer key can be split into ranges
+    private static String rangeColumn(PreloadSpec spec, TableSchema schema) {
+        if (spec.limit > 0 || schema.primaryKeys.size() != 1) return null;
+
+        String pk = schema.primaryKeys.get(0);
+        Integer type = schema.columns.get(pk);
+        if (type == null) return null;
+
+        return switch (type) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT -> pk;
+            default -> null;
+        };
+    }
+
+    private static String selectAll(PreloadSpec spec) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(spec.table);
+        if (spec.where != null) {
+            sql.append(" WHERE ").append(spec.where);
+        }
+        if (spec.limit > 0) {
+            sql.append(" ORDER BY ").append(spec.recencyColumn).append(" DESC")
+                    .append(" LIMIT ").append(spec.limit);
+        }
+        return sql.toString();
+    }
+
+    private long[] minMax(PreloadSpec spec, String column) throws SQLException {
+        String sql = "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + spec.table
+                + (spec.where != null ? " WHERE " + spec.where : "");
+
+        try (Connection c = ds.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            if (!rs.next() || rs.getObject(1) == null) return null;
+            return new long[]{rs.getLong(1), rs.getLong(2)};
+        }
+    }
+
+    private void stream(PreloadSpec spec,
+                        TableSchema schema,
+                        String sql,
+                        List<Object> params) throws SQLException {
+
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            ps.setFetchSize(fetchSize);
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int n = meta.getColumnCount();
+
+                while (rs.next()) {
+                    Map<String, Object> pk = new HashMap<>();
+                    Map<String, Object> cols = new HashMap<>();
+                    for (int i = 1; i <= n; i++) {
+                        String name = meta.getColumnLabel(i);
+                        Object value = rs.getObject(i);
+                        if (schema.primaryKeys.contains(name)) {
+                            pk.put(name, value);
+                        } else {
+                            cols.put(name, value);
+                        }
+                    }
+
+                    store.putClean(spec.table, pk, cols);
+
+                    long total = loaded.incrementAndGet();
+                    if (total % PROGRESS_EVERY == 0) {
+                        System.out.println("[PRELOAD] " + total + " rows loaded");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package cachedb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The keys of one table's cached rows, ordered by their primary-key columns
+ * in declared order, so all rows sharing a leading part of the key (e.g. one
+ * order's items) are adjacent. Maintained by {@link CacheStore} alongside
+ * the rows themselves.
+ */
+class PrimaryKeyIndex {
+
+    // element by element; a prefix sorts before every key that extends it
+    private static final Comparator<List<Object>> ORDER = (a, b) -> {
+        int n = Math.min(a.size(), b.size());
+        for (int i = 0; i < n; i++) {
+            int c = SecondaryIndex.ORDER.compare(a.get(i), b.get(i));
+            if (c != 0) return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    };
+
+    final List<String> columns;
+    private final ConcurrentSkipListMap<List<Object>, String> keys =
+            new ConcurrentSkipListMap<>(ORDER);
+
+    PrimaryKeyIndex(List<String> columns) {
+        this.columns = List.copyOf(columns);
+    }
+
+    /** Throws IllegalArgumentException unless {@code pk} has exactly the key columns, none null. */
+    void check(Map<String, Object> pk) {
+        if (!pk.keySet().equals(Set.copyOf(columns))) {
+            throw new IllegalArgumentException(
+                    "Primary key must have the ordered key columns " + columns + ", got " + pk.keySet());
+        }
+        encode(pk, columns.size());
+    }
+
+    void add(Map<String, Object> pk, String keyHash) {
+        keys.put(encode(pk, columns.size()), keyHash);
+    }
+
+    void remove(Map<String, Object> pk, String keyHash) {
+        keys.remove(encode(pk, columns.size()), keyHash);
+    }
+
+    /**
+     * Key hashes of the rows whose key starts with {@code prefix}, in key
+     * order. Lazy: entries are read from the skip list as the caller
+     * advances, and reflect concurrent changes the way its iterators do.
+     */
+    Iterator<String> prefix(Map<String, Object> prefix) {
+        if (prefix.size() > columns.size()
+                || !prefix.keySet().equals(Set.copyOf(columns.subList(0, prefix.size())))) {
+            throw new IllegalArgumentException(
+                    "Scan prefix must be the leading key columns " + columns + ", got " + prefix.keySet());
+        }
+        List<Object> start = encode(prefix, prefix.size());
+        Iterator<Map.Entry<List<Object>, String>> it = keys.tailMap(start, true).entrySet().iterator();
+
+        return new Iterator<>() {
+            private String next = advance();
+
+            private String advance() {
+                if (!it.hasNext()) return null;
+                Map.Entry<List<Object>, String> e = it.next();
+                List<Object> key = e.getKey();
+                if (ORDER.compare(key.subList(0, start.size()), start) != 0) return null;
+                return e.getValue();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) throw new NoSuchElementException();
+                String current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    private List<Object> encode(Map<String, Object> pk, int size) {
+        List<Object> key = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Object value = SecondaryIndex.normalize(pk.get(columns.get(i)));
+            if (value == null) {
+                throw new IllegalArgumentException("Primary key " + pk + " has no " + columns.get(i));
+            }
+            key.add(value);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,249 @@
+package cachedb;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Results of parameterized SELECTs, keyed by SQL text and bound parameters.
+ * A result is dropped when any table it reads is written through CacheDB or
+ * has a row flushed to MySQL, when it outlives its TTL, or when the cache is
+ * over its size bound (least recently used first).
+ */
+public class QueryCache {
+
+    // FROM a [alias], b [alias] ... up to the next clause
+    private static final Pattern FROM = Pattern.compile(
+            "\\bfrom\\s+(.+?)(?=\\b(?:where|group|order|limit|having|union|join|inner|left|right"
+                    + "|cross|natural|straight_join|for|lock)\\b|[();]|$)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern JOIN = Pattern.compile(
+            "\\b(?:join|straight_join)\\s+`?([\\w$.]+)`?", Pattern.CASE_INSENSITIVE);
+
+    private static class Result {
+        final List<Map<String, Object>> rows;
+        final Set<String> tables;
+        final long expiresAt;
+        volatile long lastAccess;
+
+        Result(List<Map<String, Object>> rows, Set<String> tables, long expiresAt) {
+            this.rows = rows;
+            this.tables = tables;
+            this.expiresAt = expiresAt;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    private final DataSource dataSource;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    // [sql, params...] → result
+    private final Map<List<Object>, Result> results = new ConcurrentHashMap<>();
+    // table → keys of the results that read it
+    private final Map<String, Set<List<Object>>> byTable = new ConcurrentHashMap<>();
+    // bumped on every invalidation, so a query that raced a write isn't kept
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public QueryCache(DataSource dataSource, int maxEntries, long ttlMillis) {
+        this.dataSource = dataSource;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public List<Map<String, Object>> query(String sql, List<Object> params) throws SQLException {
+        List<Object> key = new ArrayList<>(params.size() + 1);
+        key.add(sql);
+        key.addAll(params);
+
+        long now = System.currentTimeMillis();
+        Result cached = results.get(key);
+        if (cached != null && now <= cached.expiresAt) {
+            cached.lastAccess = now;
+            hits.increment();
+            return cached.rows;
+        }
+        if (cached != null) {
+            drop(key, cached);
+        }
+        misses.increment();
+
+        Set<String> tables = tables(sql);
+        long[] before = generations(tables);
+        List<Map<String, Object>> rows = execute(sql, params);
+
+        Result result = new Result(rows, tables, System.currentTimeMillis() + ttlMillis);
+        results.put(key, result);
+        for (String table : tables) {
+            byTable.computeIfAbsent(table, t -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        // published first, then checked: an invalidation either sees the
+        // result in byTable or has already moved the generation on
+        if (!Arrays.equals(before, generations(tables))) {
+            drop(key, result);
+        }
+        evictIfFull();
+        return rows;
+    }
+
+    /** Drops every cached result that reads {@code table}. */
+    public void invalidate(String table) {
+        String name = table.toLowerCase(Locale.ROOT);
+        generations.computeIfAbsent(name, t -> new AtomicLong()).incrementAndGet();
+
+        Set<List<Object>> keys = byTable.remove(name);
+        if (keys != null) {
+            keys.forEach(results::remove);
+        }
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    // keys listed in byTable, over all tables
+    int trackedCount() {
+        return byTable.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    private long[] generations(Set<String> tables) {
+        long[] gens = new long[tables.size()];
+        int i = 0;
+        for (String table : tables) {
+            gens[i++] = generations.computeIfAbsent(table, t -> new AtomicLong()).get();
+        }
+        return gens;
+    }
+
+    private List<Map<String, Object>> execute(String sql, List<Object> params) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+
+            List<Map<String, Object>> rows = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int count = meta.getColumnCount();
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int c = 1; c <= count; c++) {
+                        row.put(meta.getColumnLabel(c), rs.getObject(c));
+                    }
+                    rows.add(Collections.unmodifiableMap(row));
+                }
+            }
+            return Collections.unmodifiableList(rows);
+        }
+    }
+
+    /*
+     * Same approach as CacheStore: past the bound, drop the least recently
+     * used results until 5% under it, one pass at a time.
+     */
+    private void evictIfFull() {
+        if (results.size() <= maxEntries) return;
+        if (!evicting.compareAndSet(false, true)) return;
+
+        try {
+            int excess = results.size() - (maxEntries - Math.max(1, maxEntries / 20));
+            if (excess <= 0) return;
+
+            PriorityQueue<Map.Entry<List<Object>, Long>> oldest = new PriorityQueue<>(
+                    excess + 1, Map.Entry.<List<Object>, Long>comparingByValue().reversed());
+            for (Map.Entry<List<Object>, Result> e : results.entrySet()) {
+                long rank = e.getValue().lastAccess;
+                if (oldest.size() < excess) {
+                    oldest.add(Map.entry(e.getKey(), rank));
+                } else if (rank < oldest.peek().getValue()) {
+                    oldest.poll();
+                    oldest.add(Map.entry(e.getKey(), rank));
+                }
+            }
+
+            for (Map.Entry<List<Object>, Long> victim : oldest) {
+                Result removed = results.get(victim.getKey());
+                if (removed != null) drop(victim.getKey(), removed);
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    // removes the result and its byTable entries, unless it was cached anew meanwhile
+    private void drop(List<Object> key, Result result) {
+        if (!results.remove(key, result)) return;
+        for (String table : result.tables) {
+            Set<List<Object>> keys = byTable.get(table);
+            if (keys != null) keys.remove(key);
+        }
+        // a result for the same query published meanwhile still needs its entries
+        if (results.containsKey(key)) {
+            for (String table : result.tables) {
+                byTable.computeIfAbsent(table, t -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+    }
+
+    /** Tables named after FROM (including comma joins) and JOIN, lower-cased. */
+    static Set<String> tables(String sql) {
+        Set<String> tables = new HashSet<>();
+
+        Matcher from = FROM.matcher(sql);
+        // restart just past each FROM so one inside a derived table is seen too
+        for (int pos = 0; from.find(pos); pos = from.start() + 4) {
+            for (String item : from.group(1).split(",")) {
+                String name = item.trim().split("\\s+")[0];
+                if (!name.isEmpty() && !name.startsWith("(")) tables.add(normalize(name));
+            }
+        }
+        Matcher join = JOIN.matcher(sql);
+        while (join.find()) {
+            tables.add(normalize(join.group(1)));
+        }
+
+        if (tables.isEmpty()) {
+            throw new IllegalArgumentException("Could not find the tables read by: " + sql);
+        }
+        return tables;
+    }
+
+    // `db`.`orders` → orders
+    private static String normalize(String name) {
+        String plain = name.replace("`", "");
+        return plain.substring(plain.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,65 @@
+package cachedb;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reloads rows from MySQL in the background shortly before they expire,
+ * for tables with {@link TableConfig.Builder#refreshAhead}. At most one
+ * reload per row is in flight; readers never wait for it.
+ */
+public class RefreshAheadManager {
+
+    private final CacheStore store;
+    private final RowLoader loader;
+    private final ExecutorService executor;
+
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public RefreshAheadManager(CacheStore store, RowLoader loader, ExecutorService executor) {
+        this.store = store;
+        this.loader = loader;
+        this.executor = executor;
+    }
+
+    public void refresh(String table, CacheEntry entry) {
+        Map<String, Object> pk = entry.primaryKey;
+        String key = table + "|" + CacheStore.hash(pk);
+        if (!inFlight.add(key)) return;
+
+        long version = entry.version;
+        try {
+            executor.execute(() -> {
+                try {
+                    store.refreshed(table, pk, version, loader.load(table, pk));
+                    refreshed.increment();
+                } catch (Exception e) {
+                    // the row just expires as usual; the next read misses
+                    failed.increment();
+                } finally {
+                    inFlight.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+        }
+    }
+
+    public long refreshedCount() {
+        return refreshed.sum();
+    }
+
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,145 @@
+package cachedb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Failed flushes parked until their backoff expires.
+ *
+ * At most one mutation per row is kept: a mutation parked for a key that
+ * already has one is merged with it (a full row image simply replaces an
+ * older one), and a successful flush of a newer mutation cancels it, so an
+ * old row image can never be replayed over a new one.
+ */
+public class RetryQueue {
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    private final DelayQueue<Parked> delayed = new DelayQueue<>();
+    private final Map<String, Parked> byKey = new ConcurrentHashMap<>();
+
+    public RetryQueue(long baseDelayMillis, long maxDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /** Parks a task for its next attempt, using exponential backoff with jitter. */
+    public void park(FlushTask task) {
+        park(task, System.currentTimeMillis() + backoffMillis(task.attempts));
+    }
+
+    private void park(FlushTask task, long dueAt) {
+        byKey.compute(task.mutation.key(), (k, old) -> {
+            FlushTask parked = task;
+            if (old != null) {
+                old.cancelled = true;
+                if (old.task.seq > task.seq) {
+                    parked = FlushTask.merge(task, old.task);
+                } else if (old.task.seq < task.seq) {
+                    parked = FlushTask.merge(old.task, task);
+                }
+            }
+            Parked p = new Parked(parked, dueAt);
+            delayed.add(p);
+            return p;
+        });
+    }
+
+    /**
+     * Removes and returns the parked mutation of a row if it is older than
+     * {@code seq}, so the caller can fold it into the newer one it is about
+     * to write.
+     */
+    public FlushTask takeOlder(String key, long seq) {
+        FlushTask[] taken = {null};
+        byKey.computeIfPresent(key, (k, old) -> {
+            if (old.task.seq >= seq) return old;
+            old.cancelled = true;
+            taken[0] = old.task;
+            return null;
+        });
+        return taken[0];
+    }
+
+    /** Next task whose backoff has expired, or null. */
+    public FlushTask pollDue() {
+        Parked p;
+        while ((p = delayed.poll()) != null) {
+            if (!p.cancelled && byKey.remove(p.task.mutation.key(), p)) {
+                return p.task;
+            }
+        }
+        return null;
+    }
+
+    /** Drops a parked mutation that is older than one just written. */
+    public void supersede(String key, long seq) {
+        byKey.computeIfPresent(key, (k, old) -> {
+            if (old.task.seq < seq) {
+                old.cancelled = true;
+                return null;
+            }
+            return old;
+        });
+    }
+
+    /** Makes every parked task due immediately, e.g. once the database is back. */
+    public void releaseAll() {
+        long now = System.currentTimeMillis();
+        for (Parked p : byKey.values()) {
+            park(p.task, now);
+        }
+    }
+
+    public long millisUntilNextDue() {
+        Parked head = delayed.peek();
+        return head == null ? Long.MAX_VALUE : Math.max(0, head.getDelay(TimeUnit.MILLISECONDS));
+    }
+
+    public boolean contains(String key) {
+        return byKey.containsKey(key);
+    }
+
+    public int size() {
+        return byKey.size();
+    }
+
+    public boolean isEmpty() {
+        return byKey.isEmpty();
+    }
+
+    // "equal jitter": half the exponential delay is fixed, half is random
+    private long backoffMillis(int attempts) {
+        long exp = baseDelayMillis << Math.min(attempts, 20);
+        long cap = Math.min(maxDelayMillis, exp);
+        long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    private static final class Parked implements Delayed {
+
+        final FlushTask task;
+        final long dueAt;
+        volatile boolean cancelled;
+
+        Parked(FlushTask task, long dueAt) {
+            this.task = task;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(dueAt, ((Parked) o).dueAt);
+        }
+    }
+}
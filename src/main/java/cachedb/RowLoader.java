@@ -0,0 +1,58 @@
+package cachedb;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads single rows from MySQL by primary key, for read-through tables.
+ */
+public class RowLoader {
+
+    private final DataSource ds;
+    private final SchemaRegistry schemaRegistry;
+
+    public RowLoader(DataSource ds, SchemaRegistry schemaRegistry) {
+        this.ds = ds;
+        this.schemaRegistry = schemaRegistry;
+    }
+
+    /** The row's non-key columns, or null if it doesn't exist. */
+    public Map<String, Object> load(String table, Map<String, Object> pk) throws SQLException {
+        TableSchema schema = schemaRegistry.get(table);
+
+        String where = schema.primaryKeys.stream()
+                .map(c -> c + " = ?")
+                .reduce((a, b) -> a + " AND " + b)
+                .orElseThrow(() -> new SQLException("Table " + table + " has no primary key"));
+
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT * FROM " + table + " WHERE " + where)) {
+
+            int idx = 1;
+            for (String col : schema.primaryKeys) {
+                Object value = pk.get(col);
+                if (value == null && schema.primaryKeys.size() == 1 && pk.size() == 1) {
+                    value = pk.values().iterator().next();
+                }
+                ps.setObject(idx++, value);
+            }
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+
+                ResultSetMetaData meta = rs.getMetaData();
+                Map<String, Object> cols = new HashMap<>();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    String name = meta.getColumnLabel(i);
+                    if (!schema.primaryKeys.contains(name)) {
+                        cols.put(name, rs.getObject(i));
+                    }
+                }
+                return cols;
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package cachedb;
 
+import java.util.HashMap;
 import java.util.Map;
 
 public class RowMutation {
@@ -7,8 +8,12 @@ public class RowMutation {
     public final String table;
     public final Map<String, Object> primaryKey;
     public final Map<String, Object> columns;
+    // column → amount to add on the MySQL side (col = col + ?)
+    public final Map<String, Long> deltas;
     public final long version;
     public final boolean isDelete;
+    // columns holds only the changed columns; flushed as an UPDATE
+    public final boolean isPatch;
 
     public RowMutation(String table,
                        Map<String, Object> pk,
@@ -17,8 +22,10 @@ public class RowMutation {
         this.table = table;
         this.primaryKey = pk;
         this.columns = columns;
+        this.deltas = Map.of();
         this.version = version;
         this.isDelete = false;
+        this.isPatch = false;
     }
 
     public RowMutation(String table,
@@ -26,10 +33,72 @@ public class RowMutation {
                        Map<String, Object> columns,
                        long version,
                        boolean isDelete) {
+        this(table, pk, columns, version, isDelete, false);
+    }
+
+    public RowMutation(String table,
+                       Map<String, Object> pk,
+                       Map<String, Object> columns,
+                       long version,
+                       boolean isDelete,
+                       boolean isPatch) {
+        this(table, pk, columns, Map.of(), version, isDelete, isPatch);
+    }
+
+    public RowMutation(String table,
+                       Map<String, Object> pk,
+                       Map<String, Object> columns,
+                       Map<String, Long> deltas,
+                       long version,
+                       boolean isDelete,
+                       boolean isPatch) {
         this.table = table;
         this.primaryKey = pk;
         this.columns = columns;
+        this.deltas = deltas;
         this.version = version;
         this.isDelete = isDelete;
+        this.isPatch = isPatch;
+    }
+
+    /**
+     * Folds an older, not yet written mutation of the same row into this one,
+     * so writing the result alone has the effect of writing both in order.
+     */
+    public RowMutation after(RowMutation older) {
+        if (isDelete) return this;
+        if (older.isDelete) {
+            // the row is re-created from what this mutation knows; counters start at zero
+            Map<String, Object> recreated = new HashMap<>(columns);
+            deltas.forEach((col, d) -> recreated.merge(col, d,
+                    (base, inc) -> CacheStore.toLong(base) + (Long) inc));
+            return new RowMutation(table, primaryKey, recreated, Map.of(), version, false, false);
+        }
+
+        // a newer full image replaces the older one's values, a patch adds to them
+        Map<String, Object> merged = new HashMap<>(isPatch ? older.columns : Map.of());
+        merged.putAll(columns);
+
+        Map<String, Long> mergedDeltas = new HashMap<>();
+        older.deltas.forEach((col, d) -> {
+            if (!columns.containsKey(col)) mergedDeltas.put(col, d);
+        });
+        deltas.forEach((col, d) -> {
+            Object base = older.columns.get(col);
+            if (base != null && !older.deltas.containsKey(col)) {
+                // older wrote an absolute value: fold the increment into it
+                merged.put(col, CacheStore.toLong(base) + d);
+            } else {
+                mergedDeltas.merge(col, d, Long::sum);
+            }
+        });
+
+        return new RowMutation(table, primaryKey, merged, mergedDeltas, version,
+                false, isPatch && older.isPatch);
+    }
+
+    /** Identity of the row this mutation targets: table plus normalized primary key. */
+    public String key() {
+        return table + "|" + CacheStore.hash(primaryKey);
     }
 }
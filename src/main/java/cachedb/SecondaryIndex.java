@@ -0,0 +1,134 @@
+package cachedb;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Column value → key hashes of the cached rows holding it, for one column of
+ * one table. Kept up to date by {@link CacheStore} inside the same compute
+ * that changes a row, so it never misses a row; callers still re-check each
+ * hit against the row itself.
+ */
+class SecondaryIndex {
+
+    // numbers (and numeric strings, as replayed from the WAL) sort before text
+    static final Comparator<Object> ORDER = (a, b) -> {
+        if (a instanceof BigDecimal x) {
+            return b instanceof BigDecimal y ? x.compareTo(y) : -1;
+        }
+        if (b instanceof BigDecimal) return 1;
+        return ((String) a).compareTo((String) b);
+    };
+
+    final String column;
+    final IndexType type;
+    private final ConcurrentMap<Object, Set<String>> postings;
+    // a value's posting set is changed, and dropped once empty, only under
+    // its stripe: ConcurrentSkipListMap.compute isn't atomic
+    private final Object[] stripes = new Object[32];
+
+    SecondaryIndex(String column, IndexType type) {
+        this.column = column;
+        this.type = type;
+        this.postings = type == IndexType.SORTED
+                ? new ConcurrentSkipListMap<>(ORDER)
+                : new ConcurrentHashMap<>();
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /** Moves {@code keyHash} from its old value to its new one; null = no row. */
+    void update(String keyHash, Map<String, Object> before, Map<String, Object> after) {
+        Object oldValue = before != null ? normalize(before.get(column)) : null;
+        Object newValue = after != null ? normalize(after.get(column)) : null;
+        if (oldValue != null && oldValue.equals(newValue)) return;
+
+        if (oldValue != null) {
+            synchronized (stripe(oldValue)) {
+                Set<String> keys = postings.get(oldValue);
+                if (keys != null && keys.remove(keyHash) && keys.isEmpty()) {
+                    postings.remove(oldValue);
+                }
+            }
+        }
+        if (newValue != null) {
+            synchronized (stripe(newValue)) {
+                Set<String> keys = postings.get(newValue);
+                if (keys == null) {
+                    keys = ConcurrentHashMap.newKeySet();
+                    postings.put(newValue, keys);
+                }
+                keys.add(keyHash);
+            }
+        }
+    }
+
+    // normalized values that are equal hash alike (BigDecimals are stripped)
+    private Object stripe(Object value) {
+        return stripes[Math.floorMod(value.hashCode(), stripes.length)];
+    }
+
+    List<String> lookup(Object value) {
+        Set<String> keys = postings.get(normalize(value));
+        return keys != null ? new ArrayList<>(keys) : List.of();
+    }
+
+    /** Rows with {@code from <= value < to}; a null bound is open. */
+    List<String> range(Object from, Object to) {
+        NavigableMap<Object, Set<String>> sorted = (NavigableMap<Object, Set<String>>) postings;
+        if (from != null && to != null) {
+            sorted = sorted.subMap(normalize(from), true, normalize(to), false);
+        } else if (from != null) {
+            sorted = sorted.tailMap(normalize(from), true);
+        } else if (to != null) {
+            sorted = sorted.headMap(normalize(to), false);
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (Set<String> bucket : sorted.values()) {
+            keys.addAll(bucket);
+        }
+        return keys;
+    }
+
+    boolean matches(Map<String, Object> columns, Object value) {
+        Object current = normalize(columns.get(column));
+        return current != null && current.equals(normalize(value));
+    }
+
+    boolean inRange(Map<String, Object> columns, Object from, Object to) {
+        Object current = normalize(columns.get(column));
+        return current != null
+                && (from == null || ORDER.compare(current, normalize(from)) >= 0)
+                && (to == null || ORDER.compare(current, normalize(to)) < 0);
+    }
+
+    // 5, 5L, "5" and 5.0 are the same key; anything else goes by its text
+    static Object normalize(Object value) {
+        if (value == null) return null;
+        String text = value.toString().trim();
+        if (value instanceof Number || looksNumeric(text)) {
+            try {
+                return new BigDecimal(text).stripTrailingZeros();
+            } catch (NumberFormatException e) {
+                // NaN, Infinity: fall through to text
+            }
+        }
+        return text;
+    }
+
+    private static boolean looksNumeric(String text) {
+        if (text.isEmpty()) return false;
+        char c = text.charAt(0);
+        return (c >= '0' && c <= '9') || ((c == '-' || c == '+' || c == '.') && text.length() > 1);
+    }
+}
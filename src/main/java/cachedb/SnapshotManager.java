@@ -0,0 +1,428 @@
+package cachedb;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time images of the resident rows, for warm restarts.
+ *
+ * A snapshot is taken relative to a WAL mark: writers hold the barrier's
+ * read side across their WAL append and store update, so once the mark is
+ * read under the write side every record before it is already in the
+ * store. The rows are copied before the write side is released, so the
+ * snapshot holds exactly the records before the mark and replaying from
+ * it applies nothing twice (increments aren't idempotent). The copy shares
+ * the column maps, and the files are written after writers resume.
+ *
+ * Layout under the snapshot directory:
+ *   MANIFEST                  id, WAL mark, list of part files
+ *   <table>.<id>.<part>.snap  up to ROWS_PER_PART rows each, CRC-checked
+ */
+public class SnapshotManager {
+
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int FORMAT = 3;
+    private static final int ROWS_PER_PART = 50_000;
+    private static final String MANIFEST = "MANIFEST";
+
+    /* ---- value tags ---- */
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_INT = 2;
+    private static final byte T_LONG = 3;
+    private static final byte T_DOUBLE = 4;
+    private static final byte T_BOOLEAN = 5;
+    private static final byte T_DECIMAL = 6;
+    private static final byte T_BYTES = 7;
+    private static final byte T_FLOAT = 8;
+
+    private final Path dir;
+    private final CacheStore store;
+    private final WALWriter wal;
+    private final int loadThreads;
+    private final StampedLock barrier = new StampedLock();
+
+    private long lastId;
+    // WAL mark of the newest snapshot on disk, or null
+    private volatile WALMark lastMark;
+
+    public SnapshotManager(Path dir, CacheStore store, WALWriter wal, int loadThreads) {
+        this.dir = dir;
+        this.store = store;
+        this.wal = wal;
+        this.loadThreads = loadThreads;
+    }
+
+    /** Held (read side) by writers across WAL append + store update. */
+    public StampedLock barrier() {
+        return barrier;
+    }
+
+    /** WAL mark of the newest snapshot written or loaded, or null. */
+    public WALMark lastMark() {
+        return lastMark;
+    }
+
+    /* ------------ WRITE ------------ */
+
+    public synchronized void snapshot() throws IOException {
+        Files.createDirectories(dir);
+
+        WALMark mark;
+        Map<String, List<CacheEntry>> tables = new LinkedHashMap<>();
+        long stamp = barrier.writeLock();
+        try {
+            mark = wal.epochMark();
+            for (Map.Entry<String, Map<String, CacheEntry>> t : store.raw().entrySet()) {
+                tables.put(t.getKey(), copy(t.getValue()));
+            }
+        } finally {
+            barrier.unlockWrite(stamp);
+        }
+        // load() checks the mark against the epoch on disk
+        wal.sync();
+
+        long id = Math.max(lastId + 1, System.currentTimeMillis());
+        lastId = id;
+
+        List<String> parts = new ArrayList<>();
+        long rows = 0;
+        for (Map.Entry<String, List<CacheEntry>> t : tables.entrySet()) {
+            rows += writeTable(t.getKey(), t.getValue(), id, parts);
+        }
+
+        writeManifest(id, mark, parts);
+        lastMark = mark;
+        deleteUnreferenced(parts);
+
+        System.out.println("[SNAPSHOT] " + rows + " rows in " + parts.size()
+                + " file(s), WAL offset " + mark.offset);
+    }
+
+    private static List<CacheEntry> copy(Map<String, CacheEntry> rows) {
+        List<CacheEntry> copies = new ArrayList<>(rows.size());
+        for (String keyHash : rows.keySet()) {
+            // inside compute: flush releases and expiry don't take the barrier
+            rows.computeIfPresent(keyHash, (k, e) -> {
+                copies.add(detach(e));
+                return e;
+            });
+        }
+        return copies;
+    }
+
+    private long writeTable(String table,
+                            List<CacheEntry> rows,
+                            long id,
+                            List<String> parts) throws IOException {
+        for (int from = 0; from < rows.size(); from += ROWS_PER_PART) {
+            List<CacheEntry> batch = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_PART));
+            parts.add(writePart(table, id, parts.size(), batch));
+        }
+        return rows.size();
+    }
+
+    private static CacheEntry detach(CacheEntry e) {
+        CacheEntry copy = new CacheEntry(e.primaryKey, e.columns, 0);
+        copy.version = e.version;
+        copy.partial = e.partial;
+        if (e.isFlushPending()) {
+            // a row mid-flush may not have reached MySQL: restore it as
+            // fully dirty rather than just its latest changes
+            copy.dirty = true;
+        } else {
+            copy.dirty = e.dirty;
+            if (e.dirty && e.dirtyColumns != null) {
+                copy.dirtyColumns = new HashSet<>(e.dirtyColumns);
+            }
+            if (e.dirty && e.pendingDeltas != null) {
+                copy.pendingDeltas = new HashMap<>(e.pendingDeltas);
+            }
+        }
+        return copy;
+    }
+
+    private String writePart(String table, long id, int part, List<CacheEntry> rows) throws IOException {
+        String name = table + "." + id + "." + part + ".snap";
+        Path file = dir.resolve(name);
+
+        try (FileOutputStream fos = new FileOutputStream(file.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(fos, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeUTF(table);
+            out.writeInt(rows.size());
+
+            for (CacheEntry row : rows) {
+                writeMap(out, row.primaryKey);
+                out.writeBoolean(row.columns != null); // false → tombstone
+                if (row.columns != null) writeMap(out, row.columns);
+                out.writeLong(row.version);
+                out.writeBoolean(row.dirty);
+                out.writeBoolean(row.partial);
+
+                out.writeInt(row.dirtyColumns == null ? -1 : row.dirtyColumns.size());
+                if (row.dirtyColumns != null) {
+                    for (String col : row.dirtyColumns) out.writeUTF(col);
+                }
+                out.writeInt(row.pendingDeltas == null ? -1 : row.pendingDeltas.size());
+                if (row.pendingDeltas != null) {
+                    for (Map.Entry<String, Long> d : row.pendingDeltas.entrySet()) {
+                        out.writeUTF(d.getKey());
+                        out.writeLong(d.getValue());
+                    }
+                }
+            }
+
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            out.writeLong(crc);
+            out.flush();
+            fos.getFD().sync();
+        }
+        return name;
+    }
+
+    private void writeManifest(long id, WALMark mark, List<String> parts) throws IOException {
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(id);
+            out.writeLong(mark.epoch);
+            out.writeLong(mark.offset);
+            out.writeInt(parts.size());
+            for (String part : parts) {
+                out.writeUTF(part);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, dir.resolve(MANIFEST),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteUnreferenced(List<String> parts) throws IOException {
+        Set<String> keep = new HashSet<>(parts);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.snap")) {
+            for (Path f : files) {
+                if (!keep.contains(f.getFileName().toString())) {
+                    Files.deleteIfExists(f);
+                }
+            }
+        }
+    }
+
+    /* ------------ LOAD ------------ */
+
+    /**
+     * Loads the latest snapshot into the store, one part file per thread.
+     * Returns the WAL mark to replay from, or null when there is no usable
+     * snapshot (the WAL must then be replayed from the start).
+     *
+     * A snapshot whose mark isn't in the current WAL ({@code current}) was
+     * taken before a checkpoint: its dirty rows may since have been flushed
+     * and overwritten, so none of it is loaded.
+     */
+    public WALMark load(WALMark current) {
+        Path manifest = dir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) return null;
+
+        long start = System.currentTimeMillis();
+        WALMark mark;
+        List<String> parts = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(manifest)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Unrecognized snapshot manifest");
+            }
+            lastId = in.readLong();
+            mark = new WALMark(in.readLong(), in.readLong());
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                parts.add(in.readUTF());
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: ignoring snapshot: " + e.getMessage());
+            return null;
+        }
+
+        if (mark.epoch == 0 || mark.epoch != current.epoch || mark.offset > current.offset) {
+            System.err.println("Warning: ignoring snapshot taken before the last WAL checkpoint");
+            return null;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(loadThreads, parts.size())));
+        try {
+            List<Future<Long>> loads = new ArrayList<>();
+            for (String part : parts) {
+                loads.add(pool.submit(() -> loadPart(dir.resolve(part))));
+            }
+            long rows = 0;
+            Exception failure = null;
+            for (Future<Long> f : loads) {
+                try {
+                    rows += f.get();
+                } catch (Exception e) {
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) {
+                // the whole WAL is replayed instead, and would apply its
+                // increments a second time to rows that did load
+                store.clear();
+                System.err.println("Warning: snapshot load incomplete, replaying full WAL: "
+                        + failure.getMessage());
+                return null;
+            }
+            System.out.println("[SNAPSHOT] loaded " + rows + " rows from " + parts.size()
+                    + " file(s) in " + (System.currentTimeMillis() - start) + " ms");
+            lastMark = mark;
+            return mark;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private long loadPart(Path file) throws IOException {
+        try (InputStream fis = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(
+                    new BufferedInputStream(fis, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Bad snapshot file " + file.getFileName());
+            }
+            String table = in.readUTF();
+            int count = in.readInt();
+
+            List<CacheEntry> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Map<String, Object> pk = readMap(in);
+                CacheEntry row = new CacheEntry(pk, in.readBoolean() ? readMap(in) : null, 0);
+                row.version = in.readLong();
+                row.dirty = in.readBoolean();
+                row.partial = in.readBoolean();
+
+                int n = in.readInt();
+                if (n >= 0) {
+                    row.dirtyColumns = new HashSet<>();
+                    for (int c = 0; c < n; c++) row.dirtyColumns.add(in.readUTF());
+                }
+                n = in.readInt();
+                if (n >= 0) {
+                    row.pendingDeltas = new HashMap<>();
+                    for (int c = 0; c < n; c++) row.pendingDeltas.put(in.readUTF(), in.readLong());
+                }
+                rows.add(row);
+            }
+
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Checksum mismatch in " + file.getFileName());
+            }
+
+            // only publish a part once it has been verified
+            for (CacheEntry row : rows) {
+                store.restore(table, row);
+            }
+            return count;
+        }
+    }
+
+    /* ------------ CODEC ------------ */
+
+    private static void writeMap(DataOutputStream out, Map<String, Object> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            out.writeUTF(e.getKey());
+            writeValue(out, e.getValue());
+        }
+    }
+
+    private static Map<String, Object> readMap(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        Map<String, Object> map = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            map.put(in.readUTF(), readValue(in));
+        }
+        return map;
+    }
+
+    private static void writeValue(DataOutputStream out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(T_NULL);
+        } else if (v instanceof Integer i) {
+            out.writeByte(T_INT);
+            out.writeInt(i);
+        } else if (v instanceof Long l) {
+            out.writeByte(T_LONG);
+            out.writeLong(l);
+        } else if (v instanceof Double d) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble(d);
+        } else if (v instanceof Float f) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat(f);
+        } else if (v instanceof Boolean b) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean(b);
+        } else if (v instanceof BigDecimal d) {
+            out.writeByte(T_DECIMAL);
+            writeBytes(out, d.toString().getBytes(StandardCharsets.UTF_8));
+        } else if (v instanceof byte[] b) {
+            out.writeByte(T_BYTES);
+            writeBytes(out, b);
+        } else {
+            out.writeByte(T_STRING);
+            writeBytes(out, v.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case T_NULL -> null;
+            case T_INT -> in.readInt();
+            case T_LONG -> in.readLong();
+            case T_DOUBLE -> in.readDouble();
+            case T_FLOAT -> in.readFloat();
+            case T_BOOLEAN -> in.readBoolean();
+            case T_DECIMAL -> new BigDecimal(new String(readBytes(in), StandardCharsets.UTF_8));
+            case T_BYTES -> readBytes(in);
+            case T_STRING -> new String(readBytes(in), StandardCharsets.UTF_8);
+            default -> throw new IOException("Unknown value tag " + tag);
+        };
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return b;
+    }
+}
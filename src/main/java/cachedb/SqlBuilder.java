@@ -1,6 +1,7 @@
 package cachedb;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 public class SqlBuilder {
 
@@ -13,13 +14,16 @@ public class SqlBuilder {
                 cols.add(col);
             }
         }
+        cols.addAll(m.deltas.keySet());
 
         String colList = String.join(", ", cols);
         String placeholders =
                 String.join(", ", Collections.nCopies(cols.size(), "?"));
 
-        String updates = m.columns.keySet().stream()
-                .map(c -> c + " = VALUES(" + c + ")")
+        // counters add the inserted value onto whatever the row already holds
+        String updates = Stream.concat(
+                        m.columns.keySet().stream().map(c -> c + " = VALUES(" + c + ")"),
+                        m.deltas.keySet().stream().map(c -> c + " = COALESCE(" + c + ", 0) + VALUES(" + c + ")"))
                 .reduce((a, b) -> a + ", " + b)
                 .orElse("");
 
@@ -28,6 +32,24 @@ public class SqlBuilder {
                 " ON DUPLICATE KEY UPDATE " + updates;
     }
 
+    // only the columns carried by a patch mutation
+    public static String buildUpdate(RowMutation m, TableSchema schema) {
+        String sets = Stream.concat(
+                        m.columns.keySet().stream()
+                                .filter(c -> !schema.primaryKeys.contains(c))
+                                .map(c -> c + " = ?"),
+                        m.deltas.keySet().stream().map(c -> c + " = COALESCE(" + c + ", 0) + ?"))
+                .reduce((a, b) -> a + ", " + b)
+                .orElse("");
+
+        String whereClause = schema.primaryKeys.stream()
+                .map(pk -> pk + " = ?")
+                .reduce((a, b) -> a + " AND " + b)
+                .orElse("");
+
+        return "UPDATE " + m.table + " SET " + sets + " WHERE " + whereClause;
+    }
+
     public static String buildDelete(RowMutation m, TableSchema schema) {
         String whereClause = schema.primaryKeys.stream()
                 .map(pk -> pk + " = ?")
@@ -0,0 +1,225 @@
+package cachedb;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Per-table settings, registered with {@link CacheDB.Builder#table}.
+ * Anything not set falls back to the global defaults.
+ */
+public final class TableConfig {
+
+    // -1 → use the builder's global TTL
+    public final long ttlMillis;
+    // 0 → unbounded
+    public final int maxSize;
+    public final EvictionPolicy eviction;
+    public final WriteMode writeMode;
+    // null → the builder's durability
+    public final Durability durability;
+    public final boolean readThrough;
+    // -1 → dirty rows are flushed when they expire
+    public final long flushDelayMillis;
+    public final int flushBatchSize;
+    public final boolean expireAfterAccess;
+    // 0 → off; otherwise reload reads that land in this last fraction of the TTL
+    public final double refreshAheadFraction;
+    // column → secondary index kept over the cached rows
+    public final Map<String, IndexType> indexes;
+    // 0 → off; how long a key read-through found missing is remembered
+    public final long negativeTtlMillis;
+    // 0 → off; target false-positive rate of the Bloom filter of keys in MySQL
+    public final double bloomFpp;
+    // primary-key columns in scan order; empty → no ordered key index
+    public final List<String> keyColumns;
+
+    private TableConfig(Builder b) {
+        this.ttlMillis = b.ttlMillis;
+        this.maxSize = b.maxSize;
+        this.eviction = b.eviction;
+        this.writeMode = b.writeMode;
+        this.durability = b.durability;
+        this.readThrough = b.readThrough;
+        this.flushDelayMillis = b.flushDelayMillis;
+        this.flushBatchSize = b.flushBatchSize;
+        this.expireAfterAccess = b.expireAfterAccess;
+        this.refreshAheadFraction = b.refreshAheadFraction;
+        this.indexes = Collections.unmodifiableMap(new LinkedHashMap<>(b.indexes));
+        this.keyColumns = b.keyColumns;
+        this.negativeTtlMillis = b.negativeTtlMillis;
+        this.bloomFpp = b.bloomFpp;
+    }
+
+    static TableConfig defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private long ttlMillis = -1;
+        private int maxSize = 0;
+        private EvictionPolicy eviction = EvictionPolicy.LRU;
+        private WriteMode writeMode = WriteMode.WRITE_BEHIND;
+        private Durability durability = null;
+        private boolean readThrough = false;
+        private long flushDelayMillis = -1;
+        private int flushBatchSize = 1;
+        private boolean expireAfterAccess = false;
+        private double refreshAheadFraction = 0;
+        private final Map<String, IndexType> indexes = new LinkedHashMap<>();
+        private List<String> keyColumns = List.of();
+        private long negativeTtlMillis = 0;
+        private double bloomFpp = 0;
+
+        public Builder ttlSeconds(long seconds) {
+            if (seconds <= 0) {
+                throw new IllegalArgumentException("TTL must be > 0");
+            }
+            this.ttlMillis = seconds * 1000;
+            return this;
+        }
+
+        /**
+         * Caps the number of cached rows. Past the cap, clean rows are
+         * evicted by {@code policy}; dirty rows stay until they are flushed.
+         */
+        public Builder maxSize(int rows, EvictionPolicy policy) {
+            if (rows <= 0) {
+                throw new IllegalArgumentException("Max size must be > 0");
+            }
+            this.maxSize = rows;
+            this.eviction = Objects.requireNonNull(policy);
+            return this;
+        }
+
+        public Builder writeMode(WriteMode mode) {
+            this.writeMode = Objects.requireNonNull(mode);
+            return this;
+        }
+
+        /**
+         * When this table's writes are acknowledged relative to their WAL
+         * record reaching disk, e.g. {@link Durability#INTERVAL} for counters
+         * that can lose the last second.
+         */
+        public Builder durability(Durability durability) {
+            this.durability = Objects.requireNonNull(durability);
+            return this;
+        }
+
+        /** Load missing rows from MySQL on {@code get} and cache them. */
+        public Builder readThrough(boolean enabled) {
+            this.readThrough = enabled;
+            return this;
+        }
+
+        /**
+         * Write-behind: flush a dirty row this long after it was written,
+         * even if it hasn't expired yet.
+         */
+        public Builder flushDelaySeconds(long seconds) {
+            if (seconds < 0) {
+                throw new IllegalArgumentException("Flush delay must be >= 0");
+            }
+            this.flushDelayMillis = seconds * 1000;
+            return this;
+        }
+
+        /** Rows of this table written to MySQL per JDBC batch and transaction. */
+        public Builder flushBatchSize(int rows) {
+            if (rows <= 0) {
+                throw new IllegalArgumentException("Flush batch size must be > 0");
+            }
+            this.flushBatchSize = rows;
+            return this;
+        }
+
+        /**
+         * Every read pushes the row's expiry out by a full TTL, so rows stay
+         * cached for as long as they are being read. Dirty rows are still
+         * flushed one TTL after their last write.
+         */
+        public Builder expireAfterAccess(boolean enabled) {
+            this.expireAfterAccess = enabled;
+            return this;
+        }
+
+        /**
+         * Reloads a clean row from MySQL in the background when it is read
+         * within the last {@code fraction} of its TTL (e.g. 0.2 = last 20%),
+         * so hot rows are refreshed before they expire instead of missing.
+         */
+        public Builder refreshAhead(double fraction) {
+            if (fraction <= 0 || fraction >= 1) {
+                throw new IllegalArgumentException("Refresh-ahead fraction must be in (0, 1)");
+            }
+            this.refreshAheadFraction = fraction;
+            return this;
+        }
+
+        /** Keeps a hash index on {@code column} for {@link CacheDB#findBy}. */
+        public Builder index(String column) {
+            return index(column, IndexType.HASH);
+        }
+
+        /**
+         * Keeps an index on {@code column}. Only cached rows are indexed;
+         * lookups never go to MySQL.
+         */
+        public Builder index(String column, IndexType type) {
+            indexes.put(Objects.requireNonNull(column), Objects.requireNonNull(type));
+            return this;
+        }
+
+        /**
+         * Keeps the table's rows ordered by these primary-key columns, most
+         * significant first, for {@link CacheDB#scan} by a leading part of
+         * the key (e.g. {@code "order_id", "item_id"}).
+         */
+        public Builder orderedKey(String... columns) {
+            if (columns.length == 0) {
+                throw new IllegalArgumentException("Ordered key needs at least one column");
+            }
+            this.keyColumns = List.of(columns);
+            return this;
+        }
+
+        /**
+         * With read-through, remembers keys found missing in MySQL for this
+         * long, so repeated lookups of them don't query it again. Any write
+         * to the key forgets it.
+         */
+        public Builder negativeTtlMillis(long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Negative cache TTL must be > 0");
+            }
+            this.negativeTtlMillis = millis;
+            return this;
+        }
+
+        /**
+         * With read-through, keeps a Bloom filter of the keys that exist in
+         * MySQL, built at startup from the table and grown as rows are
+         * flushed. Lookups of keys it rules out skip the database; about
+         * {@code falsePositiveRate} of the missing keys still reach it.
+         */
+        public Builder bloomFilter(double falsePositiveRate) {
+            if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+                throw new IllegalArgumentException("Bloom filter false-positive rate must be in (0, 1)");
+            }
+            this.bloomFpp = falsePositiveRate;
+            return this;
+        }
+
+        public TableConfig build() {
+            return new TableConfig(this);
+        }
+    }
+}
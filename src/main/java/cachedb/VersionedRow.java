@@ -0,0 +1,24 @@
+package cachedb;
+
+import java.util.Map;
+
+/**
+ * A cached row together with the version it had when it was read. Pass the
+ * version to {@link CacheDB#compareAndSet} to write only if nobody else
+ * changed the row in between.
+ */
+public class VersionedRow {
+
+    public final Map<String, Object> columns;
+    public final long version;
+
+    public VersionedRow(Map<String, Object> columns, long version) {
+        this.columns = columns;
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "v" + version + " " + columns;
+    }
+}
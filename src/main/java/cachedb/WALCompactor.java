@@ -0,0 +1,214 @@
+package cachedb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Shrinks the sealed segments of a segmented WAL between checkpoints, so the
+ * log on disk and the replay after a crash grow with the rows that are still
+ * dirty rather than with the number of writes.
+ *
+ * A pass reads the WAL mark under the write barrier (so every record before
+ * it is already in the store), then rewrites each full segment before the
+ * mark with only the records replay still needs:
+ *
+ *   - a key's records before its last PUT or DELETE are superseded by it;
+ *   - a key whose row is clean and has no flush parked or in flight needs
+ *     none of them, since MySQL already holds their effect.
+ *
+ * PATCH and INCREMENT records after a key's last full write are all kept.
+ * Records keep their order and never move to another segment, so offsets
+ * after a rewritten segment stay valid. With snapshots on, only segments
+ * before the newest snapshot's mark are rewritten: replay starts there and
+ * offsets inside a rewritten segment change.
+ */
+class WALCompactor {
+
+    private final WALWriter wal;
+    private final CacheStore store;
+    private final FlushManager flushManager;
+    private final StampedLock barrier;
+    // null when snapshots are off
+    private final SnapshotManager snapshots;
+
+    private ScheduledExecutorService scheduler;
+
+    WALCompactor(WALWriter wal,
+                 CacheStore store,
+                 FlushManager flushManager,
+                 StampedLock barrier,
+                 SnapshotManager snapshots) {
+        if (wal.segmentBytes() == 0) {
+            throw new IllegalStateException("WAL compaction needs a preallocated WAL");
+        }
+        this.wal = wal;
+        this.store = store;
+        this.flushManager = flushManager;
+        this.barrier = barrier;
+        this.snapshots = snapshots;
+    }
+
+    synchronized void start(long intervalMillis) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wal-compaction-thread");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (Exception e) {
+                System.err.println("Warning: WAL compaction failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+        }
+        if (s == null) return;
+        s.shutdown();
+        try {
+            s.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** One pass; returns the number of segments rewritten. */
+    synchronized int compact() throws IOException {
+        long segmentBytes = wal.segmentBytes();
+
+        WALMark mark;
+        long stamp = barrier.writeLock();
+        try {
+            mark = wal.mark();
+        } finally {
+            barrier.unlockWrite(stamp);
+        }
+        if (mark.epoch == 0) return 0;
+
+        long limit = mark.offset;
+        if (snapshots != null) {
+            WALMark snapshot = snapshots.lastMark();
+            limit = snapshot != null && snapshot.epoch == mark.epoch
+                    ? Math.min(limit, snapshot.offset) : 0;
+        }
+        int sealed = (int) (limit / segmentBytes);
+        if (sealed == 0) return 0;
+        // a segment is only swapped once it is on disk
+        wal.sync();
+
+        // pass 1: index of each key's last full write
+        Map<String, Long> lastBase = new HashMap<>();
+        long index = 0;
+        try (WALReader reader = new WALReader(wal.path(), 0, segmentBytes)) {
+            for (LogRecord r : reader) {
+                if (reader.position() > mark.offset) break;
+                if (r.type() == LogType.PUT || r.type() == LogType.DELETE) {
+                    lastBase.put(WALTool.rowKey(r.key()), index);
+                }
+                index++;
+            }
+        }
+
+        // pass 2: rewrite each sealed segment that has something to drop
+        Map<String, Boolean> unflushed = new HashMap<>();
+        Segment current = new Segment(0);
+        long dropped = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        int rewritten = 0;
+        index = 0;
+
+        try (WALReader reader = new WALReader(wal.path(), 0, segmentBytes)) {
+            for (LogRecord r : reader) {
+                int n = (int) ((reader.position() - 1) / segmentBytes);
+                if (n != current.n) {
+                    if (current.rewrite(mark.epoch)) {
+                        rewritten++;
+                        dropped += current.dropped;
+                        bytesBefore += current.bytesBefore;
+                        bytesAfter += current.bytesAfter;
+                    } else if (current.stale) {
+                        return rewritten;
+                    }
+                    current = new Segment(n);
+                }
+                if (n >= sealed) break;
+
+                long i = index++;
+                current.end = reader.position();
+                // the epoch record is written anew at the head of the segment
+                if (r.type() == LogType.EPOCH) continue;
+
+                String key = WALTool.rowKey(r.key());
+                if (i < lastBase.getOrDefault(key, -1L)
+                        || !unflushed.computeIfAbsent(key, k -> unflushed(new String(r.key())))) {
+                    current.dropped++;
+                } else {
+                    current.kept.add(r);
+                }
+            }
+        }
+        if (current.n < sealed && current.rewrite(mark.epoch)) {
+            rewritten++;
+            dropped += current.dropped;
+            bytesBefore += current.bytesBefore;
+            bytesAfter += current.bytesAfter;
+        }
+
+        if (rewritten > 0) {
+            System.out.println("[WAL COMPACTED] " + rewritten + " segment(s), " + dropped
+                    + " record(s) dropped, " + bytesBefore + " -> " + bytesAfter + " bytes");
+        }
+        return rewritten;
+    }
+
+    // records of one sealed segment, and what rewriting it saved
+    private final class Segment {
+        final int n;
+        final List<LogRecord> kept = new ArrayList<>();
+        long dropped;
+        long end;
+        long bytesBefore;
+        long bytesAfter;
+        // the log was checkpointed since the pass started
+        boolean stale;
+
+        Segment(int n) {
+            this.n = n;
+        }
+
+        boolean rewrite(long epoch) throws IOException {
+            if (dropped == 0) return false;
+            long size = wal.replaceSegment(n, epoch, kept);
+            if (size < 0) {
+                stale = true;
+                return false;
+            }
+            bytesBefore = end - n * wal.segmentBytes();
+            bytesAfter = size;
+            return true;
+        }
+    }
+
+    // key format: table|{pk}
+    private boolean unflushed(String key) {
+        String[] parts = key.split("\\|", 2);
+        Map<String, Object> pk = SimpleCodec.parseMap(parts[1]);
+        // store first: a row is unpinned only once its flush is done or dropped
+        return store.hasUnflushed(parts[0], pk)
+                || flushManager.hasPending(parts[0] + "|" + CacheStore.hash(pk));
+    }
+}
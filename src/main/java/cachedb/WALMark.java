@@ -0,0 +1,17 @@
+package cachedb;
+
+/**
+ * A point in the WAL: the generation (epoch) and the byte offset within it.
+ * An epoch of 0 means the generation is unknown, e.g. an empty log or one
+ * written before epochs existed.
+ */
+public final class WALMark {
+
+    public final long epoch;
+    public final long offset;
+
+    public WALMark(long epoch, long offset) {
+        this.epoch = epoch;
+        this.offset = offset;
+    }
+}
@@ -6,18 +6,51 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class WALReader implements Iterable<LogRecord>, Closeable {
 
-    private final FileChannel channel;
+    private final Path walPath;
+    private final long startPosition;
+    // 0 → one growing file; otherwise preallocated segments of this size
+    private final long segmentBytes;
+    // by segment number; null where the file doesn't exist
+    private final List<FileChannel> channels = new ArrayList<>();
+
+    // magic of records written to preallocated segments by this log's epoch
+    private int saltedMagic;
+    private long end;
 
     public WALReader(Path walPath) throws IOException {
-        if (!walPath.toFile().exists()) {
-            this.channel = null;
-        } else {
-            this.channel = FileChannel.open(walPath, StandardOpenOption.READ);
+        this(walPath, 0);
+    }
+
+    /** Reads records starting at a known record boundary. */
+    public WALReader(Path walPath, long startPosition) throws IOException {
+        this(walPath, startPosition, 0);
+    }
+
+    /**
+     * Reads a log of preallocated segments (see {@link WALWriter}). Positions
+     * are logical: segment number * segment size + offset in the segment.
+     */
+    public WALReader(Path walPath, long startPosition, long segmentBytes) throws IOException {
+        this.walPath = walPath;
+        this.startPosition = startPosition;
+        this.segmentBytes = segmentBytes;
+        this.end = startPosition;
+
+        // records after the first carry a magic derived from its epoch
+        FileChannel first = channel(0);
+        if (first != null) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            LogRecord r = read(first, 0, header);
+            if (r != null && r.type() == LogType.EPOCH) {
+                saltedMagic = LogRecord.saltedMagic(r.epochValue());
+            }
         }
     }
 
@@ -25,8 +58,9 @@ public class WALReader implements Iterable<LogRecord>, Closeable {
     public Iterator<LogRecord> iterator() {
         return new Iterator<>() {
 
-            private long position = 0;
+            private long position = startPosition;
             private LogRecord next;
+            private final ByteBuffer header = ByteBuffer.allocate(8);
 
             @Override
             public boolean hasNext() {
@@ -45,43 +79,86 @@ public class WALReader implements Iterable<LogRecord>, Closeable {
 
             private LogRecord readNext() {
                 try {
-                    if (channel == null || position >= channel.size()) {
-                        return null;
+                    while (true) {
+                        int segment = segmentBytes == 0 ? 0 : (int) (position / segmentBytes);
+                        long offset = segmentBytes == 0 ? position : position % segmentBytes;
+                        FileChannel channel = channel(segment);
+                        if (channel == null) return null;
+
+                        LogRecord r = read(channel, offset, header);
+                        if (r != null) {
+                            position += header.getInt(4);
+                            end = position;
+                            return r;
+                        }
+                        // corruption or end of log → stop; but in a segmented
+                        // log the tail of a segment may be padding
+                        if (segmentBytes == 0 || offset == 0) return null;
+                        position = (segment + 1) * segmentBytes;
                     }
+                } catch (IOException e) {
+                    return null; // safe stop on any IO issue
+                }
+            }
+        };
+    }
 
-                    // Read header
-                    ByteBuffer header = ByteBuffer.allocate(8);
-                    channel.position(position);
-                    if (channel.read(header) < 8) return null;
-                    header.flip();
+    /** Position just past the last valid record, reading the rest of the log. */
+    long end() {
+        for (LogRecord ignored : this) {
+            // read to the end
+        }
+        return end;
+    }
 
-                    int magic = header.getInt();
-                    int totalLen = header.getInt();
+    /** Position just past the last record returned so far. */
+    long position() {
+        return end;
+    }
 
-                    if (magic != LogRecord.MAGIC || totalLen <= 0) {
-                        return null; // corruption → stop
-                    }
+    // the record at this offset, or null; leaves its header in {@code header}
+    private LogRecord read(FileChannel channel, long offset, ByteBuffer header) throws IOException {
+        long limit = segmentBytes == 0 ? channel.size() : Math.min(channel.size(), segmentBytes);
+        if (offset + 8 > limit) return null;
 
-                    if (position + totalLen > channel.size()) {
-                        return null; // partial record → stop
-                    }
+        header.clear();
+        if (channel.read(header, offset) < 8) return null;
 
-                    ByteBuffer recordBuf = ByteBuffer.allocate(totalLen - 8);
-                    channel.read(recordBuf);
-                    recordBuf.flip();
+        int magic = header.getInt(0);
+        int totalLen = header.getInt(4);
 
-                    position += totalLen;
-                    return LogSerializer.deserialize(recordBuf);
+        if ((magic != LogRecord.MAGIC && (saltedMagic == 0 || magic != saltedMagic))
+                || totalLen <= 8) {
+            return null; // corruption, or a stale record of an earlier epoch
+        }
+        if (offset + totalLen > limit) {
+            return null; // partial record
+        }
 
-                } catch (IOException e) {
-                    return null; // safe stop on any IO issue
-                }
-            }
-        };
+        ByteBuffer recordBuf = ByteBuffer.allocate(totalLen - 8);
+        channel.read(recordBuf, offset + 8);
+        recordBuf.flip();
+        try {
+            return LogSerializer.deserialize(recordBuf);
+        } catch (RuntimeException e) {
+            return null; // garbage that happened to start with the magic
+        }
+    }
+
+    private FileChannel channel(int segment) throws IOException {
+        while (channels.size() <= segment) {
+            Path path = WALWriter.segmentPath(walPath, channels.size());
+            channels.add(path.toFile().exists()
+                    ? FileChannel.open(path, StandardOpenOption.READ)
+                    : null);
+        }
+        return channels.get(segment);
     }
 
     @Override
     public void close() throws IOException {
-        if (channel != null) channel.close();
+        for (FileChannel channel : channels) {
+            if (channel != null) channel.close();
+        }
     }
 }
@@ -0,0 +1,277 @@
+package cachedb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Offline inspection and compaction of a WAL. Run it while CacheDB is stopped.
+ *
+ * Usage:
+ *   WALTool stats   [wal]       [--segment-bytes N]
+ *   WALTool compact <wal> <out> [--segment-bytes N] [--compress-above N]
+ *
+ * {@code stats} streams the log and reports record counts and bytes per type
+ * and per table, distinct keys, and where the log is unreadable. Recovery
+ * stops at the first unreadable byte, so records found past it are counted
+ * separately: they are never replayed.
+ *
+ * {@code compact} writes a new log holding, per key, only the records from
+ * its last PUT or DELETE on. PATCH and INCREMENT records apply on top of the
+ * row before them, so those after the last full write are all kept; the ones
+ * before it are dropped along with the superseded PUTs.
+ */
+public class WALTool {
+
+    private static final Path DEFAULT_WAL = Path.of("logs/wal.log");
+    private static final int SCAN_CHUNK = 1 << 20;
+
+    public static void main(String[] args) throws IOException {
+        List<String> positional = new ArrayList<>();
+        long segmentBytes = 0;
+        int compressAbove = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--segment-bytes" -> segmentBytes = Long.parseLong(args[++i]);
+                case "--compress-above" -> compressAbove = Integer.parseInt(args[++i]);
+                default -> positional.add(args[i]);
+            }
+        }
+
+        String command = positional.isEmpty() ? "stats" : positional.get(0);
+        if (command.equals("stats")) {
+            Path wal = positional.size() > 1 ? Path.of(positional.get(1)) : DEFAULT_WAL;
+            print(wal, inspect(wal, segmentBytes));
+        } else if (command.equals("compact") && positional.size() == 3) {
+            Path wal = Path.of(positional.get(1));
+            Path out = Path.of(positional.get(2));
+            if (Files.exists(out)) {
+                System.err.println("Output " + out + " already exists");
+                System.exit(1);
+            }
+            Compaction result = compact(wal, out, segmentBytes, compressAbove);
+            System.out.println("Kept " + result.kept + " of " + result.read + " records ("
+                    + result.bytesBefore + " -> " + result.bytesAfter + " bytes) in " + out);
+            System.out.println("Replace " + wal + " with it while CacheDB is stopped, and remove"
+                    + " logs/snapshot: a snapshot doesn't line up with the rewritten log.");
+        } else {
+            System.err.println("Usage: WALTool stats [wal] [--segment-bytes N]");
+            System.err.println("       WALTool compact <wal> <out> [--segment-bytes N] [--compress-above N]");
+            System.exit(2);
+        }
+    }
+
+    /** What {@link #inspect} found in a log. */
+    public static class Stats {
+        public long epoch;
+        public long records;
+        public long bytes;
+        // end of what recovery replays
+        public long readableEnd;
+        // file size; for a segmented log the end of its last segment
+        public long fileBytes;
+        public final Set<String> keys = new HashSet<>();
+        public final Map<LogType, long[]> byType = new EnumMap<>(LogType.class);
+        public final Map<String, TableStats> byTable = new TreeMap<>();
+        // unreadable [from, to) ranges; only located in a single-file log
+        public final List<long[]> corruption = new ArrayList<>();
+        // readable records past the first unreadable range
+        public long recordsPastCorruption;
+    }
+
+    public static class TableStats {
+        public long records;
+        public long bytes;
+        public final Set<String> keys = new HashSet<>();
+    }
+
+    /** Counts of a {@link #compact} run. */
+    public static class Compaction {
+        public long read;
+        public long kept;
+        public long bytesBefore;
+        public long bytesAfter;
+    }
+
+    public static Stats inspect(Path wal, long segmentBytes) throws IOException {
+        Stats stats = new Stats();
+        stats.fileBytes = fileBytes(wal, segmentBytes);
+
+        long position = 0;
+        boolean corrupted = false;
+        while (true) {
+            try (WALReader reader = new WALReader(wal, position, segmentBytes)) {
+                long before = position;
+                for (LogRecord r : reader) {
+                    long size = reader.position() - before;
+                    before = reader.position();
+                    if (corrupted) {
+                        stats.recordsPastCorruption++;
+                    } else {
+                        count(stats, r, size);
+                    }
+                }
+                position = reader.position();
+            }
+            if (!corrupted) {
+                stats.readableEnd = position;
+            }
+            // a segmented log ends in padding and stale records, not corruption
+            if (segmentBytes > 0 || position >= stats.fileBytes) break;
+
+            long next = nextRecord(wal, position + 1, stats.fileBytes);
+            stats.corruption.add(new long[]{position, next < 0 ? stats.fileBytes : next});
+            if (next < 0) break;
+            corrupted = true;
+            position = next;
+        }
+        return stats;
+    }
+
+    private static void count(Stats stats, LogRecord r, long size) {
+        stats.records++;
+        stats.bytes += size;
+        long[] type = stats.byType.computeIfAbsent(r.type(), t -> new long[2]);
+        type[0]++;
+        type[1] += size;
+
+        if (r.type() == LogType.EPOCH) {
+            stats.epoch = r.epochValue();
+            return;
+        }
+        String key = rowKey(r.key());
+        stats.keys.add(key);
+        TableStats table = stats.byTable.computeIfAbsent(key.split("\\|", 2)[0], t -> new TableStats());
+        table.records++;
+        table.bytes += size;
+        table.keys.add(key);
+    }
+
+    /**
+     * The row a record is for, as replay identifies it: the logged
+     * {@code table|{pk}} parsed and hashed like the store does, so the same
+     * key logged with its columns in another order is still one row.
+     */
+    static String rowKey(byte[] walKey) {
+        String[] parts = new String(walKey).split("\\|", 2);
+        return parts[0] + "|" + CacheStore.hash(SimpleCodec.parseMap(parts[1]));
+    }
+
+    // offset of the next readable record at or after {@code from}, or -1
+    private static long nextRecord(Path wal, long from, long size) throws IOException {
+        byte[] magic = ByteBuffer.allocate(4).putInt(LogRecord.MAGIC).array();
+        ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK);
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.READ)) {
+            for (long base = from; base < size; base += SCAN_CHUNK - 3) {
+                chunk.clear();
+                channel.read(chunk, base);
+                for (int i = 0; i + 4 <= chunk.position(); i++) {
+                    if (chunk.get(i) == magic[0] && chunk.get(i + 1) == magic[1]
+                            && chunk.get(i + 2) == magic[2] && chunk.get(i + 3) == magic[3]
+                            && readable(wal, base + i)) {
+                        return base + i;
+                    }
+                }
+                if (chunk.position() < 4) break;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean readable(Path wal, long offset) throws IOException {
+        try (WALReader reader = new WALReader(wal, offset)) {
+            return reader.iterator().hasNext();
+        }
+    }
+
+    private static long fileBytes(Path wal, long segmentBytes) throws IOException {
+        if (segmentBytes == 0) {
+            return Files.exists(wal) ? Files.size(wal) : 0;
+        }
+        int n = 0;
+        while (Files.exists(WALWriter.segmentPath(wal, n))) n++;
+        return n * segmentBytes;
+    }
+
+    /**
+     * Writes the records of {@code wal} that replay still needs into a new
+     * log at {@code out}, with the same segment size. Like recovery, reading
+     * stops at the first unreadable record.
+     */
+    public static Compaction compact(Path wal, Path out, long segmentBytes, int compressAbove)
+            throws IOException {
+        // pass 1: index of each key's last full write
+        Map<String, Long> lastBase = new HashMap<>();
+        long index = 0;
+        try (WALReader reader = new WALReader(wal, 0, segmentBytes)) {
+            for (LogRecord r : reader) {
+                if (r.type() == LogType.PUT || r.type() == LogType.DELETE) {
+                    lastBase.put(rowKey(r.key()), index);
+                }
+                index++;
+            }
+        }
+
+        // pass 2: keep every record from there on, in log order
+        Compaction result = new Compaction();
+        try (WALReader reader = new WALReader(wal, 0, segmentBytes);
+             WALWriter writer = new WALWriter(out, segmentBytes)) {
+            writer.compressAbove(compressAbove);
+            index = 0;
+            for (LogRecord r : reader) {
+                long i = index++;
+                result.read++;
+                // the new log starts its own epoch
+                if (r.type() == LogType.EPOCH) continue;
+                if (i < lastBase.getOrDefault(rowKey(r.key()), -1L)) continue;
+
+                writer.append(r, Durability.NONE);
+                result.kept++;
+            }
+            writer.sync();
+            result.bytesBefore = reader.position();
+            result.bytesAfter = writer.mark().offset;
+        }
+        return result;
+    }
+
+    private static void print(Path wal, Stats stats) {
+        System.out.println("WAL: " + wal + " (" + stats.fileBytes + " bytes on disk)");
+        System.out.println("Epoch: " + (stats.epoch == 0 ? "none" : stats.epoch));
+        System.out.println("Records: " + stats.records + ", " + stats.bytes + " bytes, "
+                + stats.keys.size() + " distinct keys");
+
+        System.out.println("\nBy type:");
+        stats.byType.forEach((type, c) ->
+                System.out.printf("  %-10s %10d records %14d bytes%n", type, c[0], c[1]));
+
+        System.out.println("\nBy table:");
+        stats.byTable.forEach((table, t) ->
+                System.out.printf("  %-20s %10d records %10d keys %14d bytes%n",
+                        table, t.records, t.keys.size(), t.bytes));
+
+        System.out.println("\nReadable up to offset " + stats.readableEnd);
+        if (stats.corruption.isEmpty()) {
+            System.out.println("No corruption found");
+            return;
+        }
+        for (long[] range : stats.corruption) {
+            System.out.println("Warning: unreadable bytes at [" + range[0] + ", " + range[1] + ")");
+        }
+        if (stats.recordsPastCorruption > 0) {
+            System.out.println("Warning: " + stats.recordsPastCorruption
+                    + " readable records past the first unreadable offset are not replayed");
+        }
+    }
+}
@@ -4,54 +4,506 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 
 import static cachedb.LogSerializer.serialize;
 
+/**
+ * Append-only log shared by every writer thread.
+ *
+ * Appends don't serialize on a monitor: each writer encodes its record on
+ * its own thread, reserves the byte range for it with one atomic add, and
+ * writes it at that offset. Writers then publish their ranges in offset
+ * order (a writer waits only for the ones directly ahead of it to finish
+ * their write), and the first writer to need a sync forces the file for
+ * everything published so far, so concurrent appends share one fsync.
+ *
+ * How long an append waits for the disk depends on its {@link Durability}.
+ * Forcing covers every byte written before it, so a SYNC append also makes
+ * earlier INTERVAL and NONE records durable.
+ *
+ * By default the log is one file that grows with every append and is
+ * truncated on checkpoint. With a segment size it is instead a chain of
+ * zero-filled, fixed-size files ({@code wal.log}, {@code wal.log.1}, ...)
+ * that are kept and overwritten after a checkpoint, so the file size never
+ * changes and a data-only force has no metadata to write. A record never
+ * spans two segments; the rest of a segment that can't fit the next record
+ * is left as padding. Records after the epoch record carry a magic derived
+ * from the epoch, so records left over from an earlier epoch in a reused
+ * segment are never read back as current. Sealed segments may be rewritten
+ * smaller by {@link WALCompactor}; they regain their full size when reused.
+ *
+ * Truncation is the only operation that excludes appends.
+ */
 public class WALWriter implements Closeable {
 
-    private static volatile WALWriter INSTANCE;
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final int ZERO_FILL_CHUNK = 1 << 20;
+    // records above this are serialized into one-off heap buffers
+    private static final int POOLED_RECORD_BYTES = 1 << 20;
 
-    private final FileChannel channel;
+    private final Path path;
+    // 0 → one growing file
+    private final long segmentBytes;
+    // by segment number; just the one file unless segmented
+    private final List<FileChannel> segments = new CopyOnWriteArrayList<>();
+    // segments shrunk by compaction; refilled to full size when reused
+    private final Set<Integer> compacted = ConcurrentHashMap.newKeySet();
+
+    // next free offset; appends claim [reserved, reserved + len)
+    private final AtomicLong reserved = new AtomicLong();
+    // every byte below this is written (though maybe not yet synced)
+    private final AtomicLong written = new AtomicLong();
+    // every byte below this is on disk
+    private volatile long durable;
+
+    // held shared by appends, exclusively by truncate
+    private final StampedLock resetLock = new StampedLock();
+    // locks rather than monitors: held across I/O and force(), which would
+    // pin the carrier of a virtual-thread writer
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ReentrantLock epochLock = new ReentrantLock();
+    private final ReentrantLock segmentsLock = new ReentrantLock();
+    private final BufferPool buffers = new BufferPool(
+            4 * Runtime.getRuntime().availableProcessors(), POOLED_RECORD_BYTES);
+
+    // generation of the current log contents; assigned lazily so an empty
+    // (just truncated) log stays empty until the next append
+    private volatile long epoch;
+    // written into each record; salted by the epoch when segmented
+    private volatile int magic = LogRecord.MAGIC;
+    // a write failed, leaving a hole the writers after it can't publish past
+    private volatile IOException broken;
+    // values of at least this many bytes are deflated; 0 → never
+    private volatile int compressAbove;
+
+    private ScheduledExecutorService intervalSync;
 
     public WALWriter(Path path) throws IOException {
-        channel = FileChannel.open(
+        this(path, 0);
+    }
+
+    /** A log of preallocated segments of {@code segmentBytes} each; 0 = one growing file. */
+    public WALWriter(Path path, long segmentBytes) throws IOException {
+        this.path = path;
+        this.segmentBytes = segmentBytes;
+
+        long size;
+        if (segmentBytes == 0) {
+            segments.add(open(path));
+            size = segments.get(0).size();
+        } else {
+            // the files are full size; find where the records end
+            try (WALReader reader = new WALReader(path, 0, segmentBytes)) {
+                size = reader.end();
+            }
+            segment(segmentOf(size));
+        }
+        reserved.set(size);
+        written.set(size);
+        durable = size;
+        epoch = size > 0 ? readEpoch(path) : 0;
+        if (segmentBytes > 0 && epoch != 0) {
+            magic = LogRecord.saltedMagic(epoch);
+        }
+    }
+
+    /** File of segment {@code n}: the log itself, then {@code <log>.1}, {@code <log>.2}, ... */
+    public static Path segmentPath(Path path, int n) {
+        return n == 0 ? path : path.resolveSibling(path.getFileName() + "." + n);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    public long segmentBytes() {
+        return segmentBytes;
+    }
+
+    /** Deflate record values of at least {@code bytes}; 0 turns compression off. */
+    public void compressAbove(int bytes) {
+        this.compressAbove = bytes;
+    }
+
+    /** Appends the record and returns once it is on disk. */
+    public void append(LogRecord record) throws IOException {
+        append(record, Durability.GROUP);
+    }
+
+    public void append(LogRecord record, Durability durability) throws IOException {
+        ByteBuffer buffer = serialize(record, compressAbove, buffers::acquire);
+
+        long stamp = resetLock.readLock();
+        long end;
+        try {
+            if (epoch == 0) {
+                startEpoch();
+            }
+            buffer.putInt(0, magic);
+            end = write(buffer);
+        } finally {
+            resetLock.unlockRead(stamp);
+            buffers.release(buffer);
+        }
+
+        switch (durability) {
+            case SYNC -> force(true);
+            case GROUP -> awaitDurable(end, false);
+            default -> {
+                // INTERVAL: forced by the background sync; NONE: by the OS
+            }
+        }
+    }
+
+    private void startEpoch() throws IOException {
+        epochLock.lock();
+        try {
+            if (epoch != 0) return;
+            long e = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+            write(serialize(LogRecord.epoch(e)));
+            if (segmentBytes > 0) {
+                magic = LogRecord.saltedMagic(e);
+            }
+            // set after the reservation, so no record can land ahead of it
+            epoch = e;
+        } finally {
+            epochLock.unlock();
+        }
+    }
+
+    // reserve, write at the reserved offset, publish in order; returns the end
+    private long write(ByteBuffer buffer) throws IOException {
+        int len = buffer.remaining();
+        long from;
+        long start;
+        if (segmentBytes == 0) {
+            start = from = reserved.getAndAdd(len);
+        } else {
+            if (len > segmentBytes) {
+                throw new IOException("WAL record of " + len + " bytes exceeds the segment size");
+            }
+            do {
+                from = reserved.get();
+                start = from;
+                if (from / segmentBytes != (from + len - 1) / segmentBytes) {
+                    // doesn't fit: pad out this segment, start the next
+                    start = (from / segmentBytes + 1) * segmentBytes;
+                }
+            } while (!reserved.compareAndSet(from, start + len));
+        }
+
+        try {
+            FileChannel channel = segment(segmentOf(start));
+            long pos = segmentBytes == 0 ? start : start % segmentBytes;
+            while (buffer.hasRemaining()) {
+                pos += channel.write(buffer, pos);
+            }
+        } catch (IOException e) {
+            broken = e;
+            throw e;
+        }
+
+        // the writers ahead of us are mid-write; this is a short wait
+        int spins = 0;
+        while (written.get() != from) {
+            IOException failure = broken;
+            if (failure != null) {
+                throw new IOException("Earlier WAL write failed", failure);
+            }
+            if (++spins < SPINS_BEFORE_PARK) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(1_000);
+            }
+        }
+        written.set(start + len);
+        return start + len;
+    }
+
+    private int segmentOf(long offset) {
+        return segmentBytes == 0 ? 0 : (int) (offset / segmentBytes);
+    }
+
+    private FileChannel segment(int n) throws IOException {
+        if (n < segments.size() && !compacted.contains(n)) return segments.get(n);
+        segmentsLock.lock();
+        try {
+            while (segments.size() <= n) {
+                FileChannel channel = open(segmentPath(path, segments.size()));
+                if (segments.size() < n && channel.size() < segmentBytes) {
+                    // behind the one being written, so compacted in an earlier run
+                    compacted.add(segments.size());
+                } else {
+                    preallocate(channel);
+                }
+                segments.add(channel);
+            }
+            if (compacted.remove(n)) {
+                // reused after a checkpoint: back to full size
+                preallocate(segments.get(n));
+            }
+            return segments.get(n);
+        } finally {
+            segmentsLock.unlock();
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        // not APPEND: positional writes to an O_APPEND file ignore the offset
+        return FileChannel.open(
                 path,
                 StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND
+                StandardOpenOption.WRITE
         );
-        INSTANCE = this;
     }
 
-    public static WALWriter getInstance() {
-        WALWriter w = INSTANCE;
-        if (w == null) {
-            throw new IllegalStateException("WALWriter not initialized");
+    // zero-fill up to the segment size, so later writes never extend the file
+    private void preallocate(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size >= segmentBytes) return;
+
+        ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_FILL_CHUNK);
+        for (long pos = size; pos < segmentBytes; ) {
+            zeros.clear().limit((int) Math.min(ZERO_FILL_CHUNK, segmentBytes - pos));
+            pos += channel.write(zeros, pos);
         }
-        return w;
+        channel.force(true);
     }
 
-    public synchronized void append(LogRecord record) throws IOException {
-        ByteBuffer buffer = serialize(record);
-        while (buffer.hasRemaining()) {
-            channel.write(buffer);
+    // group commit: one force covers every writer published before it
+    private void awaitDurable(long end, boolean metadata) throws IOException {
+        if (durable >= end) return;
+        syncLock.lock();
+        try {
+            if (durable >= end) return;
+            force(durable, written.get(), metadata);
+        } finally {
+            syncLock.unlock();
         }
-        channel.force(true);
     }
 
-    public synchronized void sync() throws IOException {
-        channel.force(true);
+    private void force(boolean metadata) throws IOException {
+        syncLock.lock();
+        try {
+            force(durable, written.get(), metadata);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // forces every segment holding bytes in [from, to)
+    private void force(long from, long to, boolean metadata) throws IOException {
+        int last = segmentOf(Math.max(from, to - 1));
+        for (int n = segmentOf(from); n <= last; n++) {
+            // data only is enough to read the log back on Linux (fdatasync
+            // still records a new file size); metadata adds mtime etc.
+            segment(n).force(metadata);
+        }
+        durable = to;
+    }
+
+    public void sync() throws IOException {
+        awaitDurable(written.get(), true);
+    }
+
+    /** Forces whatever INTERVAL and NONE appends left unsynced, every {@code millis}. */
+    public synchronized void syncEvery(long millis) {
+        if (intervalSync != null) return;
+        intervalSync = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wal-sync-thread");
+            t.setDaemon(true);
+            return t;
+        });
+        intervalSync.scheduleWithFixedDelay(() -> {
+            try {
+                awaitDurable(written.get(), false);
+            } catch (IOException e) {
+                System.err.println("Warning: WAL interval sync failed: " + e.getMessage());
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
     }
 
-    public synchronized void truncate() throws IOException {
-        channel.truncate(0);
-        channel.position(0);
+    /** Bytes known to be on disk. */
+    long durableOffset() {
+        return durable;
+    }
+
+    /**
+     * Replaces sealed segment {@code n} of epoch {@code epoch} with a file
+     * holding just an epoch record and {@code records}, written aside and
+     * renamed over it. Returns the size of the new file, or -1 if the records
+     * don't fit or a checkpoint has started a new epoch since they were read.
+     */
+    long replaceSegment(int n, long epoch, List<LogRecord> records) throws IOException {
+        if (segmentBytes == 0) {
+            throw new IllegalStateException("Only a segmented WAL can be compacted");
+        }
+        int salted = LogRecord.saltedMagic(epoch);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        // keeps the segment from reading as the end of the log; outside the
+        // first segment it is salted like any other record, so once the log
+        // moves on it reads as stale
+        ByteBuffer first = serialize(LogRecord.epoch(epoch));
+        if (n > 0) first.putInt(0, salted);
+        buffers.add(first);
+        long bytes = first.remaining();
+        for (LogRecord r : records) {
+            ByteBuffer buffer = serialize(r, compressAbove);
+            buffer.putInt(0, salted);
+            buffers.add(buffer);
+            bytes += buffer.remaining();
+        }
+        if (bytes > segmentBytes) return -1;
+
+        Path target = segmentPath(path, n);
+        Path tmp = target.resolveSibling(target.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) out.write(buffer);
+            }
+            out.force(true);
+        }
+
+        long stamp = resetLock.readLock();
+        try {
+            syncLock.lock();
+            try {
+                if (epoch != this.epoch || durable < (n + 1) * segmentBytes) {
+                    Files.deleteIfExists(tmp);
+                    return -1;
+                }
+                Files.move(tmp, target,
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                compacted.add(n);
+                segments.set(n, open(target)).close();
+            } finally {
+                syncLock.unlock();
+            }
+        } finally {
+            resetLock.unlockRead(stamp);
+        }
+
+        // make the rename itself durable
+        try (FileChannel dir = FileChannel.open(target.toAbsolutePath().getParent(),
+                StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // not supported on every platform; the rename still happened
+        }
+        return bytes;
+    }
+
+    public void truncate() throws IOException {
+        long stamp = resetLock.writeLock();
+        try {
+            reset();
+        } finally {
+            resetLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Truncates the log only if it still ends at {@code upTo}, i.e. nothing
+     * was appended since that mark was taken. Returns whether it did.
+     */
+    public boolean truncate(WALMark upTo) throws IOException {
+        long stamp = resetLock.writeLock();
+        try {
+            if (epoch != upTo.epoch || reserved.get() != upTo.offset) return false;
+            reset();
+            return true;
+        } finally {
+            resetLock.unlockWrite(stamp);
+        }
+    }
+
+    // under the reset lock, held exclusively
+    private void reset() throws IOException {
+        syncLock.lock();
+        try {
+            FileChannel first = segments.get(0);
+            if (segmentBytes == 0) {
+                first.truncate(0);
+            } else {
+                // segments are kept for reuse; clearing the first header
+                // is enough to end the log before any of the old records
+                first.write(ByteBuffer.allocate(8), 0);
+                first.force(false);
+            }
+            reserved.set(0);
+            written.set(0);
+            durable = 0;
+            epoch = 0;
+            magic = LogRecord.MAGIC;
+            broken = null;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /** Current end of the log; everything appended later lies at or after it. */
+    public WALMark mark() {
+        long stamp = resetLock.readLock();
+        try {
+            return new WALMark(epoch, reserved.get());
+        } finally {
+            resetLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Like {@link #mark}, but starts an epoch first if the log is empty, so
+     * the mark never has epoch 0 and can't be mistaken for a later log.
+     */
+    WALMark epochMark() throws IOException {
+        long stamp = resetLock.readLock();
+        try {
+            if (epoch == 0) {
+                startEpoch();
+            }
+            return new WALMark(epoch, reserved.get());
+        } finally {
+            resetLock.unlockRead(stamp);
+        }
+    }
+
+    /** Epoch of an existing log, or 0 if it doesn't start with an epoch record. */
+    public static long readEpoch(Path path) throws IOException {
+        try (WALReader reader = new WALReader(path)) {
+            for (LogRecord r : reader) {
+                return r.type() == LogType.EPOCH ? r.epochValue() : 0;
+            }
+        }
+        return 0;
     }
 
     @Override
     public void close() throws IOException {
-        channel.close();
+        synchronized (this) {
+            if (intervalSync != null) intervalSync.shutdownNow();
+        }
+        for (FileChannel channel : segments) {
+            channel.close();
+        }
     }
 }
@@ -0,0 +1,90 @@
+package cachedb;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates CacheDB's worker threads, either as platform threads or as
+ * virtual threads.
+ *
+ * The project still compiles for Java 17, so the Java 21 API is looked up
+ * reflectively; asking for virtual threads on an older runtime fails fast.
+ * Build and run with {@code -Pjdk21} to use them.
+ */
+public final class WorkerThreads {
+
+    private static final Method OF_VIRTUAL;     // Thread.ofVirtual()
+    private static final Method BUILDER_NAME;   // Thread.Builder.name(String, long)
+    private static final Method BUILDER_FACTORY; // Thread.Builder.factory()
+    private static final Method PER_TASK;       // Executors.newThreadPerTaskExecutor(ThreadFactory)
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTask = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            // pre-21 runtime: platform threads only
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        PER_TASK = perTask;
+    }
+
+    private WorkerThreads() {}
+
+    public static boolean virtualThreadsAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /** Threads named {@code prefix-0}, {@code prefix-1}, ... */
+    public static ThreadFactory factory(String prefix, boolean virtual) {
+        if (!virtual) {
+            AtomicLong counter = new AtomicLong();
+            return r -> new Thread(r, prefix + "-" + counter.getAndIncrement());
+        }
+
+        requireVirtual();
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, prefix + "-", 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not usable on this runtime", e);
+        }
+    }
+
+    /**
+     * One new virtual thread per task when {@code virtual}, otherwise a fixed
+     * pool of {@code platformThreads}.
+     */
+    public static ExecutorService executor(String prefix, boolean virtual, int platformThreads) {
+        ThreadFactory threads = factory(prefix, virtual);
+        if (!virtual) {
+            return Executors.newFixedThreadPool(platformThreads, threads);
+        }
+        try {
+            return (ExecutorService) PER_TASK.invoke(null, threads);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not usable on this runtime", e);
+        }
+    }
+
+    private static void requireVirtual() {
+        if (!virtualThreadsAvailable()) {
+            throw new IllegalStateException(
+                    "Virtual threads require Java 21+ (running on "
+                            + System.getProperty("java.version") + ")");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package cachedb;
+
+/**
+ * How writes to a table reach MySQL.
+ */
+public enum WriteMode {
+
+    /** Log to the WAL, cache the row and flush it asynchronously (the default). */
+    WRITE_BEHIND,
+
+    /** Write MySQL first, then cache the row clean; {@code set} fails if MySQL does. */
+    WRITE_THROUGH,
+
+    /** {@code set} and {@code delete} are rejected; rows come from preload or read-through. */
+    READ_ONLY
+}
@@ -0,0 +1,59 @@
+package cachedb.benchmark;
+
+import cachedb.CacheDB;
+import cachedb.SimpleDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Write-behind flush throughput: how fast a backlog of expired rows reaches
+ * MySQL for a given number of flush workers on platform or virtual threads.
+ *
+ * Usage: FlushThroughputBenchmark [rows] [workers] [virtual]
+ *   e.g. 20000 8 false   vs.   20000 256 true   (virtual needs Java 21+)
+ */
+public class FlushThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        boolean virtual = args.length > 2 && Boolean.parseBoolean(args[2]);
+
+        DataSource ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(1)
+                .dashboard(false)
+                .flushQueueCapacity(rows)
+                .flushWorkers(workers)
+                .virtualThreads(virtual)
+                .build();
+
+        for (int i = 0; i < rows; i++) {
+            cache.set(
+                    "users",
+                    Map.of("id", i),
+                    Map.of("name", "User-" + i)
+            );
+        }
+
+        // the whole backlog expires together after the TTL
+        long start = System.currentTimeMillis();
+        while (cache.flushedCount() < rows) {
+            Thread.sleep(10);
+        }
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+
+        System.out.println("Rows: " + rows);
+        System.out.println("Flush workers: " + workers + (virtual ? " (virtual)" : " (platform)"));
+        System.out.println("Time incl. TTL wait (s): " + seconds);
+        System.out.println("Flush throughput (rows/sec): " + rows / seconds);
+        System.exit(0);
+    }
+}
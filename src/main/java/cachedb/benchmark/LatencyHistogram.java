@@ -0,0 +1,95 @@
+package cachedb.benchmark;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram (~1.5% precision) with a fixed footprint.
+ * Each worker owns one instance; the reporter reads it concurrently.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;  // 64
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;      // 128
+    private static final int MAX_SHIFT = 34;                      // ~18 min in ns
+    private static final int BUCKETS = LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long valueNanos) {
+        counts.incrementAndGet(indexOf(Math.max(0, valueNanos)));
+    }
+
+    /** Copies the current counts so percentiles can be computed on a stable view. */
+    public long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public static long[] newCounts() {
+        return new long[BUCKETS];
+    }
+
+    public static void add(long[] into, long[] from) {
+        for (int i = 0; i < BUCKETS; i++) {
+            into[i] += from[i];
+        }
+    }
+
+    public static void subtract(long[] into, long[] from) {
+        for (int i = 0; i < BUCKETS; i++) {
+            into[i] -= from[i];
+        }
+    }
+
+    public static long total(long[] counts) {
+        long n = 0;
+        for (long c : counts) n += c;
+        return n;
+    }
+
+    /** Value at the given percentile (0-100), in nanoseconds. */
+    public static long percentile(long[] counts, double percentile) {
+        long total = total(counts);
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        if (rank < 1) rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return valueOf(i);
+        }
+        return valueOf(BUCKETS - 1);
+    }
+
+    public static long max(long[] counts) {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts[i] != 0) return valueOf(i);
+        }
+        return 0;
+    }
+
+    private static int indexOf(long v) {
+        if (v < LINEAR_LIMIT) return (int) v;
+
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) return BUCKETS - 1;
+
+        int sub = (int) (v >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    // upper bound of the bucket, so reported percentiles never under-state
+    private static long valueOf(int idx) {
+        if (idx < LINEAR_LIMIT) return idx;
+
+        int shift = (idx - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long sub = (idx - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
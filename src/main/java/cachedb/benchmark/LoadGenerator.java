@@ -0,0 +1,274 @@
+package cachedb.benchmark;
+
+import cachedb.WorkerThreads;
+
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Multi-threaded latency-under-load benchmark.
+ *
+ * Arguments are key=value pairs, e.g.
+ *   threads=16 duration=60 rate=50000 reads=0.8 writes=0.18 deletes=0.02
+ *   (the shares must add up to 1; without deletes= it is the remainder)
+ *   keys=100000 distribution=zipfian theta=0.99 tables=users,orders
+ *   virtual=true   (one virtual thread per worker; Java 21+)
+ *
+ * With rate > 0 every worker follows a fixed schedule and latency is measured
+ * from the intended start time, so a stalled request is charged for the
+ * requests queued behind it (coordinated-omission correction). With rate=0
+ * workers run closed-loop and latency is plain service time. Throughput is
+ * the operations recorded over the time measured until every worker stopped.
+ */
+public class LoadGenerator extends CacheDBBenchmarkBase {
+
+    private static final int READ = 0;
+    private static final int WRITE = 1;
+    private static final int DELETE = 2;
+    private static final String[] OP_NAMES = {"get", "set", "delete"};
+
+    private int threads = 8;
+    private boolean virtual = false;
+    private int durationSeconds = 30;
+    private long rate = 0;
+    private double reads = 0.80;
+    private double writes = 0.18;
+    // null → whatever reads and writes leave over
+    private Double deletes;
+    private long keys = 100_000;
+    private String distribution = "zipfian";
+    private double theta = 0.99;
+    private String[] tables = {"users"};
+    private int valueBytes = 64;
+    private int ttlSeconds = 60;
+    private boolean preload = true;
+    private String out = "load_latency.csv";
+
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator gen = new LoadGenerator();
+        gen.parse(args);
+        gen.setup(gen.ttlSeconds);
+        gen.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            }
+            String v = kv[1];
+            switch (kv[0]) {
+                case "threads" -> threads = Integer.parseInt(v);
+                case "virtual" -> virtual = Boolean.parseBoolean(v);
+                case "duration" -> durationSeconds = Integer.parseInt(v);
+                case "rate" -> rate = Long.parseLong(v);
+                case "reads" -> reads = Double.parseDouble(v);
+                case "writes" -> writes = Double.parseDouble(v);
+                case "deletes" -> deletes = Double.parseDouble(v);
+                case "keys" -> keys = Long.parseLong(v);
+                case "distribution" -> distribution = v;
+                case "theta" -> theta = Double.parseDouble(v);
+                case "tables" -> tables = v.split(",");
+                case "valueBytes" -> valueBytes = Integer.parseInt(v);
+                case "ttl" -> ttlSeconds = Integer.parseInt(v);
+                case "preload" -> preload = Boolean.parseBoolean(v);
+                case "out" -> out = v;
+                default -> throw new IllegalArgumentException("Unknown option: " + kv[0]);
+            }
+        }
+        if (reads < 0 || writes < 0 || (deletes != null && deletes < 0)) {
+            throw new IllegalArgumentException("reads, writes and deletes must be >= 0");
+        }
+        if (deletes == null) {
+            if (reads + writes > 1.0) {
+                throw new IllegalArgumentException("reads + writes must be <= 1");
+            }
+            deletes = 1.0 - reads - writes;
+        } else if (Math.abs(reads + writes + deletes - 1.0) > 1e-9) {
+            throw new IllegalArgumentException("reads + writes + deletes must add up to 1, got "
+                    + (reads + writes + deletes));
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be > 0");
+        }
+        // rate=0 is the documented closed loop; a rate whose per-worker
+        // interval rounds to 0 ns would silently run unthrottled too
+        if (rate < 0 || (rate > 0 && intervalNanos() == 0)) {
+            throw new IllegalArgumentException("rate must be 0 (unthrottled) or 1.."
+                    + threads * 1_000_000_000L + " ops/s for " + threads + " threads, got " + rate);
+        }
+    }
+
+    private long intervalNanos() {
+        return rate > 0 ? (threads * 1_000_000_000L) / rate : 0;
+    }
+
+    private void run() throws Exception {
+        LongSupplier keyChooser = keyChooser();
+        String payload = "x".repeat(valueBytes);
+
+        if (preload) {
+            for (String table : tables) {
+                for (long k = 0; k < keys; k++) {
+                    cache.set(table, Map.of("id", k), Map.of("name", payload));
+                }
+            }
+            System.out.println("Preloaded " + keys + " keys into " + tables.length + " table(s)");
+        }
+
+        // [thread][op]
+        LatencyHistogram[][] histograms = new LatencyHistogram[threads][3];
+        List<Thread> workers = new ArrayList<>();
+        ThreadFactory threadFactory = WorkerThreads.factory("load", virtual);
+
+        long startNanos = System.nanoTime() + 100_000_000L;
+        for (int t = 0; t < threads; t++) {
+            LatencyHistogram[] mine = histograms[t];
+            for (int op = 0; op < 3; op++) {
+                mine[op] = new LatencyHistogram();
+            }
+            Thread worker = threadFactory.newThread(
+                    () -> work(mine, keyChooser, payload, startNanos));
+            workers.add(worker);
+            worker.start();
+        }
+
+        report(histograms, startNanos);
+
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        summary(histograms, elapsedNanos);
+    }
+
+    private LongSupplier keyChooser() {
+        if ("uniform".equals(distribution)) {
+            return () -> ThreadLocalRandom.current().nextLong(keys);
+        }
+        if ("zipfian".equals(distribution)) {
+            ZipfianGenerator zipf = new ZipfianGenerator(keys, theta);
+            return zipf::next;
+        }
+        throw new IllegalArgumentException("Unknown distribution: " + distribution);
+    }
+
+    private void work(LatencyHistogram[] histograms,
+                      LongSupplier keyChooser,
+                      String payload,
+                      long startNanos) {
+
+        long intervalNanos = intervalNanos();
+        long intended = startNanos;
+
+        LockSupport.parkNanos(startNanos - System.nanoTime());
+
+        while (running) {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            String table = tables[rnd.nextInt(tables.length)];
+            Map<String, Object> pk = Map.of("id", keyChooser.getAsLong());
+
+            double dice = rnd.nextDouble();
+            int op = dice < reads ? READ : dice < reads + writes ? WRITE : DELETE;
+
+            long begin;
+            if (intervalNanos > 0) {
+                long now = System.nanoTime();
+                if (now < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                begin = intended;
+                intended += intervalNanos;
+            } else {
+                begin = System.nanoTime();
+            }
+
+            switch (op) {
+                case READ -> cache.get(table, pk);
+                case WRITE -> cache.set(table, pk, Map.of("name", payload));
+                default -> cache.delete(table, pk);
+            }
+
+            histograms[op].record(System.nanoTime() - begin);
+        }
+    }
+
+    private void report(LatencyHistogram[][] histograms, long startNanos) throws Exception {
+        long[] previous = LatencyHistogram.newCounts();
+
+        try (FileWriter csv = new FileWriter(out)) {
+            csv.write("second,ops,p50_us,p99_us,p999_us,max_us\n");
+
+            for (int second = 1; second <= durationSeconds; second++) {
+                LockSupport.parkNanos(startNanos + second * 1_000_000_000L - System.nanoTime());
+
+                long[] cumulative = LatencyHistogram.newCounts();
+                for (LatencyHistogram[] perThread : histograms) {
+                    for (LatencyHistogram h : perThread) {
+                        LatencyHistogram.add(cumulative, h.snapshot());
+                    }
+                }
+
+                long[] interval = cumulative.clone();
+                LatencyHistogram.subtract(interval, previous);
+                previous = cumulative;
+
+                long ops = LatencyHistogram.total(interval);
+                long p50 = LatencyHistogram.percentile(interval, 50) / 1000;
+                long p99 = LatencyHistogram.percentile(interval, 99) / 1000;
+                long p999 = LatencyHistogram.percentile(interval, 99.9) / 1000;
+                long max = LatencyHistogram.max(interval) / 1000;
+
+                System.out.printf("[%3ds] ops/s=%d p50=%dus p99=%dus p99.9=%dus max=%dus%n",
+                        second, ops, p50, p99, p999, max);
+                csv.write(second + "," + ops + "," + p50 + "," + p99 + "," + p999 + "," + max + "\n");
+            }
+        }
+    }
+
+    private void summary(LatencyHistogram[][] histograms, long elapsedNanos) {
+        Map<String, long[]> perOp = new HashMap<>();
+        long[] all = LatencyHistogram.newCounts();
+
+        for (int op = 0; op < 3; op++) {
+            long[] counts = LatencyHistogram.newCounts();
+            for (LatencyHistogram[] perThread : histograms) {
+                LatencyHistogram.add(counts, perThread[op].snapshot());
+            }
+            perOp.put(OP_NAMES[op], counts);
+            LatencyHistogram.add(all, counts);
+        }
+
+        System.out.println("\n=== Load summary ===");
+        System.out.printf("Mix: reads=%.3f writes=%.3f deletes=%.3f%n", reads, writes, deletes);
+        System.out.println("Threads: " + threads + (virtual ? " (virtual)" : "") + ", distribution: " + distribution
+                + ", keys: " + keys + ", target rate: " + (rate > 0 ? rate + " ops/s" : "unthrottled"));
+        System.out.printf("Throughput (ops/sec): %.0f over %.1f s%n",
+                LatencyHistogram.total(all) / (elapsedNanos / 1e9), elapsedNanos / 1e9);
+
+        perOp.put("all", all);
+        for (String name : new String[]{"get", "set", "delete", "all"}) {
+            long[] c = perOp.get(name);
+            System.out.printf("%-7s n=%d p50=%dus p99=%dus p99.9=%dus max=%dus%n",
+                    name,
+                    LatencyHistogram.total(c),
+                    LatencyHistogram.percentile(c, 50) / 1000,
+                    LatencyHistogram.percentile(c, 99) / 1000,
+                    LatencyHistogram.percentile(c, 99.9) / 1000,
+                    LatencyHistogram.max(c) / 1000);
+        }
+    }
+}
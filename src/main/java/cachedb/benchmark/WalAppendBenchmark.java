@@ -0,0 +1,139 @@
+package cachedb.benchmark;
+
+import cachedb.LogRecord;
+import cachedb.LogSerializer;
+import cachedb.WALWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * WAL append throughput with many writer threads: the current WALWriter
+ * (reserved offsets + group fsync) against the previous design, where
+ * every append serialized, wrote and fsynced under one monitor. Needs no
+ * database.
+ *
+ * Usage: WalAppendBenchmark [appendsPerThread] [valueBytes] [threads,...] [segmentBytes]
+ *   e.g. 2000 128 1,4,16,64 67108864   (segmentBytes > 0: preallocated segments)
+ */
+public class WalAppendBenchmark {
+
+    interface Wal extends AutoCloseable {
+        void append(LogRecord record) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /** The old WALWriter.append: one lock around serialize, write and force. */
+    static class LockedWal implements Wal {
+        private final FileChannel channel;
+
+        LockedWal(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public synchronized void append(LogRecord record) throws IOException {
+            ByteBuffer buffer = LogSerializer.serialize(record);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int appends = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int valueBytes = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        String[] threadCounts = (args.length > 2 ? args[2] : "1,4,16,64").split(",");
+        long segmentBytes = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        Path dir = Files.createTempDirectory("wal-bench");
+        byte[] value = "x".repeat(valueBytes).getBytes();
+
+        System.out.printf("%-8s %12s %12s %8s%n", "threads", "locked/s", "reserved/s", "speedup");
+        for (String t : threadCounts) {
+            int threads = Integer.parseInt(t.trim());
+
+            Path locked = dir.resolve("locked-" + threads + ".log");
+            Path reserved = dir.resolve("reserved-" + threads + ".log");
+            double lockedRate;
+            double reservedRate;
+            try (LockedWal wal = new LockedWal(locked)) {
+                lockedRate = run(wal, threads, appends, value);
+            }
+            WALWriter writer = new WALWriter(reserved, segmentBytes);
+            try (Wal wal = new Wal() {
+                public void append(LogRecord record) throws IOException {
+                    writer.append(record);
+                }
+
+                public void close() throws IOException {
+                    writer.close();
+                }
+            }) {
+                reservedRate = run(wal, threads, appends, value);
+            }
+
+            System.out.printf("%-8d %12.0f %12.0f %7.1fx%n",
+                    threads, lockedRate, reservedRate, reservedRate / lockedRate);
+            Files.delete(locked);
+            for (int n = 0; Files.exists(WALWriter.segmentPath(reserved, n)); n++) {
+                Files.delete(WALWriter.segmentPath(reserved, n));
+            }
+        }
+        Files.delete(dir);
+    }
+
+    // appends per second over all threads
+    private static double run(Wal wal, int threads, int appends, byte[] value) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<Exception> failures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < appends; i++) {
+                        byte[] key = ("users|{id=" + id + "-" + i + "}").getBytes();
+                        wal.append(LogRecord.put(key, value));
+                    }
+                } catch (Exception e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        return (long) threads * appends / seconds;
+    }
+}
@@ -1,29 +1,75 @@
 package cachedb.benchmark;
 
+import cachedb.CacheDB;
+import cachedb.SimpleDataSource;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
 
-public class WalGrowthBenchmark extends CacheDBBenchmarkBase {
+/**
+ * WAL bytes per write and CPU per write, with and without compression.
+ *
+ * Usage: WalGrowthBenchmark [writes] [textBytes] [compressAbove]
+ *   e.g. 10000 4096 512   (compressAbove 0 = no compression)
+ */
+public class WalGrowthBenchmark {
 
     public static void main(String[] args) throws Exception {
-        int writes = 10_000;
+        int writes = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int textBytes = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int compressAbove = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        DataSource ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDB.Builder builder = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(60)
+                .dashboard(false);
+        if (compressAbove > 0) {
+            builder.walCompression(compressAbove);
+        }
+        CacheDB cache = builder.build();
 
-        WalGrowthBenchmark bench = new WalGrowthBenchmark();
-        bench.setup(60);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Path wal = Path.of("logs/wal.log");
+        long sizeBefore = Files.size(wal);
+        long cpuBefore = threads.getCurrentThreadCpuTime();
 
         for (int i = 0; i < writes; i++) {
-            bench.cache.set(
+            cache.set(
                     "users",
                     Map.of("id", i),
-                    Map.of("name", "User-" + i)
+                    Map.of("name", "User-" + i, "profile", profileJson(i, textBytes))
             );
         }
 
-        long size = Files.size(Path.of("logs/wal.log"));
+        long cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+        long size = Files.size(wal) - sizeBefore;
 
-
-        System.out.println("Writes: " + writes);
+        System.out.println("Writes: " + writes + ", text column: " + textBytes + " bytes, "
+                + (compressAbove > 0 ? "compress >= " + compressAbove + " bytes" : "uncompressed"));
         System.out.println("WAL size (bytes): " + size);
+        System.out.printf("Bytes/write: %.1f%n", size / (double) writes);
+        System.out.printf("CPU/write (us, writer thread): %.1f%n", cpuNanos / 1000.0 / writes);
+        System.exit(0);
+    }
+
+    // JSON-like text of roughly {@code bytes}, repetitive the way real documents are
+    private static String profileJson(int id, int bytes) {
+        StringBuilder sb = new StringBuilder("{\"id\":" + id + ",\"events\":[");
+        for (int e = 0; sb.length() < bytes; e++) {
+            sb.append("{\"type\":\"").append(e % 3 == 0 ? "click" : "view")
+                    .append("\",\"page\":\"/products/").append((id * 31 + e) % 997)
+                    .append("\",\"ts\":").append(1_700_000_000L + id * 60L + e).append("},");
+        }
+        return sb.append("]}").toString();
     }
 }
@@ -0,0 +1,65 @@
+package cachedb.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Zipfian key generator over [0, items) (Gray et al., as used by YCSB).
+ * Ranks are scrambled so the hot keys are spread over the key space
+ * instead of all sitting at the low ids.
+ */
+public class ZipfianGenerator {
+
+    private final long items;
+    private final double theta;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+
+    public ZipfianGenerator(long items, double theta) {
+        if (items <= 0) throw new IllegalArgumentException("items must be > 0");
+        if (theta <= 0 || theta == 1.0) {
+            throw new IllegalArgumentException("theta must be > 0 and != 1");
+        }
+
+        this.items = items;
+        this.theta = theta;
+        this.zetan = zeta(items, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+    }
+
+    public long next() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * zetan;
+
+        long rank;
+        if (uz < 1.0) {
+            rank = 0;
+        } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+            rank = 1;
+        } else {
+            rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        }
+        return scramble(Math.min(rank, items - 1));
+    }
+
+    private long scramble(long rank) {
+        // FNV-1a over the rank's bytes
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < 8; i++) {
+            h ^= (rank >>> (i * 8)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return Math.floorMod(h, items);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1.0 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
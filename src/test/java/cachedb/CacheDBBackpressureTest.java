@@ -0,0 +1,117 @@
+package cachedb;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBBackpressureTest {
+
+    private static final int CAPACITY = 2;
+
+    @TempDir
+    Path dir;
+
+    private WALWriter wal;
+    private CacheStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        wal = new WALWriter(dir.resolve("wal.log"));
+        store = new CacheStore(60_000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        wal.close();
+    }
+
+    // no database: a worker started on it drains the queue by parking tasks
+    private FlushManager flushManager(BackpressurePolicy policy) {
+        return new FlushManager(null, null, store, wal, CAPACITY, policy, 60_000, 60_000, 60_000);
+    }
+
+    private static FlushTask task(int id) {
+        return new FlushTask(new RowMutation("users", Map.of("id", id), Map.of("n", id), 1));
+    }
+
+    private static void fill(FlushManager fm) {
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(fm.enqueue(task(i)));
+        }
+        assertFalse(fm.enqueue(task(CAPACITY)));
+        assertEquals(1, fm.rejectedCount());
+    }
+
+    @Test
+    void blockWaitsForRoomInTheQueue() throws Exception {
+        FlushManager fm = flushManager(BackpressurePolicy.BLOCK);
+        fill(fm);
+
+        CountDownLatch through = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            fm.throttle();
+            through.countDown();
+        });
+        writer.start();
+        assertFalse(through.await(200, TimeUnit.MILLISECONDS), "writer passed a full queue");
+
+        Thread worker = new Thread(fm);
+        worker.start();
+        try {
+            assertTrue(through.await(5, TimeUnit.SECONDS), "writer still blocked after the queue drained");
+            assertEquals(1, fm.throttledWriteCount());
+        } finally {
+            fm.stop();
+            worker.join(5_000);
+        }
+    }
+
+    @Test
+    void delayGrowsWithQueueFill() {
+        FlushManager fm = flushManager(BackpressurePolicy.DELAY);
+
+        // at or below half full: no delay
+        assertTrue(fm.enqueue(task(0)));
+        fm.throttle();
+        assertEquals(0, fm.throttledWriteCount());
+
+        assertTrue(fm.enqueue(task(1)));
+        long start = System.nanoTime();
+        fm.throttle();
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, fm.throttledWriteCount());
+        assertTrue(waitedMillis >= 15, "full queue delayed the writer only " + waitedMillis + " ms");
+        assertTrue(fm.avgThrottleMillis() >= 15);
+    }
+
+    @Test
+    void keepDirtyNeverSlowsWritersAndLeavesRowsDirty() {
+        FlushManager fm = flushManager(BackpressurePolicy.KEEP_DIRTY);
+        fill(fm);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            fm.throttle();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, fm.throttledWriteCount());
+
+        // the sweep can't queue the row: it stays dirty, unpinned, for the next one
+        store.upsert("users", Map.of("id", 7), Map.of("n", 7));
+        ExpirationManager expiration = new ExpirationManager(store, fm);
+        assertEquals(1, expiration.flushAll());
+        CacheEntry entry = store.raw().get("users").get(CacheStore.hash(Map.of("id", 7)));
+        assertTrue(entry.dirty);
+        assertFalse(entry.isFlushPending());
+        assertEquals(2, fm.rejectedCount());
+    }
+}
@@ -0,0 +1,168 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static cachedb.Stubs.stub;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBBloomFilterTest {
+
+    /** Table "users" with primary key "id" and rows id = 0 .. rows-1. */
+    private static DataSource usersTable(int rows) {
+        Object[] ids = new Object[rows];
+        for (int i = 0; i < rows; i++) ids[i] = i;
+        return usersTable(Types.INTEGER, List.of(ids));
+    }
+
+    /** Table "users" keyed by "id" of this type, holding these keys as the driver returns them. */
+    private static DataSource usersTable(int keyType, List<Object> ids) {
+        DatabaseMetaData meta = stub(DatabaseMetaData.class, (name, args) -> switch (name) {
+            case "getPrimaryKeys" -> rows(List.of("id"));
+            case "getColumns" -> rows(List.of("id"), keyType);
+            default -> null;
+        });
+        Statement count = stub(Statement.class,
+                (name, args) -> name.equals("executeQuery") ? rows(List.of((long) ids.size())) : null);
+        PreparedStatement keys = stub(PreparedStatement.class,
+                (name, args) -> name.equals("executeQuery") ? rows(ids) : null);
+        Connection conn = stub(Connection.class, (name, args) -> switch (name) {
+            case "getMetaData" -> meta;
+            case "createStatement" -> count;
+            case "prepareStatement" -> keys;
+            default -> null;
+        });
+        return stub(DataSource.class,
+                (name, args) -> name.equals("getConnection") ? conn : null);
+    }
+
+    // a one-column result set over these values
+    private static ResultSet rows(List<Object> values) {
+        return rows(values, 0);
+    }
+
+    // ... whose getInt (DATA_TYPE of getColumns) answers intValue
+    private static ResultSet rows(List<Object> values, int intValue) {
+        int[] pos = {-1};
+        return stub(ResultSet.class, (name, args) -> switch (name) {
+            case "next" -> ++pos[0] < values.size();
+            case "getObject", "getString", "getLong" -> values.get(pos[0]);
+            case "getInt" -> intValue;
+            default -> null;
+        });
+    }
+
+    private static KeyFilters filters(DataSource ds, double fpp) {
+        TableConfig config = TableConfig.builder().readThrough(true).bloomFilter(fpp).build();
+        return new KeyFilters(ds, new SchemaRegistry(ds), Map.of("users", config),
+                Executors.newSingleThreadExecutor(), 1000);
+    }
+
+    @Test
+    void everyKeyInTheTableMightExist() {
+        KeyFilters filters = filters(usersTable(5000), 0.01);
+        filters.buildAll();
+
+        for (int id = 0; id < 5000; id++) {
+            assertTrue(filters.mightExist("users", Map.of("id", id)), "id " + id);
+        }
+        // 7, 7L and the text "7" are the same key
+        assertTrue(filters.mightExist("users", Map.of("id", 7L)));
+        assertTrue(filters.mightExist("users", Map.of("id", "7")));
+        assertEquals(0, filters.skippedCount());
+        filters.stop();
+    }
+
+    @Test
+    void mostMissingKeysAreRuledOut() {
+        KeyFilters filters = filters(usersTable(5000), 0.01);
+        filters.buildAll();
+
+        int falsePositives = 0;
+        for (int id = 5000; id < 25_000; id++) {
+            if (filters.mightExist("users", Map.of("id", id))) falsePositives++;
+        }
+        assertTrue(falsePositives < 400, falsePositives + " false positives in 20000");
+        assertEquals(20_000 - falsePositives, filters.skippedCount());
+        filters.stop();
+    }
+
+    @Test
+    void keysMatchHoweverTheyAreTyped() {
+        KeyFilters decimals = filters(usersTable(Types.DECIMAL,
+                List.of(new BigDecimal("1.50"), new BigDecimal("20"))), 0.01);
+        decimals.buildAll();
+        assertTrue(decimals.mightExist("users", Map.of("id", 1.5)));
+        assertTrue(decimals.mightExist("users", Map.of("id", new BigDecimal("1.500"))));
+        assertTrue(decimals.mightExist("users", Map.of("ID", 20L)));
+        decimals.stop();
+
+        // TINYINT(1) comes back as a Boolean
+        KeyFilters flags = filters(usersTable(Types.BIT, List.of(Boolean.TRUE)), 0.01);
+        flags.buildAll();
+        assertTrue(flags.mightExist("users", Map.of("id", 1)));
+        assertTrue(flags.mightExist("users", Map.of("id", true)));
+        flags.stop();
+
+        KeyFilters names = filters(usersTable(Types.VARCHAR, List.of("Alice")), 0.01);
+        names.buildAll();
+        assertTrue(names.mightExist("users", Map.of("id", "alice ")));
+        names.stop();
+    }
+
+    @Test
+    void tablesKeyedByUnsafeTypesAreNotFiltered() {
+        KeyFilters filters = filters(usersTable(Types.TIMESTAMP,
+                List.of(Timestamp.valueOf("2024-01-01 00:00:00"))), 0.01);
+        filters.buildAll();
+        assertTrue(filters.mightExist("users", Map.of("id", "2024-01-01 00:00:00")));
+        assertTrue(filters.mightExist("users", Map.of("id", "1999-01-01 00:00:00")));
+        assertEquals(0, filters.skippedCount());
+        filters.stop();
+    }
+
+    @Test
+    void flushedKeysAreAdded() {
+        KeyFilters filters = filters(usersTable(100), 0.01);
+        filters.buildAll();
+
+        Map<String, Object> pk = Map.of("id", 123_456);
+        filters.add("users", pk);
+        assertTrue(filters.mightExist("users", pk));
+        filters.stop();
+    }
+
+    @Test
+    void unfilteredTablesAlwaysMightExist() {
+        KeyFilters filters = filters(usersTable(0), 0.01);
+        // not built yet, and a table without a filter
+        assertTrue(filters.mightExist("users", Map.of("id", 1)));
+        filters.buildAll();
+        assertTrue(filters.mightExist("posts", Map.of("id", 1)));
+        filters.stop();
+    }
+
+    @Test
+    void expectedFppGrowsPastTheSizing() {
+        BloomFilter filter = BloomFilter.create(1000, 0.01);
+        for (int i = 0; i < 1000; i++) filter.put("k" + i);
+        assertEquals(0.01, filter.expectedFpp(), 0.005);
+
+        for (int i = 1000; i < 3000; i++) filter.put("k" + i);
+        assertTrue(filter.expectedFpp() > 0.02);
+        assertThrows(IllegalArgumentException.class,
+                () -> TableConfig.builder().bloomFilter(1.5));
+    }
+}
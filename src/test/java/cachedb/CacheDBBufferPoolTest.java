@@ -0,0 +1,58 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBBufferPoolTest {
+
+    @Test
+    void releasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(2, 1 << 16);
+
+        ByteBuffer first = pool.acquire(100);
+        assertTrue(first.isDirect());
+        assertTrue(first.capacity() >= 100);
+        pool.release(first);
+        assertEquals(1, pool.pooledCount());
+
+        first.position(50);
+        ByteBuffer again = pool.acquire(200);
+        assertSame(first, again);
+        assertEquals(0, again.position());
+        assertEquals(0, pool.pooledCount());
+    }
+
+    @Test
+    void poolIsBoundedAndSkipsOversizedBuffers() {
+        BufferPool pool = new BufferPool(2, 1 << 16);
+        for (int i = 0; i < 5; i++) {
+            pool.release(ByteBuffer.allocateDirect(4096));
+        }
+        assertEquals(2, pool.pooledCount());
+
+        ByteBuffer huge = pool.acquire(1 << 20);
+        assertFalse(huge.isDirect());
+        pool.release(huge);
+        assertEquals(2, pool.pooledCount());
+
+        // too small for the request: replaced, not handed out
+        BufferPool small = new BufferPool(2, 1 << 16);
+        small.release(ByteBuffer.allocateDirect(4096));
+        assertTrue(small.acquire(10_000).capacity() >= 10_000);
+    }
+
+    @Test
+    void directSerializationMatchesHeapSerialization() {
+        BufferPool pool = new BufferPool(2, 1 << 16);
+        LogRecord record = LogRecord.put("users|{id=1}".getBytes(), "{name=Alice}".getBytes());
+
+        ByteBuffer heap = LogSerializer.serialize(record, 0);
+        ByteBuffer direct = LogSerializer.serialize(record, 0, pool::acquire);
+
+        assertTrue(direct.isDirect());
+        assertEquals(heap, direct);
+    }
+}
@@ -6,8 +6,16 @@ import org.junit.jupiter.api.Test;
 import javax.sql.DataSource;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static cachedb.Stubs.resultSet;
+import static cachedb.Stubs.stub;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class CacheDBCheckpointTest {
@@ -111,6 +119,60 @@ public class CacheDBCheckpointTest {
         assertEquals("Carol", result.get("name"));
     }
 
+    /** A MySQL with (id, name) tables that accepts every write, counting them. */
+    private static DataSource acceptingDataSource(AtomicInteger updates) {
+        DatabaseMetaData meta = stub(DatabaseMetaData.class, (name, args) -> switch (name) {
+            case "getPrimaryKeys" -> resultSet(List.of(Map.of("COLUMN_NAME", "id")));
+            case "getColumns" -> resultSet(List.of(
+                    Map.of("COLUMN_NAME", "id", "DATA_TYPE", Types.INTEGER),
+                    Map.of("COLUMN_NAME", "name", "DATA_TYPE", Types.VARCHAR)));
+            default -> null;
+        });
+        PreparedStatement ps = stub(PreparedStatement.class,
+                (name, args) -> name.equals("executeUpdate") ? updates.incrementAndGet() : null);
+        Connection conn = stub(Connection.class, (name, args) -> switch (name) {
+            case "getMetaData" -> meta;
+            case "prepareStatement" -> ps;
+            default -> null;
+        });
+        return stub(DataSource.class,
+                (name, args) -> name.equals("getConnection") ? conn : null);
+    }
+
+    @Test
+    void flushDoesNotCheckpointRowsNotYetDue() throws Exception {
+        AtomicInteger updates = new AtomicInteger();
+        DataSource mysql = acceptingDataSource(updates);
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(mysql)
+                .ttlSeconds(3600)
+                .table("events", TableConfig.builder().flushDelaySeconds(0).build())
+                .build();
+
+        // dirty for an hour yet; only the WAL holds it
+        db1.set("users", Map.of("id", 5), Map.of("name", "Eve"));
+        // flushed on the next sweep, leaving the flush pipeline empty
+        db1.set("events", Map.of("id", 1), Map.of("name", "login"));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (updates.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, updates.get());
+        Thread.sleep(200);
+        db1 = null; // crash
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(mysql)
+                .ttlSeconds(3600)
+                .build();
+
+        Map<String, Object> result = db2.get("users", Map.of("id", 5));
+        assertNotNull(result, "checkpoint after an unrelated flush lost a dirty row");
+        assertEquals("Eve", result.get("name"));
+    }
+
     @Test
     void checkpointIsIdempotent() throws Exception {
 
@@ -0,0 +1,124 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBCompareAndSetTest {
+
+    private static final Path WAL_PATH = Path.of("logs", "wal.log");
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        Files.createDirectories(WAL_PATH.getParent());
+        Files.deleteIfExists(WAL_PATH);
+    }
+
+    private CacheDB open() throws Exception {
+        return CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+    }
+
+    @Test
+    void staleVersionIsRejected() throws Exception {
+        CacheDB db = open();
+        db.set("products", Map.of("product_id", 1), Map.of("stock", 5));
+
+        VersionedRow row = db.getWithVersion("products", Map.of("product_id", 1));
+        assertTrue(db.compareAndSet("products", Map.of("product_id", 1), row.version, Map.of("stock", 4)));
+        assertFalse(db.compareAndSet("products", Map.of("product_id", 1), row.version, Map.of("stock", 3)));
+
+        VersionedRow now = db.getWithVersion("products", Map.of("product_id", 1));
+        assertEquals(4, now.columns.get("stock"));
+        assertEquals(row.version + 1, now.version);
+    }
+
+    @Test
+    void versionZeroMeansNotCached() throws Exception {
+        CacheDB db = open();
+
+        assertTrue(db.compareAndSet("products", Map.of("product_id", 2), 0, Map.of("stock", 1)));
+        assertFalse(db.compareAndSet("products", Map.of("product_id", 2), 0, Map.of("stock", 9)));
+        assertEquals(1, db.get("products", Map.of("product_id", 2)).get("stock"));
+    }
+
+    @Test
+    void failedSwapIsNotLogged() throws Exception {
+        CacheDB db1 = open();
+        db1.set("products", Map.of("product_id", 3), Map.of("stock", 5));
+        long before = Files.size(WAL_PATH);
+
+        assertFalse(db1.compareAndSet("products", Map.of("product_id", 3), 42, Map.of("stock", 0)));
+        assertEquals(before, Files.size(WAL_PATH));
+
+        VersionedRow row = db1.getWithVersion("products", Map.of("product_id", 3));
+        assertTrue(db1.compareAndSet("products", Map.of("product_id", 3), row.version, Map.of("stock", 4)));
+
+        CacheDB db2 = open();
+        assertEquals("4", db2.get("products", Map.of("product_id", 3)).get("stock").toString());
+    }
+
+    @Test
+    void concurrentDecrementsNeverOversell() throws Exception {
+        CacheDB db = open();
+        Map<String, Object> pk = Map.of("product_id", 4);
+        db.set("products", pk, Map.of("name", "Laptop", "stock", 100));
+
+        AtomicInteger sold = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            workers.add(pool.submit(() -> {
+                while (true) {
+                    VersionedRow row = db.getWithVersion("products", pk);
+                    int stock = ((Number) row.columns.get("stock")).intValue();
+                    if (stock == 0) return;
+
+                    Map<String, Object> updated = new HashMap<>(row.columns);
+                    updated.put("stock", stock - 1);
+                    if (db.compareAndSet("products", pk, row.version, updated)) {
+                        sold.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : workers) f.get();
+        pool.shutdown();
+
+        assertEquals(100, sold.get());
+        assertEquals(0, db.get("products", pk).get("stock"));
+    }
+
+    @Test
+    void partialRowCannotBeSwapped() {
+        CacheStore store = new CacheStore(60_000);
+        store.patch("products", Map.of("product_id", 5), Map.of("stock", 1));
+
+        assertNull(store.getWithVersion("products", Map.of("product_id", 5)));
+        // matches no version a caller can hold, including 0 ("not cached")
+        assertEquals(-1, store.version("products", Map.of("product_id", 5)));
+    }
+}
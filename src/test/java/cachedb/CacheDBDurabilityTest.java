@@ -0,0 +1,77 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBDurabilityTest {
+
+    @TempDir
+    Path dir;
+
+    private static LogRecord record(int i) {
+        return LogRecord.put(("counters|{id=" + i + "}").getBytes(), ("{n=" + i + "}").getBytes());
+    }
+
+    @Test
+    void syncAndGroupWritesAreDurableOnReturn() throws Exception {
+        try (WALWriter wal = new WALWriter(dir.resolve("wal.log"))) {
+            wal.append(record(1), Durability.SYNC);
+            assertEquals(wal.mark().offset, wal.durableOffset());
+
+            wal.append(record(2), Durability.GROUP);
+            assertEquals(wal.mark().offset, wal.durableOffset());
+        }
+    }
+
+    @Test
+    void unsyncedWritesAreForcedBySyncOrALaterSyncWrite() throws Exception {
+        Path path = dir.resolve("wal.log");
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(record(1), Durability.GROUP);
+            long synced = wal.durableOffset();
+
+            wal.append(record(2), Durability.NONE);
+            // written to the file (page cache) but not forced
+            assertEquals(Files.size(path), wal.mark().offset);
+            assertEquals(synced, wal.durableOffset());
+
+            wal.append(record(3), Durability.SYNC);
+            assertEquals(wal.mark().offset, wal.durableOffset());
+
+            wal.append(record(4), Durability.NONE);
+            wal.sync();
+            assertEquals(wal.mark().offset, wal.durableOffset());
+        }
+    }
+
+    @Test
+    void intervalWritesAreForcedInTheBackground() throws Exception {
+        try (WALWriter wal = new WALWriter(dir.resolve("wal.log"))) {
+            wal.syncEvery(20);
+            for (int i = 0; i < 10; i++) {
+                wal.append(record(i), Durability.INTERVAL);
+            }
+
+            long end = wal.mark().offset;
+            long deadline = System.currentTimeMillis() + 2000;
+            while (wal.durableOffset() < end && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(end, wal.durableOffset());
+        }
+    }
+
+    @Test
+    void tablesFallBackToTheGlobalDurability() {
+        assertNull(TableConfig.defaults().durability);
+        assertEquals(Durability.INTERVAL,
+                TableConfig.builder().durability(Durability.INTERVAL).build().durability);
+        assertThrows(IllegalArgumentException.class,
+                () -> CacheDB.builder().syncIntervalMillis(0));
+    }
+}
@@ -0,0 +1,180 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBFlushRetryTest {
+
+    @TempDir
+    Path dir;
+
+    private static FlushTask task(int id, Map<String, Object> columns) {
+        return new FlushTask(new RowMutation("users", Map.of("id", id), columns, 1));
+    }
+
+    private static String key(int id) {
+        return "users|" + CacheStore.hash(Map.of("id", id));
+    }
+
+    @Test
+    void onlyConnectivityErrorsCountAsConnectivityFailures() {
+        assertTrue(FlushManager.isConnectivityFailure(
+                new SQLNonTransientConnectionException("refused", "08001")));
+        assertTrue(FlushManager.isConnectivityFailure(
+                new SQLTransientConnectionException("pool timed out")));
+        assertTrue(FlushManager.isConnectivityFailure(new SQLTimeoutException("timeout")));
+        assertTrue(FlushManager.isConnectivityFailure(new SQLException("link failure", "08S01")));
+        assertTrue(FlushManager.isConnectivityFailure(
+                new RuntimeException(new SQLException("link failure", "08S01"))));
+
+        assertFalse(FlushManager.isConnectivityFailure(new NullPointerException()));
+        assertFalse(FlushManager.isConnectivityFailure(new IllegalArgumentException("bad column")));
+        assertFalse(FlushManager.isConnectivityFailure(new SQLException("no state")));
+        assertFalse(FlushManager.isConnectivityFailure(
+                new SQLIntegrityConstraintViolationException("duplicate", "23000")));
+    }
+
+    @Test
+    void retryQueueKeepsOneMergedMutationPerRow() {
+        RetryQueue retries = new RetryQueue(0, 0);
+        FlushTask older = task(1, Map.of("name", "a", "age", 1));
+        FlushTask newer = task(1, Map.of("name", "b", "age", 2));
+
+        retries.park(newer);
+        retries.park(older);
+        assertEquals(1, retries.size());
+        assertTrue(retries.contains(key(1)));
+
+        FlushTask due = retries.pollDue();
+        assertEquals(newer.seq, due.seq);
+        assertEquals("b", due.mutation.columns.get("name"));
+        assertNull(retries.pollDue());
+        assertTrue(retries.isEmpty());
+    }
+
+    @Test
+    void retryQueueHandsOverOrDropsOlderMutations() {
+        RetryQueue retries = new RetryQueue(0, 0);
+        FlushTask parked = task(1, Map.of("name", "a"));
+        retries.park(parked);
+
+        // a task older than the parked one leaves it alone
+        assertNull(retries.takeOlder(key(1), parked.seq));
+        retries.supersede(key(1), parked.seq);
+        assertTrue(retries.contains(key(1)));
+
+        FlushTask newer = task(1, Map.of("name", "b"));
+        assertSame(parked, retries.takeOlder(key(1), newer.seq));
+        assertTrue(retries.isEmpty());
+
+        retries.park(parked);
+        retries.supersede(key(1), newer.seq);
+        assertTrue(retries.isEmpty());
+        assertNull(retries.pollDue());
+    }
+
+    @Test
+    void retryQueueWaitsForBackoff() {
+        RetryQueue retries = new RetryQueue(60_000, 60_000);
+        retries.park(task(1, Map.of("name", "a")));
+
+        assertNull(retries.pollDue());
+        assertTrue(retries.millisUntilNextDue() > 0);
+
+        retries.releaseAll();
+        assertNotNull(retries.pollDue());
+        assertTrue(retries.isEmpty());
+    }
+
+    @Test
+    void breakerOpensAfterThresholdAndLetsOneProbeThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 50);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(1, breaker.trips());
+        assertTrue(breaker.isBlocking());
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(80);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire(), "a second probe was let through");
+
+        assertTrue(breaker.recordSuccess());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertFalse(breaker.isBlocking());
+    }
+
+    @Test
+    void failedProbeReopensBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.recordFailure();
+        Thread.sleep(80);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+        // a re-open from HALF_OPEN is not a new trip
+        assertEquals(1, breaker.trips());
+    }
+
+    @Test
+    void successWhileClosedResetsFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+        breaker.recordFailure();
+        assertFalse(breaker.recordSuccess());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void parkedFlushKeepsRowPinnedPastExpiry() throws Exception {
+        CacheStore store = new CacheStore(50);
+        Map<String, Object> pk = Map.of("id", 1);
+        try (WALWriter wal = new WALWriter(dir.resolve("wal.log"))) {
+            // no database: every attempt fails and is parked for a minute
+            FlushManager fm = new FlushManager(null, null, store, wal, 10,
+                    BackpressurePolicy.BLOCK, 60_000, 60_000, 60_000);
+            ExpirationManager expiration = new ExpirationManager(store, fm);
+            Thread worker = new Thread(fm);
+            Thread sweeper = new Thread(expiration);
+            try {
+                store.upsert("users", pk, Map.of("name", "a"));
+                expiration.flushAll();
+                worker.start();
+                long deadline = System.currentTimeMillis() + 5_000;
+                while (fm.parkedCount() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(1, fm.parkedCount());
+
+                sweeper.start();
+                Thread.sleep(300);
+                assertTrue(store.hasUnflushed("users", pk), "row unpinned while its flush is parked");
+                assertEquals("a", store.get("users", pk).get("name"));
+            } finally {
+                expiration.stop();
+                fm.stop();
+                worker.join(5_000);
+                sweeper.join(5_000);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBIncrementTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        Path wal = Path.of("logs", "wal.log");
+        Files.createDirectories(wal.getParent());
+        Files.deleteIfExists(wal);
+    }
+
+    @Test
+    void incrementUpdatesCachedValue() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        db.set("page_views", Map.of("page", 1), Map.of("url", "/home", "views", 10));
+
+        assertEquals(11L, db.increment("page_views", Map.of("page", 1), "views", 1));
+        assertEquals(16L, db.increment("page_views", Map.of("page", 1), "views", 5));
+        assertEquals(16L, db.get("page_views", Map.of("page", 1)).get("views"));
+    }
+
+    @Test
+    void incrementOfUncachedRowReturnsNull() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        assertNull(db.increment("page_views", Map.of("page", 2), "views", 1));
+        // only the delta is known, so the row isn't served
+        assertNull(db.get("page_views", Map.of("page", 2)));
+    }
+
+    @Test
+    void incrementIsReplayedFromWal() throws Exception {
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        db1.set("page_views", Map.of("page", 3), Map.of("views", 1));
+        db1.increment("page_views", Map.of("page", 3), "views", 2);
+        db1.increment("page_views", Map.of("page", 3), "views", 3);
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        assertEquals(6L, db2.get("page_views", Map.of("page", 3)).get("views"));
+    }
+
+    @Test
+    void deltasAggregateUntilFlush() {
+        CacheStore store = new CacheStore(60_000);
+        store.putClean("page_views", Map.of("page", 1), Map.of("views", 100));
+
+        store.increment("page_views", Map.of("page", 1), "views", 1);
+        store.increment("page_views", Map.of("page", 1), "views", 1);
+        store.increment("page_views", Map.of("page", 1), "clicks", 4);
+
+        CacheEntry entry = store.raw().get("page_views").values().iterator().next();
+        assertTrue(entry.dirty);
+        assertEquals(Set.of(), entry.dirtyColumns);
+        assertEquals(Map.of("views", 2L, "clicks", 4L), entry.pendingDeltas);
+        assertEquals(102L, entry.columns.get("views"));
+    }
+
+    @Test
+    void incrementOfUnflushedValueFoldsIntoIt() {
+        CacheStore store = new CacheStore(60_000);
+        store.upsert("page_views", Map.of("page", 1), Map.of("views", 5));
+
+        store.increment("page_views", Map.of("page", 1), "views", 2);
+
+        CacheEntry entry = store.raw().get("page_views").values().iterator().next();
+        assertNull(entry.pendingDeltas);
+        assertEquals(7L, entry.columns.get("views"));
+    }
+
+    @Test
+    void queuedIncrementsAreMerged() {
+        RowMutation first = new RowMutation("page_views", Map.of("page", 1),
+                Map.of(), Map.of("views", 2L), 1, false, true);
+        RowMutation second = new RowMutation("page_views", Map.of("page", 1),
+                Map.of("url", "/home"), Map.of("views", 3L), 2, false, true);
+
+        RowMutation merged = second.after(first);
+        assertEquals(Map.of("views", 5L), merged.deltas);
+        assertEquals(Map.of("url", "/home"), merged.columns);
+        assertTrue(merged.isPatch);
+
+        RowMutation full = new RowMutation("page_views", Map.of("page", 1),
+                Map.of("views", 10), 3);
+        RowMutation onFull = new RowMutation("page_views", Map.of("page", 1),
+                Map.of(), Map.of("views", 1L), 4, false, true).after(full);
+        assertEquals(Map.of(), onFull.deltas);
+        assertEquals(11L, onFull.columns.get("views"));
+        assertFalse(onFull.isPatch);
+    }
+
+    @Test
+    void nonNumericColumnIsRejected() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        db.set("page_views", Map.of("page", 4), Map.of("url", "/about"));
+        long walBytes = db.walBytes();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> db.increment("page_views", Map.of("page", 4), "url", 1));
+        assertEquals("/about", db.get("page_views", Map.of("page", 4)).get("url"));
+        // nothing was logged that replay would choke on
+        assertEquals(walBytes, db.walBytes());
+    }
+
+    @Test
+    void loadedRowKeepsIncrementsNotYetFlushed() {
+        CacheStore store = new CacheStore(60_000);
+        store.increment("page_views", Map.of("page", 1), "views", 5);
+
+        // MySQL doesn't have the +5 yet
+        store.putClean("page_views", Map.of("page", 1), Map.of("views", 10, "url", "/"));
+
+        Map<String, Object> row = store.get("page_views", Map.of("page", 1));
+        assertEquals(15L, row.get("views"));
+        assertEquals("/", row.get("url"));
+    }
+}
@@ -0,0 +1,149 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBIndexTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        Path wal = Path.of("logs", "wal.log");
+        Files.createDirectories(wal.getParent());
+        Files.deleteIfExists(wal);
+    }
+
+    private static Set<Object> ids(List<Map<String, Object>> rows, String column) {
+        return rows.stream().map(r -> r.get(column).toString()).collect(Collectors.toSet());
+    }
+
+    @Test
+    void findByFollowsWritesAndDeletes() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .table("sessions", TableConfig.builder().index("user_id").build())
+                .build();
+
+        db.set("sessions", Map.of("id", "a"), Map.of("user_id", 1, "ip", "10.0.0.1"));
+        db.set("sessions", Map.of("id", "b"), Map.of("user_id", 1, "ip", "10.0.0.2"));
+        db.set("sessions", Map.of("id", "c"), Map.of("user_id", 2, "ip", "10.0.0.3"));
+
+        assertEquals(Set.of("a", "b"), ids(db.findBy("sessions", "user_id", 1), "id"));
+
+        // moved to another user, then deleted
+        db.set("sessions", Map.of("id", "b"), Map.of("user_id", 2, "ip", "10.0.0.2"));
+        assertEquals(Set.of("a"), ids(db.findBy("sessions", "user_id", 1), "id"));
+        assertEquals(Set.of("b", "c"), ids(db.findBy("sessions", "user_id", 2), "id"));
+
+        db.delete("sessions", Map.of("id", "c"));
+        assertEquals(Set.of("b"), ids(db.findBy("sessions", "user_id", 2), "id"));
+    }
+
+    @Test
+    void replayedRowsAreIndexed() throws Exception {
+        TableConfig config = TableConfig.builder().index("author_id").build();
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .table("posts", config)
+                .build();
+        db1.set("posts", Map.of("id", 1), Map.of("author_id", 7, "title", "Hello"));
+        db1.patch("posts", Map.of("id", 1), Map.of("title", "Hello again"));
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .table("posts", config)
+                .build();
+
+        // replayed values are strings; lookups by number still match
+        List<Map<String, Object>> rows = db2.findBy("posts", "author_id", 7);
+        assertEquals(1, rows.size());
+        assertEquals("Hello again", rows.get(0).get("title"));
+    }
+
+    @Test
+    void sortedIndexServesRanges() {
+        CacheStore store = new CacheStore(60_000, Map.of("posts",
+                TableConfig.builder().index("created_at", IndexType.SORTED).build()));
+
+        for (int i = 1; i <= 20; i++) {
+            store.upsert("posts", Map.of("id", i), Map.of("created_at", i * 10));
+        }
+
+        List<Map<String, Object>> rows = store.findRange("posts", "created_at", 50, 100);
+        assertEquals(List.of(50, 60, 70, 80, 90),
+                rows.stream().map(r -> r.get("created_at")).toList());
+
+        assertEquals(3, store.findRange("posts", "created_at", 180, null).size());
+        assertEquals(2, store.findRange("posts", "created_at", null, 30).size());
+    }
+
+    @Test
+    void concurrentMovesBetweenValuesKeepEveryRow() throws Exception {
+        CacheStore store = new CacheStore(60_000, Map.of("tasks",
+                TableConfig.builder().index("state", IndexType.SORTED).build()));
+
+        // each thread moves its own row back and forth, emptying and refilling the buckets
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    store.upsert("tasks", Map.of("id", id), Map.of("state", i % 2));
+                }
+                store.upsert("tasks", Map.of("id", id), Map.of("state", id % 2));
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(Set.of("0", "2", "4", "6"), ids(store.findBy("tasks", "state", 0), "id"));
+        assertEquals(Set.of("1", "3", "5", "7"), ids(store.findBy("tasks", "state", 1), "id"));
+        assertEquals(8, store.findRange("tasks", "state", null, null).size());
+    }
+
+    @Test
+    void evictedAndPartialRowsAreNotFound() {
+        CacheStore store = new CacheStore(60_000, Map.of("sessions",
+                TableConfig.builder().index("user_id").build()));
+
+        store.putClean("sessions", Map.of("id", 1), Map.of("user_id", 5));
+        store.remove("sessions", Map.of("id", 1));
+        store.patch("sessions", Map.of("id", 2), Map.of("user_id", 5));
+
+        assertTrue(store.findBy("sessions", "user_id", 5).isEmpty());
+    }
+
+    @Test
+    void lookupWithoutIndexIsRejected() {
+        CacheStore store = new CacheStore(60_000, Map.of("sessions",
+                TableConfig.builder().index("user_id").build()));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.findBy("sessions", "ip", "10.0.0.1"));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.findRange("sessions", "user_id", 1, 2));
+    }
+}
@@ -31,6 +31,7 @@ class CacheDBMultiTableTest extends CacheDBTestBase {
 
         Thread.sleep(3000);
 
+        assumeDatabaseReachable();
         assertNull(cache.get("orders", Map.of("order_id", 100)));
         assertNull(cache.get("users", Map.of("id", 2)));
     }
@@ -0,0 +1,79 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBNegativeCacheTest {
+
+    private static CacheStore store(long negativeTtlMillis) {
+        return new CacheStore(60_000, Map.of("users", TableConfig.builder()
+                .readThrough(true)
+                .negativeTtlMillis(negativeTtlMillis)
+                .build()));
+    }
+
+    @Test
+    void missingKeyIsRememberedUntilTtl() throws Exception {
+        CacheStore store = store(100);
+        store.markAbsent("users", Map.of("id", 999999));
+
+        assertTrue(store.isKnownAbsent("users", Map.of("id", 999999)));
+        assertTrue(store.isKnownAbsent("users", Map.of("id", 999999)));
+        assertFalse(store.isKnownAbsent("users", Map.of("id", 1)));
+        assertEquals(2, store.negativeHitCount());
+
+        Thread.sleep(150);
+        assertFalse(store.isKnownAbsent("users", Map.of("id", 999999)));
+    }
+
+    @Test
+    void writeForgetsAbsentKey() {
+        CacheStore store = store(60_000);
+        store.markAbsent("users", Map.of("id", 5));
+        store.markAbsent("users", Map.of("id", 6));
+
+        store.upsert("users", Map.of("id", 5), Map.of("name", "Eve"));
+        store.patch("users", Map.of("id", 6), Map.of("name", "Frank"));
+
+        assertFalse(store.isKnownAbsent("users", Map.of("id", 5)));
+        assertFalse(store.isKnownAbsent("users", Map.of("id", 6)));
+    }
+
+    @Test
+    void cachedKeyIsNeverMarkedAbsent() {
+        CacheStore store = store(60_000);
+        store.upsert("users", Map.of("id", 7), Map.of("name", "Grace"));
+
+        store.markAbsent("users", Map.of("id", 7));
+        assertFalse(store.isKnownAbsent("users", Map.of("id", 7)));
+    }
+
+    @Test
+    void tablesWithoutNegativeTtlAreUnaffected() {
+        CacheStore store = store(60_000);
+        store.markAbsent("orders", Map.of("id", 1));
+
+        assertFalse(store.isKnownAbsent("orders", Map.of("id", 1)));
+    }
+
+    @Test
+    void manyKeysFitWithoutFalseHits() {
+        NegativeCache cache = new NegativeCache(1 << 12);
+        for (int i = 0; i < 2000; i++) {
+            cache.markAbsent("users|id=" + i, 60_000);
+        }
+
+        int remembered = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (cache.isAbsent("users|id=" + i)) remembered++;
+        }
+        assertTrue(remembered > 1800, "remembered " + remembered);
+
+        for (int i = 2000; i < 12000; i++) {
+            assertFalse(cache.isAbsent("users|id=" + i));
+        }
+    }
+}
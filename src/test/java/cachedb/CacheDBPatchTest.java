@@ -0,0 +1,125 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBPatchTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        Path wal = Path.of("logs", "wal.log");
+        Files.createDirectories(wal.getParent());
+        Files.deleteIfExists(wal);
+    }
+
+    @Test
+    void patchMergesIntoCachedRow() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        db.set("users", Map.of("id", 1), Map.of("name", "Alice", "last_seen", "1"));
+        db.patch("users", Map.of("id", 1), Map.of("last_seen", "2"));
+
+        Map<String, Object> row = db.get("users", Map.of("id", 1));
+        assertEquals("Alice", row.get("name"));
+        assertEquals("2", row.get("last_seen"));
+    }
+
+    @Test
+    void patchOfUncachedRowIsNotServedAsWholeRow() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        db.patch("users", Map.of("id", 2), Map.of("last_seen", "5"));
+
+        assertNull(db.get("users", Map.of("id", 2)));
+    }
+
+    @Test
+    void patchIsReplayedFromWal() throws Exception {
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        db1.set("users", Map.of("id", 3), Map.of("name", "Carol", "last_seen", "1"));
+        db1.patch("users", Map.of("id", 3), Map.of("last_seen", "9"));
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        Map<String, Object> row = db2.get("users", Map.of("id", 3));
+        assertEquals("Carol", row.get("name"));
+        assertEquals("9", row.get("last_seen"));
+    }
+
+    @Test
+    void onlyPatchedColumnsAreDirty() {
+        CacheStore store = new CacheStore(60_000);
+        store.putClean("users", Map.of("id", 1), Map.of("name", "Alice", "last_seen", 1));
+
+        store.patch("users", Map.of("id", 1), Map.of("last_seen", 2));
+        store.patch("users", Map.of("id", 1), Map.of("visits", 7));
+
+        CacheEntry entry = store.raw().get("users").values().iterator().next();
+        assertTrue(entry.dirty);
+        assertEquals(Set.of("last_seen", "visits"), entry.dirtyColumns);
+
+        // a full write makes the whole row dirty again
+        store.upsert("users", Map.of("id", 1), Map.of("name", "Al"));
+        assertNull(entry.dirtyColumns);
+    }
+
+    @Test
+    void parkedMutationsOfOneRowAreMerged() {
+        RetryQueue retries = new RetryQueue(1, 1);
+
+        FlushTask full = new FlushTask(new RowMutation("users", Map.of("id", 1),
+                Map.of("name", "Alice", "last_seen", 1), 1));
+        FlushTask patch = new FlushTask(new RowMutation("users", Map.of("id", 1),
+                Map.of("last_seen", 2), 2, false, true));
+
+        retries.park(patch);
+        retries.park(full); // older, fails later
+
+        FlushTask merged = retries.takeOlder(full.mutation.key(), Long.MAX_VALUE);
+        assertEquals(patch.seq, merged.seq);
+        assertFalse(merged.mutation.isPatch);
+        assertEquals(Map.of("name", "Alice", "last_seen", 2), merged.mutation.columns);
+    }
+
+    @Test
+    void patchAfterDeleteRecreatesRow() {
+        RowMutation delete = new RowMutation("users", Map.of("id", 1), Map.of(), 1, true);
+        RowMutation patch = new RowMutation("users", Map.of("id", 1),
+                Map.of("last_seen", 2), 2, false, true);
+
+        RowMutation merged = patch.after(delete);
+        assertFalse(merged.isDelete);
+        assertFalse(merged.isPatch);
+        assertEquals(Map.of("last_seen", 2), merged.columns);
+        assertEquals(2, merged.version);
+    }
+}
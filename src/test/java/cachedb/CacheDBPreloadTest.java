@@ -0,0 +1,181 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static cachedb.Stubs.resultSet;
+import static cachedb.Stubs.stub;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBPreloadTest {
+
+    // every SELECT the preloader sent, and the BETWEEN bounds of the range ones
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final List<List<Object>> ranges = new CopyOnWriteArrayList<>();
+
+    private static Map<String, Object> row(long id, String name) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("name", name);
+        return row;
+    }
+
+    private static List<Map<String, Object>> rows(long... ids) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (long id : ids) rows.add(row(id, "user" + id));
+        return rows;
+    }
+
+    /**
+     * Table "users" (id BIGINT primary key, name) holding {@code rows}. Range
+     * queries return the rows between their bounds; the WHERE and ORDER BY
+     * text isn't evaluated, only recorded.
+     */
+    private DataSource mysql(List<Map<String, Object>> rows) {
+        DatabaseMetaData meta = stub(DatabaseMetaData.class, (name, args) -> switch (name) {
+            case "getPrimaryKeys" -> resultSet(List.of(Map.of("COLUMN_NAME", "id")));
+            case "getColumns" -> resultSet(List.of(
+                    Map.of("COLUMN_NAME", "id", "DATA_TYPE", Types.BIGINT),
+                    Map.of("COLUMN_NAME", "name", "DATA_TYPE", Types.VARCHAR)));
+            default -> null;
+        });
+        Statement minMax = stub(Statement.class, (name, args) -> {
+            if (!name.equals("executeQuery")) return null;
+            queries.add((String) args[0]);
+            Map<String, Object> bounds = new LinkedHashMap<>();
+            bounds.put("min", rows.stream().map(r -> (Long) r.get("id")).min(Comparator.naturalOrder()).orElse(null));
+            bounds.put("max", rows.stream().map(r -> (Long) r.get("id")).max(Comparator.naturalOrder()).orElse(null));
+            return resultSet(List.of(bounds));
+        });
+        Connection conn = stub(Connection.class, (name, args) -> switch (name) {
+            case "getMetaData" -> meta;
+            case "createStatement" -> minMax;
+            case "prepareStatement" -> select((String) args[0], rows);
+            default -> null;
+        });
+        return stub(DataSource.class,
+                (name, args) -> name.equals("getConnection") ? conn : null);
+    }
+
+    private PreparedStatement select(String sql, List<Map<String, Object>> rows) {
+        List<Object> params = new ArrayList<>();
+        return stub(PreparedStatement.class, (name, args) -> {
+            if (name.equals("setObject")) {
+                params.add(args[1]);
+            } else if (name.equals("executeQuery")) {
+                queries.add(sql);
+                if (params.isEmpty()) return resultSet(rows);
+                ranges.add(List.copyOf(params));
+                long lo = (Long) params.get(0);
+                long hi = (Long) params.get(1);
+                return resultSet(rows.stream()
+                        .filter(r -> (Long) r.get("id") >= lo && (Long) r.get("id") <= hi)
+                        .toList());
+            }
+            return null;
+        });
+    }
+
+    private long preload(CacheStore store, List<Map<String, Object>> rows, PreloadSpec spec) {
+        DataSource ds = mysql(rows);
+        return new Preloader(ds, new SchemaRegistry(ds), store, 4, 100).load(List.of(spec));
+    }
+
+    private List<List<Object>> sortedRanges() {
+        List<List<Object>> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparing(r -> (Long) r.get(0)));
+        return sorted;
+    }
+
+    @Test
+    void rangesSplitMinToMaxWithoutGaps() {
+        CacheStore store = new CacheStore(60_000);
+
+        assertEquals(10, preload(store, rows(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), PreloadSpec.table("users")));
+
+        assertEquals(List.of(List.of(1L, 3L), List.of(4L, 6L), List.of(7L, 9L), List.of(10L, 10L)),
+                sortedRanges());
+        for (long id = 1; id <= 10; id++) {
+            assertEquals("user" + id, store.get("users", Map.of("id", id)).get("name"));
+        }
+    }
+
+    @Test
+    void narrowSpanGetsOneRangePerKey() {
+        CacheStore store = new CacheStore(60_000);
+
+        assertEquals(2, preload(store, rows(7, 8), PreloadSpec.table("users")));
+        assertEquals(List.of(List.of(7L, 7L), List.of(8L, 8L)), sortedRanges());
+    }
+
+    @Test
+    void singleRowIsOneRange() {
+        CacheStore store = new CacheStore(60_000);
+
+        assertEquals(1, preload(store, rows(42), PreloadSpec.table("users")));
+        assertEquals(List.of(List.of(42L, 42L)), ranges);
+        assertEquals("user42", store.get("users", Map.of("id", 42L)).get("name"));
+    }
+
+    @Test
+    void emptyTableRunsNoRangeQueries() {
+        CacheStore store = new CacheStore(60_000);
+
+        assertEquals(0, preload(store, rows(), PreloadSpec.table("users")));
+        assertEquals(1, queries.size());
+        assertTrue(queries.get(0).startsWith("SELECT MIN(id), MAX(id) FROM users"));
+        assertTrue(ranges.isEmpty());
+    }
+
+    @Test
+    void whereIsAppliedToBoundsAndEveryRange() {
+        CacheStore store = new CacheStore(60_000);
+
+        preload(store, rows(1, 2, 3, 4, 5, 6, 7, 8), PreloadSpec.table("users").where("status = 'OPEN'"));
+
+        assertEquals("SELECT MIN(id), MAX(id) FROM users WHERE status = 'OPEN'", queries.get(0));
+        List<String> rangeQueries = queries.subList(1, queries.size());
+        assertEquals(4, rangeQueries.size());
+        for (String sql : rangeQueries) {
+            assertEquals("SELECT * FROM users WHERE id BETWEEN ? AND ? AND (status = 'OPEN')", sql);
+        }
+    }
+
+    @Test
+    void mostRecentIsOneOrderedQuery() {
+        CacheStore store = new CacheStore(60_000);
+
+        assertEquals(3, preload(store, rows(1, 2, 3),
+                PreloadSpec.table("users").where("active = 1").mostRecent("updated_at", 3)));
+
+        assertEquals(List.of("SELECT * FROM users WHERE active = 1 ORDER BY updated_at DESC LIMIT 3"), queries);
+        assertTrue(ranges.isEmpty());
+    }
+
+    @Test
+    void rowsLoadCleanAndNeverReplaceRecoveredOnes() {
+        CacheStore store = new CacheStore(60_000);
+        // as WAL replay or a snapshot left it: newer than MySQL, not yet flushed
+        store.upsert("users", Map.of("id", 1L), Map.of("name", "renamed"));
+
+        assertEquals(3, preload(store, rows(1, 2, 3), PreloadSpec.table("users")));
+
+        assertEquals("renamed", store.get("users", Map.of("id", 1L)).get("name"));
+        assertTrue(store.hasUnflushed("users", Map.of("id", 1L)));
+        assertFalse(store.hasUnflushed("users", Map.of("id", 2L)));
+        assertFalse(store.hasUnflushed("users", Map.of("id", 3L)));
+        assertEquals(1, store.unflushedCount());
+    }
+}
@@ -0,0 +1,141 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cachedb.Stubs.stub;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBQueryCacheTest {
+
+    /** Every query returns one row, {n = how many queries have run}. */
+    private static DataSource countingDataSource(AtomicInteger executions) {
+        ResultSetMetaData meta = stub(ResultSetMetaData.class, (name, args) -> switch (name) {
+            case "getColumnCount" -> 1;
+            case "getColumnLabel" -> "n";
+            default -> null;
+        });
+        PreparedStatement ps = stub(PreparedStatement.class, (name, args) -> {
+            if (!name.equals("executeQuery")) return null;
+            int n = executions.incrementAndGet();
+            boolean[] read = {false};
+            return stub(ResultSet.class, (rsName, rsArgs) -> switch (rsName) {
+                case "next" -> !read[0] && (read[0] = true);
+                case "getMetaData" -> meta;
+                case "getObject" -> n;
+                default -> null;
+            });
+        });
+        Connection conn = stub(Connection.class,
+                (name, args) -> name.equals("prepareStatement") ? ps : null);
+        return stub(DataSource.class,
+                (name, args) -> name.equals("getConnection") ? conn : null);
+    }
+
+    @Test
+    void repeatedQueryIsServedFromMemory() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        QueryCache cache = new QueryCache(countingDataSource(executions), 100, 60_000);
+
+        String sql = "SELECT * FROM posts WHERE author_id = ? ORDER BY likes DESC LIMIT 10";
+        List<Map<String, Object>> first = cache.query(sql, List.of(7));
+        List<Map<String, Object>> second = cache.query(sql, List.of(7));
+        cache.query(sql, List.of(8));
+
+        assertSame(first, second);
+        assertEquals(2, executions.get());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    void writeToAnyReadTableInvalidates() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        QueryCache cache = new QueryCache(countingDataSource(executions), 100, 60_000);
+
+        String sql = "SELECT o.* FROM orders o JOIN customers c ON c.id = o.customer_id WHERE c.id = ?";
+        String other = "SELECT * FROM products WHERE id = ?";
+        cache.query(sql, List.of(1));
+        cache.query(other, List.of(1));
+
+        cache.invalidate("Customers");
+        assertEquals(3, cache.query(sql, List.of(1)).get(0).get("n"));
+
+        // untouched table is still cached
+        cache.query(other, List.of(1));
+        assertEquals(3, executions.get());
+    }
+
+    @Test
+    void sizeAndTtlAreBounded() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        QueryCache bounded = new QueryCache(countingDataSource(executions), 20, 60_000);
+        for (int i = 0; i < 100; i++) {
+            bounded.query("SELECT * FROM posts WHERE id = ?", List.of(i));
+        }
+        assertTrue(bounded.size() <= 20);
+
+        QueryCache shortLived = new QueryCache(countingDataSource(executions), 20, 50);
+        shortLived.query("SELECT * FROM posts", List.of());
+        Thread.sleep(100);
+        shortLived.query("SELECT * FROM posts", List.of());
+        assertEquals(0, shortLived.hitCount());
+    }
+
+    @Test
+    void droppedResultsLeaveNoTableEntries() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        DataSource counting = countingDataSource(executions);
+        QueryCache[] cache = new QueryCache[1];
+        // every query races a write to the table it reads
+        DataSource racing = stub(DataSource.class, (name, args) -> {
+            cache[0].invalidate("posts");
+            try {
+                return counting.getConnection();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        cache[0] = new QueryCache(racing, 1_000, 60_000);
+        for (int i = 0; i < 100; i++) {
+            cache[0].query("SELECT * FROM posts WHERE id = ?", List.of(i));
+        }
+        assertEquals(0, cache[0].size());
+        assertEquals(0, cache[0].trackedCount());
+
+        QueryCache shortLived = new QueryCache(counting, 1_000, 50);
+        shortLived.query("SELECT * FROM posts WHERE id = ?", List.of(1));
+        shortLived.query("SELECT * FROM users WHERE id = ?", List.of(1));
+        Thread.sleep(100);
+        shortLived.query("SELECT * FROM posts WHERE id = ?", List.of(1));
+        assertEquals(2, shortLived.trackedCount());
+    }
+
+    @Test
+    void tablesAreFoundInFromAndJoinClauses() {
+        assertEquals(Set.of("orders", "customers", "items"), QueryCache.tables(
+                "SELECT * FROM `shop`.`orders` o, customers c "
+                        + "LEFT JOIN items i ON i.order_id = o.id WHERE o.customer_id = c.id"));
+        assertEquals(Set.of("posts", "follows"), QueryCache.tables(
+                "select * from posts where author_id in (select followee from follows where follower = ?)"));
+        assertThrows(IllegalArgumentException.class, () -> QueryCache.tables("SELECT 1"));
+    }
+
+    @Test
+    void queryWithoutQueryCacheIsRejected() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(countingDataSource(new AtomicInteger()))
+                .dashboard(false)
+                .build();
+
+        assertThrows(IllegalStateException.class, () -> db.query("SELECT * FROM posts"));
+    }
+}
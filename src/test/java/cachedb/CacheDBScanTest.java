@@ -0,0 +1,132 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBScanTest {
+
+    private static final TableConfig ORDER_ITEMS =
+            TableConfig.builder().orderedKey("order_id", "item_id").build();
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        Path wal = Path.of("logs", "wal.log");
+        Files.createDirectories(wal.getParent());
+        Files.deleteIfExists(wal);
+    }
+
+    private static List<Object> items(Iterator<Map<String, Object>> rows) {
+        List<Object> ids = new ArrayList<>();
+        rows.forEachRemaining(r -> ids.add(r.get("item_id")));
+        return ids;
+    }
+
+    @Test
+    void scanReturnsOneOrderInKeyOrder() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .table("order_items", ORDER_ITEMS)
+                .build();
+
+        // out of order, across neighbouring orders; 10 must sort after 9
+        for (int item : new int[]{3, 10, 1, 9}) {
+            db.set("order_items", Map.of("order_id", 1001, "item_id", item), Map.of("qty", item));
+        }
+        db.set("order_items", Map.of("order_id", 1000, "item_id", 1), Map.of("qty", 1));
+        db.set("order_items", Map.of("order_id", 1002, "item_id", 1), Map.of("qty", 1));
+        db.delete("order_items", Map.of("order_id", 1001, "item_id", 9));
+
+        assertEquals(List.of(1, 3, 10), items(db.scan("order_items", Map.of("order_id", 1001))));
+
+        Map<String, Object> first = db.scan("order_items", Map.of("order_id", 1001)).next();
+        assertEquals(1001, first.get("order_id"));
+        assertEquals(1, first.get("qty"));
+    }
+
+    @Test
+    void scanSeesReplayedRows() throws Exception {
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .table("order_items", ORDER_ITEMS)
+                .build();
+        db1.set("order_items", Map.of("order_id", 7, "item_id", 2), Map.of("qty", 1));
+        db1.set("order_items", Map.of("order_id", 7, "item_id", 1), Map.of("qty", 1));
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .table("order_items", ORDER_ITEMS)
+                .build();
+
+        assertEquals(List.of("1", "2"), items(db2.scan("order_items", Map.of("order_id", 7))));
+    }
+
+    @Test
+    void keyWithoutExactlyTheKeyColumnsIsRejectedBeforeLogging() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .table("order_items", ORDER_ITEMS)
+                .build();
+        long walBytes = db.walBytes();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> db.set("order_items", Map.of("order_id", 1), Map.of("qty", 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> db.patch("order_items", Map.of("order_id", 1, "item_id", 1, "sku", "x"), Map.of("qty", 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> db.increment("order_items", Map.of("item_id", 1), "qty", 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> db.delete("order_items", Map.of("order_id", 1)));
+        // nothing was logged that replay would choke on
+        assertEquals(walBytes, db.walBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> new CacheStore(60_000, Map.of("order_items",
+                TableConfig.builder().orderedKey("order_id", "order_id").build())));
+    }
+
+    @Test
+    void emptyPrefixScansWholeTableAndRemovedRowsDisappear() {
+        CacheStore store = new CacheStore(60_000, Map.of("order_items", ORDER_ITEMS));
+        store.upsert("order_items", Map.of("order_id", 2, "item_id", 1), Map.of("qty", 1));
+        store.putClean("order_items", Map.of("order_id", 1, "item_id", 1), Map.of("qty", 1));
+        store.putClean("order_items", Map.of("order_id", 1, "item_id", 2), Map.of("qty", 1));
+
+        store.remove("order_items", Map.of("order_id", 1, "item_id", 2));
+
+        Iterator<Map<String, Object>> all = store.scan("order_items", Map.of());
+        assertEquals(1, all.next().get("order_id"));
+        assertEquals(2, all.next().get("order_id"));
+        assertFalse(all.hasNext());
+    }
+
+    @Test
+    void prefixMustBeLeadingKeyColumns() {
+        CacheStore store = new CacheStore(60_000, Map.of("order_items", ORDER_ITEMS));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.scan("order_items", Map.of("item_id", 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.scan("orders", Map.of("order_id", 1)));
+    }
+}
@@ -0,0 +1,117 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBShutdownTest {
+
+    private static final Path WAL_PATH =
+            Path.of("logs", "wal.log");
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        Files.createDirectories(WAL_PATH.getParent());
+        Files.deleteIfExists(WAL_PATH);
+    }
+
+    @Test
+    void closeWithNothingDirtyCheckpointsWal() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .shutdown(2, 2)
+                .build();
+
+        db.close();
+
+        assertEquals(0, Files.size(WAL_PATH));
+    }
+
+    @Test
+    void closeIsIdempotentAndRejectsWrites() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .shutdown(1, 1)
+                .build();
+
+        db.close();
+        assertDoesNotThrow(db::close);
+
+        assertThrows(IllegalStateException.class, () ->
+                db.set("users", Map.of("id", 1), Map.of("name", "Alice")));
+        assertThrows(IllegalStateException.class, () ->
+                db.delete("users", Map.of("id", 1)));
+    }
+
+    @Test
+    void closeKeepsWalWhenRowsCannotBeFlushed() throws Exception {
+        // ds points at a database this test does not require; when it is
+        // unreachable the drain times out and the WAL must survive
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(new SimpleDataSource(
+                        "jdbc:mysql://127.0.0.1:1/none", "nobody", ""))
+                .ttlSeconds(60)
+                .shutdown(1, 2)
+                .build();
+
+        db1.set("users", Map.of("id", 9), Map.of("name", "Ivan"));
+        db1.close();
+
+        assertTrue(Files.size(WAL_PATH) > 0);
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        assertEquals("Ivan", db2.get("users", Map.of("id", 9)).get("name"));
+    }
+
+    @Test
+    void closeKeepsWalWhenAFlushWasDropped() throws Exception {
+        // every flush fails with an error that isn't about connectivity, so
+        // the row is given up on after its last attempt
+        DataSource broken = new SimpleDataSource("jdbc:mysql://127.0.0.1:1/none", "nobody", "") {
+            @Override
+            public Connection getConnection() throws SQLException {
+                throw new SQLException("Unknown database 'none'", "42000");
+            }
+        };
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(broken)
+                .ttlSeconds(60)
+                .retryBackoff(1, 2)
+                .shutdown(10, 1)
+                .build();
+
+        db1.set("users", Map.of("id", 11), Map.of("name", "Kate"));
+        db1.close();
+
+        assertTrue(Files.size(WAL_PATH) > 0);
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        assertEquals("Kate", db2.get("users", Map.of("id", 11)).get("name"));
+    }
+}
@@ -0,0 +1,210 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cachedb.Stubs.resultSet;
+import static cachedb.Stubs.stub;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBSnapshotTest {
+
+    private static final Path WAL_PATH =
+            Path.of("logs", "wal.log");
+    private static final Path SNAPSHOT_DIR =
+            Path.of("logs", "snapshot");
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        Files.createDirectories(WAL_PATH.getParent());
+        Files.deleteIfExists(WAL_PATH);
+
+        File[] old = SNAPSHOT_DIR.toFile().listFiles();
+        if (old != null) {
+            for (File f : old) f.delete();
+        }
+    }
+
+    private CacheDB open() throws Exception {
+        return CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(60)
+                .snapshots(0)
+                .build();
+    }
+
+    @Test
+    void rowsComeBackFromSnapshotAlone() throws Exception {
+        CacheDB db1 = open();
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alice", "age", 30));
+        db1.snapshot();
+
+        // wipe every record after the epoch: only the snapshot can bring the row back
+        long epochEnd;
+        try (WALReader reader = new WALReader(WAL_PATH)) {
+            reader.iterator().next();
+            epochEnd = reader.position();
+        }
+        byte[] wal = Files.readAllBytes(WAL_PATH);
+        Arrays.fill(wal, (int) epochEnd, wal.length, (byte) 0);
+        Files.write(WAL_PATH, wal);
+
+        CacheDB db2 = open();
+
+        Map<String, Object> row = db2.get("users", Map.of("id", 1));
+        assertEquals("Alice", row.get("name"));
+        assertEquals(30, row.get("age"));
+    }
+
+    @Test
+    void walTailIsReplayedOnTopOfSnapshot() throws Exception {
+        CacheDB db1 = open();
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alice"));
+        db1.set("users", Map.of("id", 2), Map.of("name", "Bob"));
+        db1.snapshot();
+
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alicia"));
+        db1.delete("users", Map.of("id", 2));
+        db1.set("orders", Map.of("id", 10), Map.of("total", 99));
+
+        CacheDB db2 = open();
+
+        assertEquals("Alicia", db2.get("users", Map.of("id", 1)).get("name"));
+        assertNull(db2.get("users", Map.of("id", 2)));
+        assertEquals("99", db2.get("orders", Map.of("id", 10)).get("total"));
+    }
+
+    @Test
+    void snapshotFromBeforeCheckpointIsDiscarded() throws Exception {
+        CacheDB db1 = open();
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alice"));
+        db1.snapshot();
+
+        // new WAL generation: Alice and the later Alicia count as flushed,
+        // so the snapshot's dirty Alice must not be restored over them
+        db1.checkpoint();
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alicia"));
+        db1.checkpoint();
+        db1.set("users", Map.of("id", 2), Map.of("name", "Bob"));
+
+        CacheDB db2 = open();
+
+        assertNull(db2.get("users", Map.of("id", 1)));
+        assertEquals("Bob", db2.get("users", Map.of("id", 2)).get("name"));
+    }
+
+    @Test
+    void snapshotOfEmptyWalStillMatchesIt() throws Exception {
+        CacheDB db1 = open();
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alice"));
+        db1.checkpoint();
+        db1.snapshot();
+        db1.set("users", Map.of("id", 2), Map.of("name", "Bob"));
+
+        CacheDB db2 = open();
+
+        assertEquals("Alice", db2.get("users", Map.of("id", 1)).get("name"));
+        assertEquals("Bob", db2.get("users", Map.of("id", 2)).get("name"));
+    }
+
+    @Test
+    void incrementsDuringASnapshotAreCountedOnce() throws Exception {
+        int rows = 2_000;
+        CacheDB db1 = open();
+        for (int id = 0; id < rows; id++) {
+            db1.set("counters", Map.of("id", id), Map.of("n", 0L));
+        }
+
+        // keep incrementing while snapshots copy the table
+        AtomicBoolean stop = new AtomicBoolean();
+        long[] increments = new long[rows];
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !stop.get(); i = (i + 1) % rows) {
+                db1.increment("counters", Map.of("id", i), "n", 1);
+                increments[i]++;
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 5; i++) {
+            db1.snapshot();
+        }
+        stop.set(true);
+        writer.join();
+
+        CacheDB db2 = open();
+
+        for (int id = 0; id < rows; id++) {
+            Number n = (Number) db2.get("counters", Map.of("id", id)).get("n");
+            assertEquals(increments[id], n.longValue(), "counter " + id);
+        }
+    }
+
+    // MySQL holding counters row 1 with n = 10
+    private static DataSource counterInMySql() {
+        DatabaseMetaData meta = stub(DatabaseMetaData.class, (name, args) -> switch (name) {
+            case "getPrimaryKeys" -> resultSet(List.of(Map.of("COLUMN_NAME", "id")));
+            case "getColumns" -> resultSet(List.of(
+                    Map.of("COLUMN_NAME", "id", "DATA_TYPE", Types.INTEGER),
+                    Map.of("COLUMN_NAME", "n", "DATA_TYPE", Types.BIGINT)));
+            default -> null;
+        });
+        Connection conn = stub(Connection.class, (name, args) -> switch (name) {
+            case "getMetaData" -> meta;
+            case "prepareStatement" -> stub(PreparedStatement.class, (method, a) ->
+                    method.equals("executeQuery") ? resultSet(List.of(Map.of("id", 1, "n", 10L))) : null);
+            default -> null;
+        });
+        return stub(DataSource.class,
+                (name, args) -> name.equals("getConnection") ? conn : null);
+    }
+
+    @Test
+    void partlyLoadedSnapshotIsDroppedBeforeFullReplay() throws Exception {
+        DataSource mysql = counterInMySql();
+        TableConfig counters = TableConfig.builder().readThrough(true).build();
+        CacheDB db1 = CacheDB.builder().dataSource(mysql).ttlSeconds(60)
+                .table("counters", counters).snapshots(0).build();
+
+        // read through clean, so the WAL has the increments but not the base
+        assertEquals(10L, db1.get("counters", Map.of("id", 1)).get("n"));
+        for (int i = 0; i < 3; i++) {
+            db1.increment("counters", Map.of("id", 1), "n", 1);
+        }
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alice"));
+        db1.snapshot();
+
+        // the users part fails its checksum; the counters part still loads
+        File[] users = SNAPSHOT_DIR.toFile().listFiles((d, name) -> name.startsWith("users."));
+        assertEquals(1, users.length);
+        byte[] part = Files.readAllBytes(users[0].toPath());
+        part[part.length / 2] ^= 0x7f;
+        Files.write(users[0].toPath(), part);
+
+        CacheDB db2 = CacheDB.builder().dataSource(mysql).ttlSeconds(60)
+                .table("counters", counters).snapshots(0).build();
+
+        assertEquals(13L, ((Number) db2.get("counters", Map.of("id", 1)).get("n")).longValue());
+        assertEquals("Alice", db2.get("users", Map.of("id", 1)).get("name"));
+    }
+}
@@ -0,0 +1,219 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBTableConfigTest {
+
+    @Test
+    void tableTtlOverridesGlobalTtl() {
+        CacheStore store = new CacheStore(60_000, Map.of(
+                "sessions", TableConfig.builder().ttlSeconds(1800).build()));
+
+        long now = System.currentTimeMillis();
+        store.upsert("sessions", Map.of("id", 1), Map.of("user", "a"));
+        store.upsert("users", Map.of("id", 1), Map.of("name", "b"));
+
+        long sessionTtl = store.raw().get("sessions").values().iterator().next().expiresAt - now;
+        long userTtl = store.raw().get("users").values().iterator().next().expiresAt - now;
+
+        assertTrue(sessionTtl > 1_700_000);
+        assertTrue(userTtl <= 60_000 + 100);
+    }
+
+    @Test
+    void lruEvictsLeastRecentlyReadCleanRows() {
+        CacheStore store = new CacheStore(60_000, Map.of(
+                "products", TableConfig.builder().maxSize(20, EvictionPolicy.LRU).build()));
+
+        for (int i = 0; i < 20; i++) {
+            store.putClean("products", Map.of("id", i), Map.of("name", "p" + i));
+        }
+        // make access order explicit instead of relying on clock ticks
+        for (CacheEntry e : store.raw().get("products").values()) {
+            e.lastAccess = ((Number) e.primaryKey.get("id")).longValue();
+        }
+        store.get("products", Map.of("id", 0));
+
+        store.putClean("products", Map.of("id", 20), Map.of("name", "p20"));
+
+        assertNotNull(store.get("products", Map.of("id", 0)));
+        assertNotNull(store.get("products", Map.of("id", 20)));
+        assertNull(store.get("products", Map.of("id", 1)));
+        assertNull(store.get("products", Map.of("id", 2)));
+        assertTrue(store.raw().get("products").size() <= 20);
+        assertEquals(2, store.evictedCount());
+    }
+
+    @Test
+    void dirtyRowsAreNeverEvicted() {
+        CacheStore store = new CacheStore(60_000, Map.of(
+                "counters", TableConfig.builder().maxSize(10, EvictionPolicy.FIFO).build()));
+
+        for (int i = 0; i < 30; i++) {
+            store.upsert("counters", Map.of("id", i), Map.of("n", i));
+        }
+
+        assertEquals(30, store.raw().get("counters").size());
+        assertEquals(0, store.evictedCount());
+    }
+
+    @Test
+    void evictionBacksOffUntilAFlushReleasesARow() {
+        CacheStore store = new CacheStore(60_000, Map.of(
+                "counters", TableConfig.builder().maxSize(100, EvictionPolicy.FIFO).build()));
+
+        // scans at 101, 106, 111 and 116 rows find nothing clean
+        for (int i = 0; i < 118; i++) {
+            store.upsert("counters", Map.of("id", i), Map.of("n", i));
+        }
+        // as if flushed, but without telling the store: nothing rescans yet
+        for (CacheEntry e : store.raw().get("counters").values()) {
+            e.dirty = false;
+        }
+        store.upsert("counters", Map.of("id", 118), Map.of("n", 118));
+        assertEquals(0, store.evictedCount());
+
+        // a released flush makes rows evictable again
+        CacheEntry pinned = store.raw().get("counters").get(CacheStore.hash(Map.of("id", 0)));
+        pinned.pendingFlush = 1;
+        store.release("counters", Map.of("id", 0), pinned.version, 1);
+        store.upsert("counters", Map.of("id", 119), Map.of("n", 119));
+
+        assertTrue(store.evictedCount() > 0);
+        assertTrue(store.raw().get("counters").size() <= 100);
+    }
+
+    @Test
+    void readOnlyTableRejectsWrites() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(new SimpleDataSource("jdbc:mysql://127.0.0.1:1/none", "nobody", ""))
+                .dashboard(false)
+                .table("catalog", TableConfig.builder().writeMode(WriteMode.READ_ONLY).build())
+                .build();
+
+        assertThrows(UnsupportedOperationException.class, () ->
+                db.set("catalog", Map.of("id", 1), Map.of("name", "Lamp")));
+        assertThrows(UnsupportedOperationException.class, () ->
+                db.delete("catalog", Map.of("id", 1)));
+    }
+
+    @Test
+    void failedWriteThroughIsNotCached() throws Exception {
+        CacheDB db = CacheDB.builder()
+                .dataSource(new SimpleDataSource("jdbc:mysql://127.0.0.1:1/none", "nobody", ""))
+                .dashboard(false)
+                .table("accounts", TableConfig.builder().writeMode(WriteMode.WRITE_THROUGH).build())
+                .build();
+
+        assertThrows(RuntimeException.class, () ->
+                db.set("accounts", Map.of("id", 1), Map.of("balance", 10)));
+        assertNull(db.get("accounts", Map.of("id", 1)));
+    }
+
+    @Test
+    void readsSlideExpiryWhenExpireAfterAccess() {
+        CacheStore store = new CacheStore(60_000, Map.of(
+                "sessions", TableConfig.builder().ttlSeconds(10).expireAfterAccess(true).build()));
+
+        store.putClean("sessions", Map.of("id", 1), Map.of("user", "a"));
+        CacheEntry entry = store.raw().get("sessions").values().iterator().next();
+        entry.expiresAt = System.currentTimeMillis() + 50;
+
+        assertNotNull(store.get("sessions", Map.of("id", 1)));
+        assertTrue(entry.expiresAt - System.currentTimeMillis() > 9_000);
+    }
+
+    @Test
+    void readsDoNotTakeTheRowsBinLock() throws Exception {
+        CacheStore store = new CacheStore(60_000, Map.of(
+                "sessions", TableConfig.builder().ttlSeconds(10).expireAfterAccess(true).build()));
+        Map<String, Object> pk = Map.of("id", 1);
+        store.putClean("users", pk, Map.of("name", "a"));
+        store.putClean("sessions", pk, Map.of("user", "a"));
+        CacheEntry session = store.raw().get("sessions").get(CacheStore.hash(pk));
+        session.expiresAt = System.currentTimeMillis() + 50;
+
+        // hold both rows' bin locks, as a long write or flush release would
+        CountDownLatch locked = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        for (String table : new String[] {"users", "sessions"}) {
+            writers.execute(() -> store.raw().get(table).computeIfPresent(CacheStore.hash(pk), (k, e) -> {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+                return e;
+            }));
+        }
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Map<String, Object>> user = reader.submit(() -> store.get("users", pk));
+            Future<Map<String, Object>> sess = reader.submit(() -> store.get("sessions", pk));
+            assertEquals("a", user.get(5, TimeUnit.SECONDS).get("name"));
+            assertEquals("a", sess.get(5, TimeUnit.SECONDS).get("user"));
+            assertTrue(session.expiresAt - System.currentTimeMillis() > 9_000);
+        } finally {
+            release.countDown();
+            writers.shutdown();
+            reader.shutdownNow();
+        }
+    }
+
+    @Test
+    void readNearExpiryRefreshesRowInBackground() throws Exception {
+        CacheStore store = new CacheStore(60_000, Map.of(
+                "products", TableConfig.builder().ttlSeconds(10).refreshAhead(0.2).build()));
+
+        RowLoader loader = new RowLoader(null, null) {
+            @Override
+            public Map<String, Object> load(String table, Map<String, Object> pk) {
+                return Map.of("name", "fresh");
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        store.setRefresher(new RefreshAheadManager(store, loader, executor));
+
+        store.putClean("products", Map.of("id", 1), Map.of("name", "stale"));
+        assertEquals("stale", store.get("products", Map.of("id", 1)).get("name"));
+
+        // inside the last 20% of the TTL
+        CacheEntry entry = store.raw().get("products").values().iterator().next();
+        entry.expiresAt = System.currentTimeMillis() + 1_000;
+
+        assertEquals("stale", store.get("products", Map.of("id", 1)).get("name"));
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("fresh", store.get("products", Map.of("id", 1)).get("name"));
+        assertTrue(entry.expiresAt - System.currentTimeMillis() > 9_000);
+    }
+
+    @Test
+    void refreshKeepsVersionWhenRowIsUnchanged() {
+        CacheStore store = new CacheStore(60_000);
+        Map<String, Object> pk = Map.of("id", 1);
+        store.putClean("products", pk, Map.of("name", "same"));
+        long version = store.version("products", pk);
+
+        store.refreshed("products", pk, version, Map.of("name", "same"));
+        assertEquals(version, store.version("products", pk));
+
+        store.refreshed("products", pk, version, Map.of("name", "changed"));
+        assertEquals(version + 1, store.version("products", pk));
+        assertEquals("changed", store.get("products", pk).get("name"));
+    }
+}
@@ -0,0 +1,150 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBWalCompactionTest {
+
+    private static final long SEGMENT = 4096;
+
+    @TempDir
+    Path dir;
+
+    private Path path;
+    private WALWriter wal;
+    private CacheStore store;
+    private FlushManager flushManager;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        path = dir.resolve("wal.log");
+        wal = new WALWriter(path, SEGMENT);
+        store = new CacheStore(60_000);
+        flushManager = new FlushManager(null, null, store, wal, 100,
+                BackpressurePolicy.BLOCK, 100, 1000, 1000);
+    }
+
+    private WALCompactor compactor(SnapshotManager snapshots) {
+        return new WALCompactor(wal, store, flushManager, new StampedLock(), snapshots);
+    }
+
+    // a write as CacheDB logs and applies it
+    private void put(int id, int n) throws Exception {
+        wal.append(LogRecord.put(("users|{id=" + id + "}").getBytes(), ("{n=" + n + "}").getBytes()),
+                Durability.NONE);
+        store.upsert("users", Map.of("id", id), Map.of("n", n));
+    }
+
+    private List<String> records() throws Exception {
+        List<String> records = new ArrayList<>();
+        try (WALReader reader = new WALReader(path, 0, SEGMENT)) {
+            for (LogRecord r : reader) {
+                if (r.type() == LogType.EPOCH) continue;
+                records.add(r.type() + " " + new String(r.key())
+                        + (r.value() == null ? "" : " " + new String(r.value())));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    void supersededRecordsOfDirtyRowsAreDropped() throws Exception {
+        for (int i = 0; i < 600; i++) {
+            put(i % 5, i);
+        }
+        long end = wal.mark().offset;
+        assertTrue(end > 3 * SEGMENT);
+
+        assertTrue(compactor(null).compact() >= 3);
+
+        // same end, same replay result, a fraction of the records
+        assertEquals(end, wal.mark().offset);
+        List<String> records = records();
+        assertTrue(records.size() < 200, "records left: " + records.size());
+        Map<String, String> last = new HashMap<>();
+        for (String r : records) {
+            String[] parts = r.split(" ");
+            last.put(parts[1], parts[2]);
+        }
+        for (int id = 0; id < 5; id++) {
+            assertEquals("{n=" + (595 + id) + "}", last.get("users|{id=" + id + "}"));
+        }
+        assertTrue(Files.size(WALWriter.segmentPath(path, 0)) < SEGMENT);
+
+        // appends carry on after the rewritten segments, and a reopened
+        // writer finds the same end
+        put(0, 1000);
+        long after = wal.mark().offset;
+        wal.close();
+        try (WALWriter reopened = new WALWriter(path, SEGMENT)) {
+            assertEquals(after, reopened.mark().offset);
+        }
+        assertEquals("PUT users|{id=0} {n=1000}", records().get(records().size() - 1));
+    }
+
+    @Test
+    void flushedRowsLoseTheirRecordsAndRowsBeingFlushedKeepThem() throws Exception {
+        byte[] counter = "users|{id=1}".getBytes();
+        put(1, 0);
+        wal.append(LogRecord.patch(counter, "{name=x}".getBytes()), Durability.NONE);
+        wal.append(LogRecord.increment(counter, "{n=1}".getBytes()), Durability.NONE);
+        store.patch("users", Map.of("id", 1), Map.of("name", "x"));
+        store.increment("users", Map.of("id", 1), "n", 1);
+
+        put(2, 0);
+        put(3, 0);
+        // row 2 was flushed and evicted; row 3 is being flushed right now
+        store.raw().get("users").remove(CacheStore.hash(Map.of("id", 2)));
+        CacheEntry flushing = store.raw().get("users").get(CacheStore.hash(Map.of("id", 3)));
+        flushing.dirty = false;
+        flushing.pendingFlush = 42;
+
+        // fill the first segment with writes of a clean row
+        for (int i = 0; i < 200; i++) {
+            wal.append(LogRecord.put("users|{id=4}".getBytes(), ("{n=" + i + "}").getBytes()),
+                    Durability.NONE);
+        }
+        store.putClean("users", Map.of("id", 4), Map.of("n", 199));
+
+        assertTrue(compactor(null).compact() > 0);
+
+        assertEquals(List.of(
+                "PUT users|{id=1} {n=0}",
+                "PATCH users|{id=1} {name=x}",
+                "INCREMENT users|{id=1} {n=1}",
+                "PUT users|{id=3} {n=0}"
+        ), records().subList(0, 4));
+        assertFalse(records().stream().anyMatch(r -> r.contains("{id=2}")));
+        assertTrue(records().size() < 100);
+    }
+
+    @Test
+    void nothingIsRewrittenAcrossACheckpointOrPastTheSnapshot() throws Exception {
+        for (int i = 0; i < 600; i++) {
+            put(i % 5, i);
+        }
+
+        // no snapshot yet: replay would start at 0
+        SnapshotManager snapshots = new SnapshotManager(dir.resolve("snapshot"), store, wal, 1);
+        assertEquals(0, compactor(snapshots).compact());
+        assertEquals(600, records().size());
+
+        long epoch = wal.mark().epoch;
+        wal.truncate();
+        assertEquals(-1, wal.replaceSegment(0, epoch, List.of()));
+        assertEquals(0, compactor(null).compact());
+
+        assertThrows(IllegalArgumentException.class, () -> CacheDB.builder().walCompaction(0));
+    }
+}
@@ -0,0 +1,80 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBWalCompressionTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] text(int bytes) {
+        StringBuilder sb = new StringBuilder("{bio=");
+        while (sb.length() < bytes) {
+            sb.append("likes hiking, coffee and distributed systems; ");
+        }
+        return sb.append("}").toString().getBytes();
+    }
+
+    @Test
+    void largeValuesAreDeflatedAndFlagged() {
+        LogRecord large = LogRecord.put("users|{id=1}".getBytes(), text(4096));
+        ByteBuffer plain = LogSerializer.serialize(large);
+        ByteBuffer compressed = LogSerializer.serialize(large, 512);
+
+        assertTrue(compressed.remaining() < plain.remaining() / 4);
+        assertEquals(LogType.PUT.code() | LogSerializer.COMPRESSED, compressed.get(8));
+
+        compressed.position(8);
+        LogRecord read = LogSerializer.deserialize(compressed);
+        assertEquals(LogType.PUT, read.type());
+        assertArrayEquals(large.value(), read.value());
+    }
+
+    @Test
+    void smallAndIncompressibleValuesStayRaw() {
+        LogRecord small = LogRecord.put("k".getBytes(), text(100));
+        assertEquals(LogType.PUT.code(), LogSerializer.serialize(small, 512).get(8));
+
+        byte[] noise = new byte[4096];
+        new Random(7).nextBytes(noise);
+        LogRecord random = LogRecord.put("k".getBytes(), noise);
+        ByteBuffer buf = LogSerializer.serialize(random, 512);
+        assertEquals(LogType.PUT.code(), buf.get(8));
+        assertEquals(LogSerializer.serialize(random).remaining(), buf.remaining());
+
+        LogRecord delete = LogRecord.delete("k".getBytes());
+        assertEquals(LogType.DELETE.code(), LogSerializer.serialize(delete, 1).get(8));
+    }
+
+    @Test
+    void compressedAndRawRecordsReplayTogether() throws Exception {
+        Path path = dir.resolve("wal.log");
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(LogRecord.put("a".getBytes(), text(2000)));
+            wal.compressAbove(512);
+            wal.append(LogRecord.put("b".getBytes(), text(2000)));
+            wal.append(LogRecord.patch("c".getBytes(), "{n=1}".getBytes()));
+        }
+        assertTrue(Files.size(path) < 2 * 2000 + 200);
+
+        List<LogRecord> records = new ArrayList<>();
+        try (WALReader reader = new WALReader(path)) {
+            reader.forEach(records::add);
+        }
+        assertEquals(4, records.size());
+        assertArrayEquals(text(2000), records.get(1).value());
+        assertArrayEquals(text(2000), records.get(2).value());
+        assertEquals("{n=1}", new String(records.get(3).value()));
+        assertThrows(IllegalArgumentException.class, () -> CacheDB.builder().walCompression(0));
+    }
+}
@@ -0,0 +1,117 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBWalConcurrencyTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentAppendsAreAllReadBackIntact() throws Exception {
+        Path path = dir.resolve("wal.log");
+        int threads = 16;
+        int appends = 200;
+
+        try (WALWriter wal = new WALWriter(path)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                Thread writer = new Thread(() -> {
+                    for (int i = 0; i < appends; i++) {
+                        try {
+                            wal.append(LogRecord.put(("k" + id + "-" + i).getBytes(),
+                                    ("v" + id + "-" + i).repeat(1 + i % 7).getBytes()));
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            assertEquals(Files.size(path), wal.mark().offset);
+        }
+
+        Set<String> keys = new HashSet<>();
+        int epochs = 0;
+        try (WALReader reader = new WALReader(path)) {
+            for (LogRecord r : reader) {
+                if (r.type() == LogType.EPOCH) {
+                    epochs++;
+                    continue;
+                }
+                String key = new String(r.key());
+                int i = Integer.parseInt(key.substring(key.indexOf('-') + 1));
+                assertEquals(("v" + key.substring(1)).repeat(1 + i % 7), new String(r.value()));
+                keys.add(key);
+            }
+        }
+        assertEquals(1, epochs);
+        assertEquals(threads * appends, keys.size());
+    }
+
+    @Test
+    void truncateStartsANewEpochOnTheNextAppend() throws Exception {
+        Path path = dir.resolve("wal.log");
+
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(LogRecord.put("a".getBytes(), "1".getBytes()));
+            long first = WALWriter.readEpoch(path);
+
+            wal.truncate();
+            assertEquals(0, Files.size(path));
+            assertEquals(0, wal.mark().offset);
+
+            wal.append(LogRecord.delete("a".getBytes()));
+            long second = WALWriter.readEpoch(path);
+            assertNotEquals(0, second);
+            assertNotEquals(first, second);
+            assertEquals(second, wal.mark().epoch);
+        }
+
+        // reopening continues at the end of the existing log
+        try (WALWriter wal = new WALWriter(path)) {
+            long size = Files.size(path);
+            wal.append(LogRecord.delete("b".getBytes()));
+            assertTrue(Files.size(path) > size);
+        }
+        int records = 0;
+        try (WALReader reader = new WALReader(path)) {
+            for (LogRecord r : reader) records++;
+        }
+        assertEquals(3, records);
+    }
+
+    @Test
+    void truncateToAMarkKeepsLaterAppends() throws Exception {
+        Path path = dir.resolve("wal.log");
+
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(LogRecord.put("a".getBytes(), "1".getBytes()));
+            WALMark mark = wal.mark();
+            wal.append(LogRecord.put("b".getBytes(), "2".getBytes()));
+
+            long size = Files.size(path);
+            assertFalse(wal.truncate(mark));
+            assertEquals(size, Files.size(path));
+
+            assertTrue(wal.truncate(wal.mark()));
+            assertEquals(0, Files.size(path));
+        }
+    }
+}
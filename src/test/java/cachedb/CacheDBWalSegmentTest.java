@@ -0,0 +1,96 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBWalSegmentTest {
+
+    private static final long SEGMENT = 4096;
+
+    @TempDir
+    Path dir;
+
+    private static LogRecord record(String key) {
+        return LogRecord.put(key.getBytes(), ("{payload=" + "x".repeat(150) + "}").getBytes());
+    }
+
+    private static List<String> keys(Path path) throws Exception {
+        List<String> keys = new ArrayList<>();
+        try (WALReader reader = new WALReader(path, 0, SEGMENT)) {
+            for (LogRecord r : reader) {
+                if (r.type() != LogType.EPOCH) keys.add(new String(r.key()));
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    void recordsRollOverIntoFixedSizeSegments() throws Exception {
+        Path path = dir.resolve("wal.log");
+        try (WALWriter wal = new WALWriter(path, SEGMENT)) {
+            for (int i = 0; i < 100; i++) {
+                wal.append(record("k" + i));
+            }
+        }
+
+        assertEquals(SEGMENT, Files.size(path));
+        assertEquals(SEGMENT, Files.size(WALWriter.segmentPath(path, 3)));
+        List<String> keys = keys(path);
+        assertEquals(100, keys.size());
+        assertEquals("k0", keys.get(0));
+        assertEquals("k99", keys.get(99));
+    }
+
+    @Test
+    void reusedSegmentsDontReplayTheOldEpoch() throws Exception {
+        Path path = dir.resolve("wal.log");
+        try (WALWriter wal = new WALWriter(path, SEGMENT)) {
+            for (int i = 0; i < 60; i++) {
+                wal.append(record("old" + i));
+            }
+            wal.truncate();
+            assertEquals(List.of(), keys(path));
+            assertEquals(SEGMENT, Files.size(path));
+
+            // shorter records: every old record is still on disk after these
+            for (int i = 0; i < 30; i++) {
+                wal.append(LogRecord.delete(("new" + i).getBytes()));
+            }
+        }
+
+        List<String> keys = keys(path);
+        assertEquals(30, keys.size());
+        assertTrue(keys.stream().allMatch(k -> k.startsWith("new")), keys.toString());
+    }
+
+    @Test
+    void reopeningContinuesAfterTheLastRecord() throws Exception {
+        Path path = dir.resolve("wal.log");
+        long end;
+        try (WALWriter wal = new WALWriter(path, SEGMENT)) {
+            for (int i = 0; i < 30; i++) {
+                wal.append(record("a" + i));
+            }
+            end = wal.mark().offset;
+        }
+
+        try (WALWriter wal = new WALWriter(path, SEGMENT)) {
+            assertEquals(end, wal.mark().offset);
+            for (int i = 0; i < 30; i++) {
+                wal.append(record("b" + i));
+            }
+        }
+
+        List<String> keys = keys(path);
+        assertEquals(60, keys.size());
+        assertEquals("b29", keys.get(59));
+        assertThrows(IllegalArgumentException.class, () -> CacheDB.builder().preallocateWal(100));
+    }
+}
@@ -0,0 +1,164 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBWalToolTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] b(String s) {
+        return s.getBytes();
+    }
+
+    private static List<String> read(Path path, long segmentBytes) throws Exception {
+        List<String> records = new ArrayList<>();
+        try (WALReader reader = new WALReader(path, 0, segmentBytes)) {
+            for (LogRecord r : reader) {
+                if (r.type() == LogType.EPOCH) continue;
+                records.add(r.type() + " " + new String(r.key())
+                        + (r.value() == null ? "" : " " + new String(r.value())));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    void statsCountRecordsPerTypeAndTable() throws Exception {
+        Path path = dir.resolve("wal.log");
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(LogRecord.put(b("users|{id=1}"), b("{name=Alice}")));
+            wal.append(LogRecord.put(b("users|{id=2}"), b("{name=Bob}")));
+            wal.append(LogRecord.patch(b("users|{id=1}"), b("{name=Al}")));
+            wal.append(LogRecord.increment(b("counters|{id=1}"), b("{n=1}")));
+            wal.append(LogRecord.delete(b("users|{id=2}")));
+        }
+
+        WALTool.Stats stats = WALTool.inspect(path, 0);
+        assertEquals(6, stats.records);
+        assertEquals(Files.size(path), stats.bytes);
+        assertEquals(Files.size(path), stats.readableEnd);
+        assertNotEquals(0, stats.epoch);
+        assertEquals(3, stats.keys.size());
+        assertEquals(2, stats.byType.get(LogType.PUT)[0]);
+        assertEquals(1, stats.byType.get(LogType.DELETE)[0]);
+        assertEquals(4, stats.byTable.get("users").records);
+        assertEquals(2, stats.byTable.get("users").keys.size());
+        assertEquals(1, stats.byTable.get("counters").records);
+        assertTrue(stats.corruption.isEmpty());
+    }
+
+    @Test
+    void statsLocateCorruptionAndRecordsPastIt() throws Exception {
+        Path path = dir.resolve("wal.log");
+        long second;
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(LogRecord.put(b("users|{id=1}"), b("{name=Alice}")));
+            second = wal.mark().offset;
+            for (int i = 2; i <= 4; i++) {
+                wal.append(LogRecord.put(b("users|{id=" + i + "}"), b("{name=User" + i + "}")));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), second);
+        }
+
+        WALTool.Stats stats = WALTool.inspect(path, 0);
+        assertEquals(2, stats.records); // epoch and the first put
+        assertEquals(second, stats.readableEnd);
+        assertEquals(1, stats.corruption.size());
+        assertEquals(second, stats.corruption.get(0)[0]);
+        assertTrue(stats.corruption.get(0)[1] > second);
+        assertEquals(2, stats.recordsPastCorruption);
+    }
+
+    @Test
+    void compactionKeepsRecordsFromTheLastFullWritePerKey() throws Exception {
+        Path path = dir.resolve("wal.log");
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(LogRecord.put(b("users|{id=1}"), b("{name=A1}")));
+            wal.append(LogRecord.patch(b("users|{id=1}"), b("{name=A2}")));
+            wal.append(LogRecord.put(b("users|{id=2}"), b("{name=B1}")));
+            wal.append(LogRecord.put(b("users|{id=1}"), b("{name=A3}")));
+            wal.append(LogRecord.patch(b("users|{id=1}"), b("{name=A4}")));
+            wal.append(LogRecord.increment(b("users|{id=1}"), b("{visits=1}")));
+            wal.append(LogRecord.delete(b("users|{id=2}")));
+            wal.append(LogRecord.increment(b("counters|{id=1}"), b("{n=1}")));
+            wal.append(LogRecord.increment(b("counters|{id=1}"), b("{n=2}")));
+        }
+
+        Path out = dir.resolve("compacted.log");
+        WALTool.Compaction result = WALTool.compact(path, out, 0, 0);
+
+        assertEquals(10, result.read);
+        assertEquals(List.of(
+                "PUT users|{id=1} {name=A3}",
+                "PATCH users|{id=1} {name=A4}",
+                "INCREMENT users|{id=1} {visits=1}",
+                "DELETE users|{id=2}",
+                "INCREMENT counters|{id=1} {n=1}",
+                "INCREMENT counters|{id=1} {n=2}"
+        ), read(out, 0));
+        assertEquals(6, result.kept);
+        assertTrue(result.bytesAfter < result.bytesBefore);
+        assertEquals(Files.size(out), result.bytesAfter);
+    }
+
+    @Test
+    void keyColumnOrderDoesNotSplitARow() throws Exception {
+        // Map.toString of the same key can list its columns in either order
+        Path path = dir.resolve("wal.log");
+        try (WALWriter wal = new WALWriter(path)) {
+            wal.append(LogRecord.increment(b("items|{order=7, line=2}"), b("{qty=1}")));
+            wal.append(LogRecord.put(b("items|{line=2, order=7}"), b("{qty=5}")));
+            wal.append(LogRecord.increment(b("items|{order=7, line=2}"), b("{qty=1}")));
+        }
+
+        WALTool.Stats stats = WALTool.inspect(path, 0);
+        assertEquals(1, stats.keys.size());
+        assertEquals(1, stats.byTable.get("items").keys.size());
+
+        Path out = dir.resolve("compacted.log");
+        WALTool.compact(path, out, 0, 0);
+        assertEquals(List.of(
+                "PUT items|{line=2, order=7} {qty=5}",
+                "INCREMENT items|{order=7, line=2} {qty=1}"
+        ), read(out, 0));
+    }
+
+    @Test
+    void compactionReadsAndWritesSegmentedLogs() throws Exception {
+        Path path = dir.resolve("wal.log");
+        long segment = 4096;
+        try (WALWriter wal = new WALWriter(path, segment)) {
+            for (int i = 0; i < 200; i++) {
+                wal.append(LogRecord.put(b("users|{id=" + (i % 5) + "}"), b("{n=" + i + "}")));
+            }
+        }
+        assertTrue(Files.exists(WALWriter.segmentPath(path, 1)));
+        assertEquals(201, WALTool.inspect(path, segment).records);
+
+        Path out = dir.resolve("compacted.log");
+        WALTool.Compaction result = WALTool.compact(path, out, segment, 0);
+        assertEquals(5, result.kept);
+        assertEquals(List.of(
+                "PUT users|{id=0} {n=195}",
+                "PUT users|{id=1} {n=196}",
+                "PUT users|{id=2} {n=197}",
+                "PUT users|{id=3} {n=198}",
+                "PUT users|{id=4} {n=199}"
+        ), read(out, segment));
+        assertFalse(Files.exists(WALWriter.segmentPath(out, 1)));
+    }
+}
@@ -0,0 +1,74 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class CacheDBWorkerThreadsTest {
+
+    // Thread.isVirtual() is Java 21+; false on older runtimes
+    private static boolean isVirtual(Thread t) throws Exception {
+        if (!WorkerThreads.virtualThreadsAvailable()) return false;
+        return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+    }
+
+    private static Thread threadOf(ExecutorService executor) throws Exception {
+        AtomicReference<Thread> ran = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            ran.set(Thread.currentThread());
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        return ran.get();
+    }
+
+    @Test
+    void platformThreadsAreNamedInOrder() throws Exception {
+        ThreadFactory factory = WorkerThreads.factory("flush-worker", false);
+        Thread first = factory.newThread(() -> {});
+        Thread second = factory.newThread(() -> {});
+
+        assertEquals("flush-worker-0", first.getName());
+        assertEquals("flush-worker-1", second.getName());
+        assertFalse(isVirtual(first));
+
+        Thread pooled = threadOf(WorkerThreads.executor("dashboard-http", false, 2));
+        assertTrue(pooled.getName().startsWith("dashboard-http-"));
+        assertFalse(isVirtual(pooled));
+    }
+
+    @Test
+    void virtualThreadsFailFastWithoutJava21() {
+        assumeFalse(WorkerThreads.virtualThreadsAvailable(), "running on Java 21+");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> WorkerThreads.factory("flush-worker", true));
+        assertTrue(e.getMessage().contains("Java 21"));
+        assertThrows(IllegalStateException.class,
+                () -> WorkerThreads.executor("dashboard-http", true, 2));
+        // the lookup failing leaves platform threads usable
+        assertNotNull(WorkerThreads.factory("flush-worker", false).newThread(() -> {}));
+    }
+
+    @Test
+    void jdk21ProfileGetsVirtualThreads() throws Exception {
+        // set by the jdk21 build profile, and the builder's default
+        assumeTrue(Boolean.getBoolean("cachedb.virtualThreads"), "not built with -Pjdk21");
+        assertTrue(WorkerThreads.virtualThreadsAvailable());
+
+        Thread worker = WorkerThreads.factory("flush-worker", true).newThread(() -> {});
+        assertTrue(isVirtual(worker));
+        assertEquals("flush-worker-0", worker.getName());
+        assertTrue(isVirtual(threadOf(WorkerThreads.executor("dashboard-http", true, 2))));
+    }
+}
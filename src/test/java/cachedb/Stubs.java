@@ -0,0 +1,64 @@
+package cachedb;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Dynamic-proxy stand-ins for JDBC interfaces, for tests that run without MySQL. */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    interface Handler {
+        Object handle(String method, Object[] args);
+    }
+
+    /**
+     * An instance of {@code type} whose every method is answered by
+     * {@code handler}; a null answer reads as false or 0 for primitives.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object result = handler.handle(method.getName(), args);
+                    if (result == null && method.getReturnType() == boolean.class) return false;
+                    if (result == null && method.getReturnType() == int.class) return 0;
+                    if (result == null && method.getReturnType() == long.class) return 0L;
+                    return result;
+                });
+    }
+
+    /**
+     * A result set over {@code rows}, each a map in column order (e.g. a
+     * LinkedHashMap or Map.of with one entry). Values are read by label or
+     * by 1-based position, as objects, strings, ints or longs.
+     */
+    static ResultSet resultSet(List<Map<String, Object>> rows) {
+        List<String> labels = rows.isEmpty() ? List.of() : new ArrayList<>(rows.get(0).keySet());
+        ResultSetMetaData meta = stub(ResultSetMetaData.class, (name, args) -> switch (name) {
+            case "getColumnCount" -> labels.size();
+            case "getColumnLabel", "getColumnName" -> labels.get((Integer) args[0] - 1);
+            default -> null;
+        });
+        int[] pos = {-1};
+        return stub(ResultSet.class, (name, args) -> {
+            if (name.equals("next")) return ++pos[0] < rows.size();
+            if (name.equals("getMetaData")) return meta;
+            if (!name.startsWith("get") || args == null) return null;
+
+            Map<String, Object> row = rows.get(pos[0]);
+            Object value = args[0] instanceof Integer i ? row.get(labels.get(i - 1)) : row.get(args[0]);
+            return switch (name) {
+                case "getString" -> value != null ? value.toString() : null;
+                case "getInt" -> value != null ? ((Number) value).intValue() : 0;
+                case "getLong" -> value != null ? ((Number) value).longValue() : 0L;
+                default -> value;
+            };
+        });
+    }
+}